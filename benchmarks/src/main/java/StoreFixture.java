@@ -0,0 +1,75 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+
+import benchmarks.StoreOperations;
+
+/**
+ * This class runs the operations of {@link StoreOperations} on a {@link DonationStore} on synthetic data,
+ * the same data and operations as {@link DonationBenchmark} times with its own loop.
+ */
+public class StoreFixture implements StoreOperations {
+    private Path directory;
+    private String usersFile;
+    private String clothesFile;
+    private String companiesFile;
+    private DonationStore store;
+
+    @Override
+    public void setUp(int records) throws Exception {
+        directory = Files.createTempDirectory("donation-benchmark");
+        usersFile = directory.resolve("usersList.txt").toString();
+        clothesFile = directory.resolve("clothesList.txt").toString();
+        companiesFile = directory.resolve("donationCompaniesList.txt").toString();
+        DonationBenchmark.writeSyntheticData(usersFile, clothesFile, records);
+        store = new DonationStore(usersFile, clothesFile, companiesFile);
+        store.load();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        store.close();
+        DonationBenchmark.deleteQuietly(usersFile, clothesFile, companiesFile, clothesFile + ".compact",
+                clothesFile + ".wal", clothesFile + ".snapshot", clothesFile + ".snapshot.tmp");
+        Files.deleteIfExists(directory);
+    }
+
+    @Override
+    public int loadClothesData() throws Exception {
+        DonationStore loaded = new DonationStore(usersFile, clothesFile, companiesFile);
+        loaded.loadClothesData();
+        return loaded.getClothes().size();
+    }
+
+    @Override
+    public long saveClothesData() throws Exception {
+        store.saveClothesData();
+        return new File(clothesFile).length();
+    }
+
+    @Override
+    public int searchByGender() throws Exception {
+        return store.searchByGender(DonationRecord.Gender.FEMALE).size();
+    }
+
+    @Override
+    public int searchBySize() throws Exception {
+        return store.searchBySize(DonationRecord.Size.XL).size();
+    }
+
+    @Override
+    public int searchByQuality() throws Exception {
+        return store.searchByQuality(DonationRecord.Quality.HIGH).size();
+    }
+
+    @Override
+    public int previousDonations() throws Exception {
+        return store.previousDonations("user " + ThreadLocalRandom.current().nextInt(DonationBenchmark.USERS)).size();
+    }
+
+    @Override
+    public int generateRandomPrice() {
+        return store.generateRandomPrice(DonationRecord.Quality.MEDIUM);
+    }
+}
@@ -0,0 +1,92 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This class benchmarks the hot paths of the donation store with JMH: loading and saving the clothes
+ * file, the three searches, the previous donations of a user and the random price of a donation.
+ * <p>
+ *     For every dataset size a users file and a clothes file are generated in a temporary directory
+ *     and loaded once per fork (see {@link StoreOperations}). Every benchmark runs in two forked JVMs,
+ *     each with its own warm-up iterations, so the JIT has compiled the operation and the result does
+ *     not depend on the profile of a single JVM. Every fork gets a heap of 4 GB for the largest dataset.
+ * </p>
+ * <p>
+ *     Usage: mvn package, then java -jar benchmarks/target/benchmarks.jar [JMH options]
+ *     e.g. -p records=10000 for the smallest dataset only.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 2, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class StoreBenchmark {
+    @Param({"10000", "1000000", "10000000"})
+    private int records;
+
+    private StoreOperations store;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        store = StoreOperations.create();
+        store.setUp(records);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        store.tearDown();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int loadClothesData() throws Exception {
+        return store.loadClothesData();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long saveClothesData() throws Exception {
+        return store.saveClothesData();
+    }
+
+    @Benchmark
+    public int searchByGender() throws Exception {
+        return store.searchByGender();
+    }
+
+    @Benchmark
+    public int searchBySize() throws Exception {
+        return store.searchBySize();
+    }
+
+    @Benchmark
+    public int searchByQuality() throws Exception {
+        return store.searchByQuality();
+    }
+
+    @Benchmark
+    public int previousDonations() throws Exception {
+        return store.previousDonations();
+    }
+
+    @Benchmark
+    public int generateRandomPrice() {
+        return store.generateRandomPrice();
+    }
+}
@@ -0,0 +1,58 @@
+package benchmarks;
+
+/**
+ * This interface is the part of a {@code DonationStore} on synthetic data that {@link StoreBenchmark} times.
+ * <p>
+ *     The store and the rest of the program are in the unnamed package, which code in a package can not
+ *     refer to, and JMH only runs benchmarks that are in a package. {@code StoreFixture}, in the unnamed
+ *     package, implements this interface and is found by name once per fork, so the timed calls are plain
+ *     interface calls.
+ * </p>
+ */
+public interface StoreOperations {
+    /**
+     * The name of the class that implements this interface.
+     */
+    String IMPLEMENTATION = "StoreFixture";
+
+    /**
+     * Generates a users file and a clothes file of the given number of records in a temporary directory
+     * and loads a store on them.
+     */
+    void setUp(int records) throws Exception;
+
+    /**
+     * Closes the store and deletes its files.
+     */
+    void tearDown() throws Exception;
+
+    /**
+     * Loads the clothes file into a new store and returns the number of clothes.
+     */
+    int loadClothesData() throws Exception;
+
+    /**
+     * Rewrites the clothes file from the store and returns its length.
+     */
+    long saveClothesData() throws Exception;
+
+    int searchByGender() throws Exception;
+
+    int searchBySize() throws Exception;
+
+    int searchByQuality() throws Exception;
+
+    /**
+     * Returns the number of previous donations of a random user.
+     */
+    int previousDonations() throws Exception;
+
+    int generateRandomPrice();
+
+    /**
+     * Returns a new instance of the implementation.
+     */
+    static StoreOperations create() throws ReflectiveOperationException {
+        return (StoreOperations) Class.forName(IMPLEMENTATION).getDeclaredConstructor().newInstance();
+    }
+}
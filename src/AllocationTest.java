@@ -0,0 +1,166 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * This class checks that the clothes donated on many threads are allocated as if they were allocated one by one.
+ * <p>
+ *     The needs of 500 organizations are declared against a store of 10,000 records, and then 8 threads
+ *     by default donate 2,000 items each by default in batches of 10, while another thread keeps reading
+ *     the allocations. Afterwards every allocated item must fit its need, no need may have more items
+ *     than it asked for, no item may be allocated twice, and no open need may accept an unallocated item.
+ *     The allocations must also be the same as after allocating all clothes again from the start, and
+ *     as those of a new store loaded from the files.
+ * </p>
+ * <p>
+ *     Usage: java AllocationTest [threads] [donations]
+ *     Prints the result of every check and exits with status 1 if one of them fails.
+ * </p>
+ */
+public class AllocationTest {
+    private static final int RECORDS = 10_000;
+    private static final int ORGANIZATIONS = 500;
+
+    public static void main(String[] args) throws Exception {
+        int threads = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+        int donations = (args.length > 1) ? Integer.parseInt(args[1].replace("_", "")) : 2_000;
+
+        Path directory = Files.createTempDirectory("donation-test");
+        String usersFile = directory.resolve("usersList.txt").toString();
+        String clothesFile = directory.resolve("clothesList.txt").toString();
+        String companiesFile = directory.resolve("donationCompaniesList.txt").toString();
+        boolean passed;
+        try {
+            DonationBenchmark.writeSyntheticData(usersFile, clothesFile, RECORDS);
+            DonationStore store = new DonationStore(usersFile, clothesFile, companiesFile);
+            store.load();
+            store.registerNeeds(DonationBenchmark.syntheticNeeds(ORGANIZATIONS, new Random(5)));
+            // Needs declared after the clothes take them from the pools; start from the order of a full allocation
+            store.reallocate();
+
+            runDonors(store, threads, donations);
+            List<DonationAllocator.Allocation> allocations = store.getAllocations();
+            passed = checkAllocations("After concurrent donations", store, allocations);
+            passed &= ConcurrencyTest.checkConsistency(threads + " threads", store, RECORDS + (long) threads * donations);
+
+            List<String> donated = describe(allocations);
+            store.reallocate();
+            passed &= check("Same allocations after allocating all clothes again", donated.equals(describe(store.getAllocations())));
+            store.close();
+
+            DonationStore reloaded = new DonationStore(usersFile, clothesFile, companiesFile);
+            reloaded.load();
+            passed &= checkAllocations("Reloaded", reloaded, reloaded.getAllocations());
+            passed &= check("Same allocations after reloading", donated.equals(describe(reloaded.getAllocations())));
+            reloaded.close();
+        } finally {
+            DonationBenchmark.deleteQuietly(usersFile, clothesFile, companiesFile, clothesFile + ".compact",
+                    clothesFile + ".wal", clothesFile + ".snapshot", clothesFile + ".snapshot.tmp");
+            Files.deleteIfExists(directory);
+        }
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Donates the given number of items on every thread, in batches of 10, while one more thread
+     * reads the allocations until they are done.
+     */
+    private static void runDonors(DonationStore store, int threads, int donations) throws InterruptedException {
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> donors = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Random random = new Random(t);
+            Thread donor = new Thread(() -> {
+                try {
+                    for (int i = 0; i < donations; i += 10) {
+                        store.addDonations(DonationBenchmark.syntheticDonations(Math.min(10, donations - i), random));
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            });
+            donors.add(donor);
+            donor.start();
+        }
+        Thread reader = new Thread(() -> {
+            try {
+                while (donors.stream().anyMatch(Thread::isAlive)) {
+                    store.getAllocations();
+                }
+            } catch (Throwable e) {
+                failures.add(e);
+            }
+        });
+        reader.start();
+        for (Thread donor : donors) {
+            donor.join();
+        }
+        reader.join();
+        if (!failures.isEmpty()) {
+            throw new IllegalStateException("A donor failed", failures.get(0));
+        }
+    }
+
+    /**
+     * Checks that every allocated item fits its need, that no need has more items than it asked for,
+     * that no item is allocated twice, and that no need that is still open accepts an unallocated item.
+     *
+     * @return true if so
+     */
+    private static boolean checkAllocations(String name, DonationStore store, List<DonationAllocator.Allocation> allocations)
+            throws IOException {
+        Set<DonationRecord> allocated = Collections.newSetFromMap(new IdentityHashMap<>());
+        // Category, size, gender and minimum quality of the open needs, with -1 for any size or gender
+        Set<List<Integer>> open = new HashSet<>();
+        boolean ok = true;
+        for (DonationAllocator.Allocation allocation : allocations) {
+            OrganizationNeed need = allocation.getNeed();
+            ok &= allocation.getItems().size() <= need.getQuantity();
+            for (DonationRecord item : allocation.getItems()) {
+                ok &= need.accepts(item) && allocated.add(item);
+            }
+            if (!allocation.isMet()) {
+                open.add(List.of(need.getCategory().ordinal(), need.getSize() == null ? -1 : need.getSize().ordinal(),
+                        need.getGender() == null ? -1 : need.getGender().ordinal(), need.getMinQuality().ordinal()));
+            }
+        }
+        for (DonationRecord item : store.getClothes()) {
+            if (allocated.contains(item)) {
+                continue;
+            }
+            for (int size : new int[] {item.getSize().ordinal(), -1}) {
+                for (int gender : new int[] {item.getGender().ordinal(), -1}) {
+                    for (int quality = 0; quality <= item.getQuality().ordinal(); quality++) {
+                        ok &= !open.contains(List.of(item.getCategory().ordinal(), size, gender, quality));
+                    }
+                }
+            }
+        }
+        return check(name + ": " + allocated.size() + " items allocated to " + allocations.size() + " needs", ok);
+    }
+
+    /**
+     * Returns every allocation as a line of its need and items, which stay the same across a reload.
+     */
+    private static List<String> describe(List<DonationAllocator.Allocation> allocations) {
+        return allocations.stream()
+                .map(allocation -> allocation.getNeed() + " " + allocation.getItems().stream()
+                        .map(DonationRecord::toString).collect(Collectors.joining(";")))
+                .collect(Collectors.toList());
+    }
+
+    private static boolean check(String description, boolean passed) {
+        System.out.println(description + ": " + (passed ? "ok" : "FAILED"));
+        return passed;
+    }
+}
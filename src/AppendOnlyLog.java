@@ -0,0 +1,431 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * This class implements the append-only storage used for the users and clothes files.
+ * <p>
+ *     A new record is written to the end of the file, so saving a donation only costs
+ *     the bytes of that donation instead of rewriting the whole file.
+ *     Blank lines, e.g. left by a write that was cut short, are counted as dead lines while reading.
+ *     The file is compacted (rewritten with only the live records) on demand,
+ *     and only when it actually contains dead lines.
+ * </p>
+ * <p>
+ *     The log remembers the size and modification time of the file when it was last read.
+ *     {@link #isUpToDate()} compares them with the file on disk, so callers can skip reading
+ *     a file that has not changed. If the file has only grown, {@link #readAppended()} reads
+ *     just the new records from the end of the file. {@link #resumeFrom} sets that position without
+ *     reading the file at all.
+ * </p>
+ * <p>
+ *     Several programs may share the file. Every write takes the {@link SharedFileLock} of the file
+ *     and records the new {@link SharedFileLock.Version}, so lines of different programs never mix
+ *     and a rewrite never happens while another program appends. A program that adds to what it
+ *     has read holds the lock from the read to the write with {@link #lock()}: if another program
+ *     has written since, the file is no longer up to date, and {@link #readAppended()} reads the
+ *     lines the other program appended, or returns null if it rewrote the file.
+ * </p>
+ * <p>
+ *     {@link #isUpToDate()} may be called from any thread. All other methods must be called
+ *     by one thread at a time, e.g. while holding a lock for the file.
+ * </p>
+ */
+public class AppendOnlyLog {
+    private final String fileName;
+    private final SharedFileLock fileLock;
+    private int deadLines;
+    // The version of the file when this log last read or wrote it, or null if it never did
+    private SharedFileLock.Version seenVersion;
+    // Set when another program has rewritten the file since it was last read
+    private boolean rewrittenElsewhere;
+
+    // Size and modification time of the file when it was last read or written by this log.
+    // Volatile because isUpToDate() is called without a lock.
+    private volatile long syncedLength = -1;
+    private volatile long syncedModified = -1;
+
+    private volatile ParallelLoader.Result<?> lastLoad;
+
+    public AppendOnlyLog(String fileName) {
+        this.fileName = fileName;
+        this.fileLock = new SharedFileLock(fileName);
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Takes the lock that all programs sharing the file hold while they write to it, so nothing is
+     * written to the file until {@link #unlock()}. If another program has written to the file since it
+     * was last read, the file is no longer up to date afterwards. The lock is reentrant.
+     */
+    public void lock() throws IOException {
+        SharedFileLock.Version current = fileLock.lock();
+        if (!current.equals(seenVersion)) {
+            syncedModified = -1;
+            if (seenVersion != null && current.getGeneration() != seenVersion.getGeneration()) {
+                rewrittenElsewhere = true;
+            }
+        }
+    }
+
+    public void unlock() throws IOException {
+        fileLock.unlock();
+    }
+
+    /**
+     * Reads the live records of the file. Blank lines are skipped.
+     */
+    public List<String> readLive() throws IOException {
+        List<String> records = new ArrayList<>();
+        int dead = 0;
+
+        File file = new File(fileName);
+        SharedFileLock.Version version = fileLock.current();
+        if (!file.exists()) {
+            deadLines = 0;
+            markRead(version);
+            return records;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    dead++;
+                } else {
+                    records.add(line);
+                }
+            }
+        }
+
+        deadLines = dead;
+        markRead(version);
+        return records;
+    }
+
+    /**
+     * Reads and parses the live records of the file with the {@link ParallelLoader}.
+     * Lines the parser returns null for are dropped.
+     */
+    public <T> List<T> readLive(Function<String, T> parser) throws IOException {
+        File file = new File(fileName);
+        SharedFileLock.Version version = fileLock.current();
+        if (!file.exists()) {
+            deadLines = 0;
+            markRead(version);
+            return new ArrayList<>();
+        }
+        ParallelLoader.Result<T> result = ParallelLoader.load(file.toPath(), parser);
+        // Only the statistics are kept, the records belong to the caller
+        lastLoad = result.withoutRecords();
+        deadLines = result.getBlankLines();
+        markRead(version);
+        return result.getRecords();
+    }
+
+    /**
+     * Returns the statistics of the last parallel load, or null if the file was never loaded in parallel.
+     */
+    public ParallelLoader.Result<?> getLastLoad() {
+        return lastLoad;
+    }
+
+    /**
+     * Returns the length of the file when it was last read or written by this log, or -1 if it never was.
+     */
+    public long getSyncedLength() {
+        return syncedLength;
+    }
+
+    /**
+     * Treats the first bytes of the file as read, e.g. because their records were restored from a
+     * {@link StoreSnapshot}, so that {@link #readAppended()} reads only what was appended after them.
+     *
+     * @param length    the length of the file that was already read
+     * @param deadLines the dead lines found in that part of the file
+     */
+    public void resumeFrom(long length, int deadLines) throws IOException {
+        this.deadLines = deadLines;
+        seenVersion = fileLock.current();
+        rewrittenElsewhere = false;
+        syncedModified = -1;
+        syncedLength = length;
+    }
+
+    /**
+     * Returns true if the file has not changed since it was last read or written by this log.
+     */
+    public boolean isUpToDate() {
+        File file = new File(fileName);
+        return syncedLength == file.length() && syncedModified == file.lastModified();
+    }
+
+    /**
+     * Reads the records appended to the file since it was last read.
+     * Only the bytes after the last known end of the file are read.
+     * A record that is still being written (no line ending yet) is left for the next read.
+     *
+     * @return the new records, or null if the file was rewritten or shrunk,
+     *         in which case it has to be read again with {@link #readLive()}
+     */
+    public List<String> readAppended() throws IOException {
+        File file = new File(fileName);
+        SharedFileLock.Version version = fileLock.current();
+        long length = file.length();
+        if (syncedLength < 0 || length < syncedLength || rewrittenElsewhere
+                || (seenVersion != null && version.getGeneration() != seenVersion.getGeneration())) {
+            return null;
+        }
+        seenVersion = version;
+
+        List<String> records = new ArrayList<>();
+        if (length == syncedLength) {
+            syncedModified = file.lastModified();
+            return records;
+        }
+
+        byte[] tail;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            tail = new byte[(int) Math.min(Integer.MAX_VALUE - 8, length - syncedLength)];
+            raf.seek(syncedLength);
+            raf.readFully(tail);
+        }
+
+        // Only complete lines are consumed
+        int consumed = 0;
+        for (int i = 0; i < tail.length; i++) {
+            if (tail[i] == '\n') {
+                int end = (i > consumed && tail[i - 1] == '\r') ? i - 1 : i;
+                String line = new String(tail, consumed, end - consumed, Charset.defaultCharset());
+                consumed = i + 1;
+                if (line.trim().isEmpty()) {
+                    deadLines++;
+                } else {
+                    records.add(line);
+                }
+            }
+        }
+
+        syncedLength += consumed;
+        syncedModified = (syncedLength == length) ? file.lastModified() : -1;
+        return records;
+    }
+
+    /**
+     * Appends a single record to the end of the file.
+     */
+    public void append(String record) throws IOException {
+        List<String> records = new ArrayList<>(1);
+        records.add(record);
+        appendAll(records);
+    }
+
+    /**
+     * Appends the given records to the end of the file with a single write.
+     */
+    public void appendAll(List<String> records) throws IOException {
+        lock();
+        try {
+            boolean wasUpToDate = isUpToDate();
+            boolean needsNewLine = !endsWithNewLine();
+            long before = new File(fileName).length();
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName, true))) {
+                if (needsNewLine) {
+                    writer.newLine();
+                }
+                for (String record : records) {
+                    writer.write(record);
+                    writer.newLine();
+                }
+            } catch (IOException e) {
+                // Cut off what was written, so no half record is read back
+                try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.WRITE)) {
+                    channel.truncate(before);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+
+            SharedFileLock.Version version = fileLock.written(new File(fileName).length(), false);
+            // Our own records are already in memory, so they do not count as a change
+            if (wasUpToDate) {
+                seenVersion = version;
+                markSynced();
+            }
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Forces the content of the file to disk, so it survives a crash of the system.
+     */
+    public void force() throws IOException {
+        File file = new File(fileName);
+        if (!file.exists()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Makes sure the given records, in this order, follow the given length of the file, e.g. when
+     * replaying a {@link WriteAheadLog} after a crash. Records that are already there are skipped
+     * and the missing ones are appended. A last line without a line ending was cut off
+     * while it was being written, so it is removed first.
+     *
+     * @param fromLength the length of the file before the records were appended
+     * @return the number of records appended
+     */
+    public int redo(long fromLength, List<String> records) throws IOException {
+        lock();
+        try {
+            return redoLocked(fromLength, records);
+        } finally {
+            unlock();
+        }
+    }
+
+    private int redoLocked(long fromLength, List<String> records) throws IOException {
+        File file = new File(fileName);
+        long length = file.length();
+        // A shorter file was rewritten since, so look for the records in all of it
+        long start = (fromLength <= length) ? fromLength : 0;
+
+        byte[] tail;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            tail = new byte[(int) Math.min(Integer.MAX_VALUE - 8, length - start)];
+            raf.seek(start);
+            raf.readFully(tail);
+
+            int lastLineEnd = tail.length;
+            while (lastLineEnd > 0 && tail[lastLineEnd - 1] != '\n') {
+                lastLineEnd--;
+            }
+            if (lastLineEnd < tail.length && start > 0) {
+                raf.setLength(start + lastLineEnd);
+                tail = Arrays.copyOf(tail, lastLineEnd);
+            }
+        }
+
+        // Count the records that made it into the file, then append the others
+        Map<String, Integer> present = new HashMap<>();
+        for (String line : new String(tail, Charset.defaultCharset()).split("\r?\n")) {
+            present.merge(line, 1, Integer::sum);
+        }
+        List<String> missing = new ArrayList<>();
+        for (String record : records) {
+            if (present.merge(record, -1, Integer::sum) < 0) {
+                missing.add(record);
+            }
+        }
+        if (!missing.isEmpty()) {
+            appendAll(missing);
+        }
+        return missing.size();
+    }
+
+    /**
+     * Returns true if the last read found blank lines in the file.
+     */
+    public boolean needsCompaction() {
+        return deadLines > 0;
+    }
+
+    public int getDeadLines() {
+        return deadLines;
+    }
+
+    /**
+     * Rewrites the file with only its live records, if it has blank lines.
+     * The new content is written to a temporary file first and then moved over the old one,
+     * so an interrupted compaction never leaves a half written file behind.
+     *
+     * @return true if the file was rewritten
+     */
+    public boolean compact() throws IOException {
+        lock();
+        try {
+            List<String> live = readLive();
+            if (!needsCompaction()) {
+                return false;
+            }
+            rewrite(live);
+            return true;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Replaces the content of the file with the given records.
+     * The records are written to a temporary file first, which is forced to disk
+     * and then moved over the old file. Lines that other programs appended and that were not
+     * read are lost, so a caller that rewrites the file from memory holds the lock from before
+     * it brings its records up to date with the file.
+     */
+    public void rewrite(List<String> records) throws IOException {
+        lock();
+        try {
+            Path target = Paths.get(fileName);
+            Path temp = Paths.get(fileName + ".compact");
+            try (FileOutputStream out = new FileOutputStream(temp.toFile());
+                 BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, Charset.defaultCharset()))) {
+                for (String record : records) {
+                    writer.write(record);
+                    writer.newLine();
+                }
+                writer.flush();
+                out.getFD().sync();
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            deadLines = 0;
+            markRead(fileLock.written(new File(fileName).length(), true));
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Marks the whole file as read, at the given version.
+     */
+    private void markRead(SharedFileLock.Version version) {
+        seenVersion = version;
+        rewrittenElsewhere = false;
+        markSynced();
+    }
+
+    private void markSynced() {
+        File file = new File(fileName);
+        syncedLength = file.length();
+        syncedModified = file.lastModified();
+    }
+
+    private boolean endsWithNewLine() throws IOException {
+        File file = new File(fileName);
+        if (!file.exists() || file.length() == 0) {
+            return true;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(raf.length() - 1);
+            return raf.read() == '\n';
+        }
+    }
+}
@@ -0,0 +1,396 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * This class reads and writes the donated clothes in a compact binary format.
+ * <p>
+ *     Every item is a fixed-width record of {@link #RECORD_BYTES} bytes: the ID of its donor,
+ *     its price in cents, one byte each for its category, size, quality and gender, and the time it
+ *     was donated ({@link DonationRecord#NO_TIME} if it is not known). Files of version 1 have
+ *     records of {@link #V1_RECORD_BYTES} bytes without the time; they can still be read.
+ *     Each donor name is stored only once, in a table at the end of the file, and records refer
+ *     to it by its position in the table. Because all records have the same width, record
+ *     number n is found by arithmetic instead of by reading the records before it.
+ * </p>
+ * <p>
+ *     The records are written in blocks of {@link #RECORDS_PER_BLOCK}, each followed by the CRC-32
+ *     of its bytes. A full scan checks the checksum of every block and fails on a damaged one.
+ *     Reading a single record does not check its block.
+ * </p>
+ * <p>
+ *     Layout: a header of {@link #HEADER_BYTES} bytes (magic "CDSB", version, record width,
+ *     records per block, number of records, number of donors, offset of the donor table),
+ *     the blocks, then the donor table (for every donor its UTF-8 length and bytes).
+ * </p>
+ * <p>
+ *     The text file stays the file the system appends donations to; the binary file is a
+ *     converted copy for fast reading, e.g. for reports or archives.
+ *     Usage: java BinaryClothesFile to-binary clothesList.txt clothesList.bin
+ *     or: java BinaryClothesFile to-text clothesList.bin clothesList.txt
+ * </p>
+ */
+public final class BinaryClothesFile implements Closeable {
+    static final int MAGIC = 0x43445342; // "CDSB"
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 32;
+    static final int RECORD_BYTES = 20;
+    static final int V1_RECORD_BYTES = 12;
+    static final int RECORDS_PER_BLOCK = 4096;
+    private static final int CHECKSUM_BYTES = 4;
+    private static final int BLOCK_BYTES = blockBytes(RECORD_BYTES);
+
+    private static final DonationRecord.Category[] CATEGORIES = DonationRecord.Category.values();
+    private static final DonationRecord.Size[] SIZES = DonationRecord.Size.values();
+    private static final DonationRecord.Quality[] QUALITIES = DonationRecord.Quality.values();
+    private static final DonationRecord.Gender[] GENDERS = DonationRecord.Gender.values();
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    // The user IDs of the donors in the donor table (see UserDictionary)
+    private final int[] donors;
+    private final int recordCount;
+    // The layout of this file, which depends on its version
+    private final int recordBytes;
+    private final int blockBytes;
+    private final int segmentBlocks;
+
+    private BinaryClothesFile(FileChannel channel, MappedByteBuffer[] segments, int[] donors, int recordCount,
+                              int recordBytes) {
+        this.channel = channel;
+        this.segments = segments;
+        this.donors = donors;
+        this.recordCount = recordCount;
+        this.recordBytes = recordBytes;
+        this.blockBytes = blockBytes(recordBytes);
+        this.segmentBlocks = segmentBlocks(recordBytes);
+    }
+
+    private static int blockBytes(int recordBytes) {
+        return RECORDS_PER_BLOCK * recordBytes + CHECKSUM_BYTES;
+    }
+
+    /**
+     * Returns the number of blocks per mapped segment, so that no segment is larger than the 2 GB a buffer can map.
+     */
+    private static int segmentBlocks(int recordBytes) {
+        return (1 << 30) / blockBytes(recordBytes);
+    }
+
+    /**
+     * Opens a binary clothes file for reading.
+     */
+    public static BinaryClothesFile open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException(file + " is not a binary clothes file");
+            }
+            int version = header.getInt();
+            int recordBytes = header.getInt();
+            int recordsPerBlock = header.getInt();
+            if (!((version == VERSION && recordBytes == RECORD_BYTES) || (version == 1 && recordBytes == V1_RECORD_BYTES))
+                    || recordsPerBlock != RECORDS_PER_BLOCK) {
+                throw new IOException(file + " has an unsupported format version " + version);
+            }
+            int recordCount = header.getInt();
+            int donorCount = header.getInt();
+            long donorTableOffset = header.getLong();
+            if (recordCount < 0 || donorCount < 0
+                    || donorTableOffset != HEADER_BYTES + recordsBytes(recordCount, recordBytes)
+                    || donorTableOffset > channel.size()) {
+                throw new IOException(file + " is damaged: the header does not match the file size");
+            }
+
+            int blocks = (recordCount + RECORDS_PER_BLOCK - 1) / RECORDS_PER_BLOCK;
+            int segmentBlocks = segmentBlocks(recordBytes);
+            long segmentBytes = (long) segmentBlocks * blockBytes(recordBytes);
+            MappedByteBuffer[] segments = new MappedByteBuffer[(blocks + segmentBlocks - 1) / segmentBlocks];
+            for (int i = 0; i < segments.length; i++) {
+                long start = HEADER_BYTES + i * segmentBytes;
+                long end = Math.min(donorTableOffset, start + segmentBytes);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            }
+
+            ByteBuffer table = ByteBuffer.allocate((int) (channel.size() - donorTableOffset));
+            readFully(channel, table, donorTableOffset);
+            table.flip();
+            UserDictionary dictionary = UserDictionary.global();
+            int[] donors = new int[donorCount];
+            for (int i = 0; i < donorCount; i++) {
+                byte[] name = new byte[table.getInt()];
+                table.get(name);
+                donors[i] = dictionary.idOf(new String(name, StandardCharsets.UTF_8));
+            }
+            return new BinaryClothesFile(channel, segments, donors, recordCount, recordBytes);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes taken by the given number of records of the given width and their block checksums.
+     */
+    private static long recordsBytes(int recordCount, int recordBytes) {
+        long fullBlocks = recordCount / RECORDS_PER_BLOCK;
+        int rest = recordCount % RECORDS_PER_BLOCK;
+        return fullBlocks * blockBytes(recordBytes) + ((rest == 0) ? 0 : (long) rest * recordBytes + CHECKSUM_BYTES);
+    }
+
+    /**
+     * Returns the number of records in the file.
+     */
+    public int size() {
+        return recordCount;
+    }
+
+    /**
+     * Returns the record with the given number, counted from 0, without checking its block's checksum.
+     */
+    public DonationRecord get(int recordNumber) {
+        if (recordNumber < 0 || recordNumber >= recordCount) {
+            throw new IndexOutOfBoundsException("Record " + recordNumber + " of " + recordCount);
+        }
+        int block = recordNumber / RECORDS_PER_BLOCK;
+        ByteBuffer segment = segments[block / segmentBlocks];
+        int offset = (block % segmentBlocks) * blockBytes + (recordNumber % RECORDS_PER_BLOCK) * recordBytes;
+        return decode(segment, offset);
+    }
+
+    /**
+     * Calls the action with every record, in order. The checksum of every block is checked
+     * before any of its records are passed on.
+     *
+     * @throws IOException if a block is damaged
+     */
+    public void forEach(Consumer<DonationRecord> action) throws IOException {
+        CRC32 checksum = new CRC32();
+        int blocks = (recordCount + RECORDS_PER_BLOCK - 1) / RECORDS_PER_BLOCK;
+        for (int block = 0; block < blocks; block++) {
+            ByteBuffer segment = segments[block / segmentBlocks];
+            int start = (block % segmentBlocks) * blockBytes;
+            int records = Math.min(RECORDS_PER_BLOCK, recordCount - block * RECORDS_PER_BLOCK);
+            int end = start + records * recordBytes;
+
+            checksum.reset();
+            checksum.update(segment.duplicate().position(start).limit(end));
+            if ((int) checksum.getValue() != segment.getInt(end)) {
+                throw new IOException("Block " + block + " (records " + block * RECORDS_PER_BLOCK
+                        + " to " + (block * RECORDS_PER_BLOCK + records - 1) + ") is damaged");
+            }
+            for (int offset = start; offset < end; offset += recordBytes) {
+                action.accept(decode(segment, offset));
+            }
+        }
+    }
+
+    /**
+     * Reads all records, checking every block.
+     */
+    public List<DonationRecord> readAll() throws IOException {
+        List<DonationRecord> records = new ArrayList<>(recordCount);
+        forEach(records::add);
+        return records;
+    }
+
+    private DonationRecord decode(ByteBuffer segment, int offset) {
+        int donor = segment.getInt(offset);
+        int priceCents = segment.getInt(offset + 4);
+        int category = segment.get(offset + 8);
+        int size = segment.get(offset + 9);
+        int quality = segment.get(offset + 10);
+        int gender = segment.get(offset + 11);
+        long time = (recordBytes == RECORD_BYTES) ? segment.getLong(offset + 12) : DonationRecord.NO_TIME;
+        if (donor < 0 || donor >= donors.length || category < 0 || category >= CATEGORIES.length
+                || size < 0 || size >= SIZES.length || quality < 0 || quality >= QUALITIES.length
+                || gender < 0 || gender >= GENDERS.length) {
+            throw new IllegalStateException("Damaged record at offset " + offset);
+        }
+        return new DonationRecord(donors[donor], CATEGORIES[category], SIZES[size], QUALITIES[quality],
+                GENDERS[gender], priceCents, time);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Writes the records to a binary clothes file. The file is written to a temporary file first
+     * and then moved over the target, so readers never see a half-written file.
+     */
+    public static void write(Path file, List<DonationRecord> records) throws IOException {
+        Path temp = Paths.get(file + ".tmp");
+        IdTable<Integer> donorIds = new IdTable<>();
+        List<String> donors = new ArrayList<>();
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(HEADER_BYTES);
+            ByteBuffer block = ByteBuffer.allocate(BLOCK_BYTES);
+            CRC32 checksum = new CRC32();
+            for (int i = 0; i < records.size(); i++) {
+                DonationRecord record = records.get(i);
+                Integer donor = donorIds.get(record.getDonorId());
+                if (donor == null) {
+                    donor = donorIds.computeIfAbsent(record.getDonorId(), id -> donors.size());
+                    donors.add(record.getDonor());
+                }
+                block.putInt(donor)
+                        .putInt(record.getPriceCents())
+                        .put((byte) record.getCategory().ordinal())
+                        .put((byte) record.getSize().ordinal())
+                        .put((byte) record.getQuality().ordinal())
+                        .put((byte) record.getGender().ordinal())
+                        .putLong(record.getTime());
+                if ((i + 1) % RECORDS_PER_BLOCK == 0 || i == records.size() - 1) {
+                    writeBlock(channel, block, checksum);
+                }
+            }
+
+            long donorTableOffset = channel.position();
+            DataOutputStream table = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            for (String donor : donors) {
+                byte[] name = donor.getBytes(StandardCharsets.UTF_8);
+                table.writeInt(name.length);
+                table.write(name);
+            }
+            table.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_BYTES).putInt(RECORDS_PER_BLOCK)
+                    .putInt(records.size()).putInt(donors.size()).putLong(donorTableOffset);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeBlock(FileChannel channel, ByteBuffer block, CRC32 checksum) throws IOException {
+        block.flip();
+        checksum.reset();
+        checksum.update(block.duplicate());
+        block.limit(block.limit() + CHECKSUM_BYTES);
+        block.putInt(block.limit() - CHECKSUM_BYTES, (int) checksum.getValue());
+        while (block.hasRemaining()) {
+            channel.write(block);
+        }
+        block.clear();
+    }
+
+    /**
+     * Converts a clothes text file to a binary clothes file. Lines that are not valid items are skipped.
+     * If the clothes are split into shards, the files of all shards are converted, one after the other.
+     *
+     * @return the number of records written
+     */
+    public static int textToBinary(Path textFile, Path binaryFile) throws IOException {
+        List<DonationRecord> records = new ArrayList<>();
+        for (Path file : textFiles(textFile)) {
+            records.addAll(new AppendOnlyLog(file.toString()).readLive(DonationRecord::parse));
+        }
+        write(binaryFile, records);
+        return records.size();
+    }
+
+    /**
+     * Returns the files that hold the clothes of a clothes text file: the files of its shards if it has
+     * a {@link ShardManifest}, otherwise the file itself.
+     */
+    static List<Path> textFiles(Path textFile) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (String file : ShardManifest.read(textFile.toString()).getShardFiles()) {
+            files.add(Paths.get(file));
+        }
+        return files;
+    }
+
+    /**
+     * Converts a binary clothes file back to a clothes text file in the format of clothesList.txt.
+     *
+     * @return the number of records written
+     */
+    public static int binaryToText(Path binaryFile, Path textFile) throws IOException {
+        Path temp = Paths.get(textFile + ".tmp");
+        int records;
+        try (BinaryClothesFile binary = open(binaryFile);
+             BufferedWriter writer = new BufferedWriter(new FileWriter(temp.toFile()), 1 << 16)) {
+            records = binary.size();
+            binary.forEach(record -> {
+                try {
+                    writer.write(record.toString());
+                    writer.newLine();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            Files.deleteIfExists(temp);
+            throw e.getCause();
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, textFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return records;
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 3 || !(args[0].equals("to-binary") || args[0].equals("to-text"))) {
+            System.out.println("Usage: java BinaryClothesFile to-binary clothesList.txt clothesList.bin");
+            System.out.println("   or: java BinaryClothesFile to-text clothesList.bin clothesList.txt");
+            System.exit(1);
+        }
+        Path source = Paths.get(args[1]);
+        Path target = Paths.get(args[2]);
+        try {
+            long start = System.nanoTime();
+            int records = args[0].equals("to-binary") ? textToBinary(source, target) : binaryToText(source, target);
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            long sourceBytes = 0;
+            for (Path file : args[0].equals("to-binary") ? textFiles(source) : List.of(source)) {
+                sourceBytes += Files.size(file);
+            }
+            System.out.println("Converted " + records + " items in " + millis + " ms: "
+                    + sourceBytes + " bytes -> " + Files.size(target) + " bytes");
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class imports a batch of donations from a CSV or TSV file without any prompts.
+ * <p>
+ *     Every line of the file is one item: username, category, size, quality, gender.
+ *     The values are checked with the same rules as the donation menus: size is one of
+ *     XS, S, M, L or XL, quality is L, M or H (or Low, Medium, High), and gender is M, F or U
+ *     (or Male, Female, Unisex). The category is one of the menu items, e.g. Shirt or Shirts.
+ *     Every valid item gets a random price from {@link DonationStore#generateRandomPrice}.
+ * </p>
+ * <p>
+ *     The file is streamed, and the valid items are written to the clothes file in batches
+ *     of {@link #BATCH_SIZE} with a single write each. Donors that are not users yet are
+ *     registered together in one write at the end. Lines that can not be read are skipped
+ *     and reported with their line number. A first line starting with "username" is a header.
+ * </p>
+ * <p>
+ *     Usage: java BulkImporter donations.csv [more files ...]
+ * </p>
+ */
+public class BulkImporter {
+    static final int BATCH_SIZE = 65_536;
+    private static final int MAX_REPORTED_ERRORS = 20;
+
+    private final DonationStore store;
+    private final List<String> errors = new ArrayList<>();
+    private int imported;
+    private int rejected;
+    private int newUsers;
+
+    public BulkImporter(DonationStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Imports all valid items of the file into the store.
+     * Files ending in .tsv are split on tabs, all other files on commas.
+     *
+     * @return the number of items imported
+     */
+    public int importFile(String fileName) throws IOException {
+        char delimiter = fileName.toLowerCase().endsWith(".tsv") ? '\t' : ',';
+        Set<String> donors = new LinkedHashSet<>();
+        List<DonationRecord> batch = new ArrayList<>(BATCH_SIZE);
+        int count = 0;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName), 1 << 16)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                List<String> fields = splitFields(line, delimiter);
+                if (lineNumber == 1 && fields.get(0).equalsIgnoreCase("username")) {
+                    continue;
+                }
+
+                DonationRecord donation = parseDonation(fields);
+                if (donation == null) {
+                    reject(fileName, lineNumber, line);
+                    continue;
+                }
+                donors.add(donation.getDonor());
+                batch.add(donation);
+                if (batch.size() == BATCH_SIZE) {
+                    store.addDonations(batch);
+                    count += batch.size();
+                    batch.clear();
+                }
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            store.addDonations(batch);
+            count += batch.size();
+        }
+        newUsers += store.addUsers(donors);
+        imported += count;
+        return count;
+    }
+
+    /**
+     * Validates the fields of one line and prices the item.
+     *
+     * @return the donation, or null if a field is missing or invalid
+     */
+    DonationRecord parseDonation(List<String> fields) {
+        if (fields.size() < 5) {
+            return null;
+        }
+        String username = fields.get(0);
+        DonationRecord.Category category = parseCategory(fields.get(1));
+        DonationRecord.Size size = DonationRecord.Size.fromLabel(fields.get(2));
+        DonationRecord.Quality quality = fields.get(3).length() == 1
+                ? DonationRecord.Quality.fromKey(fields.get(3)) : DonationRecord.Quality.fromLabel(fields.get(3));
+        DonationRecord.Gender gender = fields.get(4).length() == 1
+                ? DonationRecord.Gender.fromKey(fields.get(4)) : DonationRecord.Gender.fromLabel(fields.get(4));
+
+        if (!DonationStore.isValidUsername(username) || category == null || size == null || quality == null || gender == null) {
+            return null;
+        }
+        return new DonationRecord(username, category, size, quality, gender, store.generateRandomPrice(quality));
+    }
+
+    /**
+     * Reads a category by its name as stored in the file (Shirt) or as shown in the menu (Shirts).
+     */
+    private static DonationRecord.Category parseCategory(String text) {
+        DonationRecord.Category category = DonationRecord.Category.fromLabel(text);
+        if (category == null && text.length() > 1 && (text.endsWith("s") || text.endsWith("S"))) {
+            category = DonationRecord.Category.fromLabel(text.substring(0, text.length() - 1));
+        }
+        return category;
+    }
+
+    /**
+     * Splits a line on the delimiter and trims every field.
+     * A field may be quoted with double quotes to contain the delimiter; "" inside quotes is a quote.
+     */
+    static List<String> splitFields(String line, char delimiter) {
+        List<String> fields = new ArrayList<>(6);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == delimiter) {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+        return fields;
+    }
+
+    private void reject(String fileName, int lineNumber, String line) {
+        rejected++;
+        if (errors.size() < MAX_REPORTED_ERRORS) {
+            errors.add(fileName + ":" + lineNumber + ": invalid donation: " + line);
+        }
+    }
+
+    public int getImported() {
+        return imported;
+    }
+
+    public int getRejected() {
+        return rejected;
+    }
+
+    public int getNewUsers() {
+        return newUsers;
+    }
+
+    /**
+     * Returns the first invalid lines found, with their file name and line number.
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Usage: java BulkImporter donations.csv [more files ...]");
+            return;
+        }
+
+        DonationStore store = new DonationStore("usersList.txt", "clothesList.txt", "donationCompaniesList.txt");
+        BulkImporter importer = new BulkImporter(store);
+        try {
+            store.load();
+            long start = System.nanoTime();
+            for (String fileName : args) {
+                importer.importFile(fileName);
+            }
+            long nanos = System.nanoTime() - start;
+            // Writes a snapshot, so the next start does not read the imported items from the text file
+            store.close();
+
+            for (String error : importer.getErrors()) {
+                System.out.println(error);
+            }
+            System.out.printf("Imported %d items (%d new users), rejected %d lines in %d ms (%.0f items/s)%n",
+                    importer.getImported(), importer.getNewUsers(), importer.getRejected(),
+                    nanos / 1_000_000, importer.getImported() / Math.max(nanos / 1e9, 1e-9));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -1,8 +1,12 @@
 import java.io.*;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.InputMismatchException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
-import java.util.Random;
+import java.util.function.Function;
 
 /**
  * This class implements the Clothes Donation System.
@@ -11,9 +15,23 @@ import java.util.Random;
  *     The system stores the data in text files.
  *     The usersList.txt file stores the list of users.
  *     The clothesList.txt file stores the list of clothes donated by the users.
- *     The donationCompaniesList.txt file stores the list of donation organizations.
- *     The data is loaded from the files to ArrayLists when the system is initialized.
- *     The data is saved to the files when the system is closed.
+ *     Each line of clothesList.txt is parsed once into a {@link DonationRecord} when it is loaded.
+ *     The searches use bitmap indexes over gender, size, quality and category (see {@link DonationIndex}).
+ *     A search on several criteria at once is run lazily (see {@link DonationQuery}).
+ *     Listings are written in large chunks, a page at a time in a terminal or all at once when
+ *     the output is piped (see {@link ListingRenderer}).
+ *     The number and estimated worth of the donations are kept up to date with every donation
+ *     (see {@link DonationStatistics}).
+ *     Run with -Dcds.metricsDump=seconds to print the latency and I/O of the store operations
+ *     to the error stream at that interval (see {@link DonationMetrics}); they are also available over JMX.
+ *     The donationCompaniesList.txt file stores the list of donation organizations and their needs
+ *     (see {@link OrganizationRegistry}); the donated clothes are allocated to those needs as they
+ *     are donated (see {@link DonationAllocator}).
+ *     The data is loaded from the files into a {@link DonationStore} when the system is initialized.
+ *     This class only implements the console menus; the data and its operations are in the store.
+ *     Large files are memory-mapped and parsed in parallel (see {@link ParallelLoader}).
+ *     New users and donations are appended to the end of their files (see {@link AppendOnlyLog}).
+ *     The files are compacted when the system is closed, if they contain blank lines or removed records.
  *     The system also checks if a user already exists in the system.
  *     If the user exists, it displays the previous clothes donated by the user.
  *     If the user does not exist, it creates a new user ID for the user.
@@ -30,85 +48,71 @@ public class ClothesDonationSystem {
     private static final String CLOTHES_FILE = "clothesList.txt";
     private static final String DONATION_COMPANIES_FILE = "donationCompaniesList.txt";
 
-    private ArrayList<String> usersList;
-    private ArrayList<String> clothesList;
-    private ArrayList<String> donationCompaniesList;
+    private final DonationStore store;
+    private final ListingRenderer renderer;
 
-    Scanner scanner = new Scanner(System.in);
+    Scanner scanner;
+
+    public String username;
+    private final DonationSession session;
 
     public ClothesDonationSystem() {
-        // Initialize ArrayLists
-        usersList = new ArrayList<>();
-        clothesList = new ArrayList<>();
-        donationCompaniesList = new ArrayList<>();
-
-        // Load data from files to ArrayLists
-        loadUsersData();
-        loadClothesData();
-        loadDonationCompaniesData();
-    }
-
-    private void loadUsersData() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(USERS_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                usersList.add(line);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        this(new DonationStore(USERS_FILE, CLOTHES_FILE, DONATION_COMPANIES_FILE), new Scanner(System.in));
     }
 
-    private void loadClothesData() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(CLOTHES_FILE))) {
-            String line;
-            clothesList.clear();
-            while ((line = reader.readLine()) != null) {
-                clothesList.add(line);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    /**
+     * Creates the system on the given store, reading the user's input from the given scanner.
+     */
+    public ClothesDonationSystem(DonationStore store, Scanner scanner) {
+        this(store, scanner, ListingRenderer.forConsole());
     }
 
-    private void loadDonationCompaniesData() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(DONATION_COMPANIES_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                donationCompaniesList.add(line);
-            }
+    /**
+     * Creates the system on the given store, reading the user's input from the given scanner
+     * and showing the listings with the given renderer.
+     */
+    public ClothesDonationSystem(DonationStore store, Scanner scanner, ListingRenderer renderer) {
+        this.store = store;
+        this.scanner = scanner;
+        this.renderer = renderer;
+        this.username = getUsername();
+        this.session = store.openSession(username);
+
+        // Load data from files to the store
+        try {
+            store.load();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    public String username = getUsername();
-
     public String getUsername() {
         System.out.println("Enter username:");
         String username = scanner.nextLine();
+        while (!DonationStore.isValidUsername(username)) {
+            System.out.println("Invalid username. Please enter a name without control characters"
+                    + " that does not start with \"#archived\":");
+            username = scanner.nextLine();
+        }
 
         return username;
     }
 
     public void checkUser() {
-        if (usersList.contains(username)) {
+        if (session.isReturningUser()) {
             System.out.println("This username already exists in the system. Accessing the user's previous donations.");
             // Access and display previous clothes donated by the user
             displayPreviousDonations(username);
         } else {
             System.out.println("Creating a new user ID for " + username + ".");
-            // Add the new user to the system
-            usersList.add(username);
-            // Save the updated usersList to the file
+            // Add the new user to the system and append it to the file
             saveUsersData();
         }
     }
 
     private void displayPreviousDonations(String username) {
         try {
-            loadClothesData(); // Load data from the file
-            if (clothesList == null || clothesList.isEmpty()) {
+            if (store.getClothes().isEmpty()) {
                 throw new Exception("Clothes list is empty or null.");
             }
     
@@ -120,20 +124,15 @@ public class ClothesDonationSystem {
     
             System.out.println("Previous donations by " + username + ":");
     
-            boolean found = false;
-            for (String item : clothesList) {
-                String[] itemDetails = item.split(", ");
-                for (String detail : itemDetails) {
-                    if (detail.trim().replaceAll("\\s+", "").equalsIgnoreCase(username.replaceAll("\\s+", ""))) {
-                        System.out.println(item);
-                        found = true;
-                        break;
-                    }
-                }
-            }
+            List<DonationRecord> donations = store.previousDonations(username);
+            renderer.list(donations, scanner);
     
-            if (!found) {
+            if (donations.isEmpty()) {
                 System.out.println("No previous donations found for " + username);
+            } else {
+                DonationStatistics statistics = store.getStatistics();
+                System.out.println("Total estimated worth of your donations: $"
+                        + DonationStatistics.formatWorth(statistics.donorWorthCents(username)));
             }
         } catch (Exception e) {
             System.out.println("Error: " + e.getMessage());
@@ -141,17 +140,55 @@ public class ClothesDonationSystem {
     }
         
     private void saveUsersData() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(USERS_FILE))) {
-            for (String user : usersList) {
-                writer.write(user);
-                writer.newLine();
-            }
+        try {
+            session.register();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    private void compactData() {
+        try {
+            store.compact();
+            store.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * The menus of the application. Every menu returns the menu to show next.
+     */
+    private enum MenuState {
+        MAIN, DONATE, UPPERS, LOWERS, MORE_DONATIONS, SEARCH, SEARCH_AGAIN, EXIT
+    }
+
+    /**
+     * Shows the menus until the user exits the application.
+     * The menus return the next menu instead of calling it, so the stack stays at the same depth
+     * however long the application runs.
+     */
     public void displayMainMenu() {
+        MenuState state = MenuState.MAIN;
+        while (state != MenuState.EXIT) {
+            state = showMenu(state);
+        }
+    }
+
+    private MenuState showMenu(MenuState state) {
+        return switch (state) {
+            case MAIN -> mainMenu();
+            case DONATE -> donateClothes();
+            case UPPERS -> donateUppers();
+            case LOWERS -> donateLowers();
+            case MORE_DONATIONS -> askForMoreDonations();
+            case SEARCH -> searchItems();
+            case SEARCH_AGAIN -> askForSearchAgain();
+            case EXIT -> MenuState.EXIT;
+        };
+    }
+
+    private MenuState mainMenu() {
         System.out.println("Main Menu:");
         System.out.println("1. Donate Clothes");
         System.out.println("2. View Donated Clothes");
@@ -168,8 +205,7 @@ public class ClothesDonationSystem {
 
             switch (choice) {
                 case 1:
-                    donateClothes();
-                    break;
+                    return MenuState.DONATE;
                 case 2:
                     viewDonatedClothes();
                     break;
@@ -177,11 +213,11 @@ public class ClothesDonationSystem {
                     viewDonationOrganizations();
                     break;
                 case 4:
-                searchItems();
-                    break;
+                    return MenuState.SEARCH;
                 case 5:
                     System.out.println("Exiting the application. Goodbye!");
-                    System.exit(0);
+                    compactData();
+                    return MenuState.EXIT;
 
                 default:
                     System.out.println("Invalid choice. Please enter a number between 1 and 4.");
@@ -191,44 +227,48 @@ public class ClothesDonationSystem {
             scanner.nextLine(); // Consume the invalid input to prevent an infinite loop
         }
 
-        // Recursive call to display the main menu again
-        displayMainMenu();
+        // Display the main menu again
+        return MenuState.MAIN;
     }
     // Inside the ClothesDonationSystem class
 
-     private void  searchItems() {
+     private MenuState searchItems() {
     System.out.println("Search Menu:");
     System.out.println("1. Search by Gender");
     System.out.println("2. Search by Size");
     System.out.println("3. Search by Quality");
-    System.out.println("4. Go back to Main Menu");
+    System.out.println("4. Search by several criteria");
+    System.out.println("5. Go back to Main Menu");
 
     int choice = 0;
     try {
-        System.out.print("Enter your choice (1-4): ");
+        System.out.print("Enter your choice (1-5): ");
         choice = scanner.nextInt();
 
         switch (choice) {
             case 1:
                 searchByGender();
-                break;
+                return MenuState.SEARCH_AGAIN;
             case 2:
                 searchBySize();
-                break;
+                return MenuState.SEARCH_AGAIN;
             case 3:
                 searchByQuality();
-                break;
+                return MenuState.SEARCH_AGAIN;
             case 4:
-                displayMainMenu(); // Go back to the main menu
-                break;
+                searchByCriteria();
+                return MenuState.SEARCH_AGAIN;
+            case 5:
+                return MenuState.MAIN; // Go back to the main menu
             default:
-                System.out.println("Invalid choice. Please enter a number between 1 and 4.");
+                System.out.println("Invalid choice. Please enter a number between 1 and 5.");
         }
     } catch (Exception e) {
         System.out.println("Invalid input. Please enter a valid number.");
         scanner.nextLine(); // Consume the invalid input to prevent an infinite loop
-        searchItems(); // Recursive call to display the search menu again
+        return MenuState.SEARCH; // Display the search menu again
     }
+    return MenuState.MAIN;
 }
 
 private void searchByGender() {
@@ -243,35 +283,18 @@ private void searchByGender() {
             }
         } while (!gender.matches("M|F|U"));
 
-        String genderValue;
-        switch (gender) {
-            case "M":
-                genderValue = "Male";
-                break;
-            case "F":
-                genderValue = "Female";
-                break;
-            case "U":
-                genderValue = "Unisex";
-                break;
-            default:
-                throw new IllegalStateException("Unexpected value: " + gender);
+        DonationRecord.Gender genderValue = DonationRecord.Gender.fromKey(gender);
+        if (genderValue == null) {
+            throw new IllegalStateException("Unexpected value: " + gender);
         }
         
         System.out.println("Search results based on gender:");
-        loadClothesData();
-        for (String item : clothesList) {
-            String[] itemDetails = item.split(", ");
-            if (itemDetails.length >= 5 && itemDetails[4].equalsIgnoreCase(genderValue)) {
-                System.out.println(item);
-            }
-        }
+        printMatches(store.searchByGender(genderValue));
     } catch (InputMismatchException e) {
         System.out.println("Invalid input. Please enter a valid gender.");
+    } catch (IOException e) {
+        e.printStackTrace();
     }
-
-    // Go back to the search menu
-    askForSearchAgain();
 }
 
 
@@ -290,26 +313,20 @@ private void searchBySize() {
         
         while (!"XS".equals(size) && !"S".equals(size) && !"M".equals(size) && !"L".equals(size) && !"XL".equals(size));
          // read data from file
-        loadClothesData();
+        DonationRecord.Size sizeValue = DonationRecord.Size.fromLabel(size);
         System.out.println("Search results based on size:");
-         for (String item : clothesList) {
-            String[] itemDetails = item.split(", ");
-            if (itemDetails.length >= 3 && itemDetails[2].equalsIgnoreCase(size)) {
-                System.out.println(item);
-            }
-        }
+        printMatches(store.searchBySize(sizeValue));
     }
      catch (IllegalArgumentException e) {
         System.out.println(e.getMessage());
+    } catch (IOException e) {
+        e.printStackTrace();
     }
-
-    // Go back to the search menu
-   askForSearchAgain();
 }
 
 
 private void searchByQuality( ) {
-    String quality = null;
+    DonationRecord.Quality quality = null;
 
     try {
         do {
@@ -319,59 +336,114 @@ private void searchByQuality( ) {
             if (!userInputQuality.matches("L|M|H")) {
                 System.out.println("Invalid quality. Please enter L, M, or H.");
             } else {
-                switch (userInputQuality) {
-                    case "L":
-                        quality = "Low";
-                        break;
-                    case "M":
-                        quality = "Medium";
-                        break;
-                    case "H":
-                        quality = "High";
-                         break;
-                    default:
-                        throw new IllegalStateException("Unexpected value: " + userInputQuality);
-                }
+                quality = DonationRecord.Quality.fromKey(userInputQuality);
             }
         } while (quality == null);
         System.out.println("Search results based on quality:");
-        // read data from file
-        loadClothesData();
-        for (String item : clothesList) {
-            String[] itemDetails = item.split(", ");
-            if (itemDetails.length >= 4 && itemDetails[3].equalsIgnoreCase(quality)) {
-                System.out.println(item);
-            }
-        }
+        printMatches(store.searchByQuality(quality));
         
     } catch (InputMismatchException e) {
         System.out.println("Invalid input. Please enter a valid quality.");
+    } catch (IOException e) {
+        e.printStackTrace();
+    }
+}
+
+
+/**
+ * Asks for any combination of gender, size, quality, category, donor and price range,
+ * and prints the matching items a page at a time.
+ */
+private void searchByCriteria() {
+    scanner.nextLine(); // Consume the rest of the line with the menu choice
+    System.out.println("Press Enter to skip a criterion.");
+
+    DonationQuery query = new DonationQuery()
+            .gender(optionalAnswer("Enter gender (M/F/U): ", "Invalid gender. Please enter M, F, or U.",
+                    text -> DonationRecord.Gender.fromKey(text.toUpperCase())))
+            .size(optionalAnswer("Enter size (XS/S/M/L/XL): ", "Invalid size. Please enter XS, S, M, L, or XL.",
+                    text -> DonationRecord.Size.fromLabel(text.toUpperCase())))
+            .quality(optionalAnswer("Enter quality (L/M/H): ", "Invalid quality. Please enter L, M, or H.",
+                    text -> DonationRecord.Quality.fromKey(text.toUpperCase())))
+            .category(optionalAnswer("Enter category (Shirt/Hoodie/Jacket/Pant/Trouser): ",
+                    "Invalid category. Please enter Shirt, Hoodie, Jacket, Pant, or Trouser.",
+                    DonationRecord.Category::fromLabel))
+            .donor(optionalAnswer("Enter donor username: ", null, text -> text));
+    Integer minPrice = optionalAnswer("Enter minimum price: ", "Invalid price. Please enter an amount such as 30.05.",
+            ClothesDonationSystem::parsePrice);
+    if (minPrice != null) {
+        query.minPrice(minPrice);
+    }
+    Integer maxPrice = optionalAnswer("Enter maximum price: ", "Invalid price. Please enter an amount such as 30.05.",
+            ClothesDonationSystem::parsePrice);
+    if (maxPrice != null) {
+        query.maxPrice(maxPrice);
+    }
+
+    try {
+        System.out.println("Search results for " + query + ":");
+        printPages(store.query(query).iterator());
+    } catch (IOException e) {
+        e.printStackTrace();
+    }
+}
+
+private static Integer parsePrice(String text) {
+    int cents = DonationRecord.parsePriceCents(text);
+    return (cents < 0) ? null : cents;
+}
+
+/**
+ * Asks until the answer is blank or valid. Returns null for a blank answer.
+ */
+private <T> T optionalAnswer(String prompt, String error, Function<String, T> parser) {
+    while (true) {
+        System.out.print(prompt);
+        String answer = scanner.nextLine().trim();
+        if (answer.isEmpty()) {
+            return null;
+        }
+        T value = parser.apply(answer);
+        if (value != null) {
+            return value;
+        }
+        System.out.println(error);
     }
+}
 
-    // Go back to the search menu
-    askForSearchAgain();
+/**
+ * Prints the items as they are found, taking only as many as the pages shown need.
+ */
+private void printPages(Iterator<DonationRecord> items) {
+    if (renderer.list(items, scanner) == 0) {
+        System.out.println("No items found.");
+    }
+}
+
+private void printMatches(List<DonationRecord> items) {
+    renderer.list(items, scanner);
 }
 
 
-private void askForSearchAgain() {
+private MenuState askForSearchAgain() {
     System.out.print("Do you want to search again? (yes/no): ");
     String choice = scanner.next().toLowerCase();
 
     if ("yes".equals(choice)) {
         // Continue searching items
-        searchItems();
+        return MenuState.SEARCH;
     } else if ("no".equals(choice)) {
         // Go back to the main menu
-        displayMainMenu();
+        return MenuState.MAIN;
     } else {
         System.out.println("Invalid choice. Please enter 'yes' or 'no'.");
-        // Recursive call to ask for search again
-        askForSearchAgain();
+        // Ask for search again
+        return MenuState.SEARCH_AGAIN;
     }
 }
 
 
-    private void donateClothes() {
+    private MenuState donateClothes() {
         
 
         System.out.println("Donation Menu:");
@@ -385,11 +457,9 @@ private void askForSearchAgain() {
 
             switch (choice) {
                 case 1:
-                    donateUppers();
-                    break;
+                    return MenuState.UPPERS;
                 case 2:
-                    donateLowers();
-                    break;
+                    return MenuState.LOWERS;
                 default:
                     System.out.println("Invalid choice. Please enter 1 or 2.");
             }
@@ -398,11 +468,11 @@ private void askForSearchAgain() {
             scanner.nextLine(); // Consume the invalid input to prevent an infinite loop
         }
 
-        // Recursive call to display the donation menu again
-        donateClothes();
+        // Display the donation menu again
+        return MenuState.DONATE;
     }
 
-    private void donateUppers() {
+    private MenuState donateUppers() {
        
         System.out.println("Uppers Menu:");
         System.out.println("1. Shirts");
@@ -415,55 +485,49 @@ private void askForSearchAgain() {
             choice = scanner.nextInt();
 
             if (choice >= 1 && choice <= 3) {
-                String category;
+                DonationRecord.Category category;
                 switch (choice) {
                     case 1:
-                        category = "Shirt";
+                        category = DonationRecord.Category.SHIRT;
                         break;
                     case 2:
-                        category = "Hoodie";
-                        break;
-                    case 3:
-                        category = "Jacket";
+                        category = DonationRecord.Category.HOODIE;
                         break;
                     default:
-                        category = "Unknown";
+                        category = DonationRecord.Category.JACKET;
                 }
 
                 // Input size with check
-                String size = size();
+                DonationRecord.Size size = size();
 
                 // Input quality with check
-                String quality = quality();
+                DonationRecord.Quality quality = quality();
 
                 // Input gender with check
-                String gender = gender();
-
-                // Generate a random price based on the quality
-                double price = generateRandomPrice(quality);
+                DonationRecord.Gender gender = gender();
 
-                // Store the information in clothesList.txt
-                String donationInfo = username + ", " + category + ", " + size + ", " + quality + ", " + gender + ", $" + price;
-                clothesList.add(donationInfo);
-                saveClothesData();
+                // Store the information in clothesList.txt with a random price based on the quality
+                DonationRecord donationInfo = session.donate(category, size, quality, gender);
 
-                System.out.println("Item donated successfully! Estimated worth: $" + price);
+                System.out.println("Item donated successfully! Estimated worth: $" + DonationRecord.formatPrice(donationInfo.getPriceCents()));
 
                 // Ask if the user wants to donate more items or go back to the main menu
-                askForMoreDonations();
+                return MenuState.MORE_DONATIONS;
             } else {
                 System.out.println("Invalid choice. Please enter a number between 1 and 3.");
             }
+        } catch (IOException e) {
+            System.out.println("The donation could not be saved (" + e.getMessage() + "). Please try again.");
         } catch (Exception e) {
             System.out.println("Invalid input. Please enter a valid number.");
             scanner.nextLine(); // Consume the invalid input to prevent an infinite loop
         }
 
-        // Recursive call to display the uppers menu again
-        donateUppers();
+        // Display the uppers menu again
+        return MenuState.UPPERS;
     }
 
-    private void donateLowers() {
+    private MenuState donateLowers() {
         
 
         System.out.println("Lowers Menu:");
@@ -476,42 +540,39 @@ private void askForSearchAgain() {
             choice = scanner.nextInt();
 
             if (choice == 1 || choice == 2) {
-                String category = (choice == 1) ? "Pant" : "Trouser";
+                DonationRecord.Category category = (choice == 1) ? DonationRecord.Category.PANT : DonationRecord.Category.TROUSER;
 
                 // Input size with check
-                String size = size();
+                DonationRecord.Size size = size();
 
                 // Input quality with check
-                String quality = quality();
+                DonationRecord.Quality quality = quality();
 
                 // Input gender with check
-                String gender = gender();
-
-                // Generate a random price based on the quality
-                double price = generateRandomPrice(quality);
+                DonationRecord.Gender gender = gender();
 
-                // Store the information in clothesList.txt
-                String donationInfo = username + ", " + category + ", " + size + ", " + quality + ", " + gender + ", $" + price;
-                clothesList.add(donationInfo);
-                saveClothesData();
+                // Store the information in clothesList.txt with a random price based on the quality
+                DonationRecord donationInfo = session.donate(category, size, quality, gender);
 
-                System.out.println("Item donated successfully! Estimated worth: $" + price);
+                System.out.println("Item donated successfully! Estimated worth: $" + DonationRecord.formatPrice(donationInfo.getPriceCents()));
 
                 // Ask if the user wants to donate more items or go back to the main menu
-                askForMoreDonations();
+                return MenuState.MORE_DONATIONS;
             } else {
                 System.out.println("Invalid choice. Please enter 1 or 2.");
             }
+        } catch (IOException e) {
+            System.out.println("The donation could not be saved (" + e.getMessage() + "). Please try again.");
         } catch (Exception e) {
             System.out.println("Invalid input. Please enter a valid number.");
             scanner.nextLine(); // Consume the invalid input to prevent an infinite loop
         }
 
-        // Recursive call to display the lowers menu again
-        donateLowers();
+        // Display the lowers menu again
+        return MenuState.LOWERS;
     }
 
-    private String size() {
+    private DonationRecord.Size size() {
         String size;
 
         do {
@@ -524,11 +585,11 @@ private void askForSearchAgain() {
 
         } while (!"XS".equals(size) && !"S".equals(size) && !"M".equals(size) && !"L".equals(size) && !"XL".equals(size));
 
-        return size;
+        return DonationRecord.Size.fromLabel(size);
     }
 
 
-    private String quality() {
+    private DonationRecord.Quality quality() {
         String quality;
 
         do {
@@ -542,14 +603,14 @@ private void askForSearchAgain() {
         } while (!"L".equals(quality) && !"M".equals(quality) && !"H".equals(quality));
 
         return switch (quality) {
-            case "L" -> "Low";
-            case "M" -> "Medium";
-            case "H" -> "High";
+            case "L" -> DonationRecord.Quality.LOW;
+            case "M" -> DonationRecord.Quality.MEDIUM;
+            case "H" -> DonationRecord.Quality.HIGH;
             default -> throw new IllegalStateException("Unexpected value: " + quality);
         };
     }
 
-    private String gender() {
+    private DonationRecord.Gender gender() {
         String gender;
 
         do {
@@ -563,95 +624,100 @@ private void askForSearchAgain() {
         } while (!"M".equals(gender) && !"F".equals(gender) && !"U".equals(gender));
 
         return switch (gender) {
-            case "M" -> "Male";
-            case "F" -> "Female";
-            case "U" -> "Unisex";
+            case "M" -> DonationRecord.Gender.MALE;
+            case "F" -> DonationRecord.Gender.FEMALE;
+            case "U" -> DonationRecord.Gender.UNISEX;
             default -> throw new IllegalStateException("Unexpected value: " + gender);
         };
     }
    
 
-    private double generateRandomPrice(String quality) {
-        Random random = new Random();
-        double basePrice;
-
-        switch (quality.toLowerCase()) {
-            case "low":
-                basePrice = 20.0;
-                break;
-            case "medium":
-                basePrice = 30.0;
-                break;
-            case "high":
-                basePrice = 40.0;
-                break;
-            default:
-                basePrice = 0.0; // Default to 0 if quality is not recognized
-        }
-
-        // Generate a random value within the specified range with two decimal places
-        double randomValue = basePrice + Math.round(random.nextDouble() * 10.0) / 100.0;
-        return Math.round(randomValue * 100.0) / 100.0;
-    }
-
-    private void askForMoreDonations() {
+    private MenuState askForMoreDonations() {
         System.out.print("Do you want to donate more items? (yes/no): ");
         String choice = scanner.next().toLowerCase();
 
         if ("yes".equals(choice)) {
             // Continue donating items
-            donateClothes();
+            return MenuState.DONATE;
         } else if ("no".equals(choice)) {
             // Go back to the main menu
-            displayMainMenu();
+            return MenuState.MAIN;
         } else {
             System.out.println("Invalid choice. Please enter 'yes' or 'no'.");
-            // Recursive call to ask for more donations again
-            askForMoreDonations();
-        }
-    }
-
-    private void saveClothesData() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(CLOTHES_FILE))) {
-            for (String item : clothesList) {
-                writer.write(item);
-                writer.newLine();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+            // Ask for more donations again
+            return MenuState.MORE_DONATIONS;
         }
     }
 
     private void viewDonatedClothes() {
             try {
                 System.out.println("Donated Clothes:");
-                loadClothesData();
+                List<DonationRecord> clothesList = store.getClothes();
         
                 if (clothesList.isEmpty()) {
                     System.out.println("No donated clothes found.");
-                    displayMainMenu();
                     return;
                 }
         
-                for (String item : clothesList) {
-                    System.out.println(item);
-                }
+                renderer.list(clothesList, scanner);
+
+                DonationStatistics statistics = store.getStatistics();
+                System.out.println(statistics.getCount() + " items donated, total estimated worth: $"
+                        + DonationStatistics.formatWorth(statistics.getWorthCents()));
             } catch (Exception e) {
                 System.out.println("An error occurred while viewing donated clothes: " + e.getMessage());
-            } 
-                // Go back to the main menu
-                displayMainMenu();
+            }
             }
         
         
     
 
+    /**
+     * Lists the organizations with their needs and how many items have been allocated to each need.
+     */
     private void viewDonationOrganizations() {
-        // Implement code for viewing donation organizations
+        try {
+            System.out.println("Donation Organizations:");
+            List<DonationAllocator.Allocation> allocations = store.getAllocations();
+            List<OrganizationRegistry.Organization> organizations = store.getOrganizations().getOrganizations();
+            if (organizations.isEmpty()) {
+                System.out.println("No donation organizations found.");
+                return;
+            }
+
+            Map<OrganizationNeed, DonationAllocator.Allocation> byNeed = new IdentityHashMap<>();
+            for (DonationAllocator.Allocation allocation : allocations) {
+                byNeed.put(allocation.getNeed(), allocation);
+            }
+            List<CharSequence> lines = new ArrayList<>();
+            int open = 0;
+            long allocated = 0;
+            for (OrganizationRegistry.Organization organization : organizations) {
+                lines.add(organization.getName());
+                for (OrganizationNeed need : organization.getNeeds()) {
+                    DonationAllocator.Allocation allocation = byNeed.get(need);
+                    int items = (allocation == null) ? 0 : allocation.getItems().size();
+                    lines.add(new StringBuilder("    ").append(need.getQuantity()).append(" x ")
+                            .append(need.getCategory().getLabel())
+                            .append(", size ").append(need.getSize() == null ? "any" : need.getSize().getLabel())
+                            .append(", ").append(need.getMinQuality().getLabel()).append(" quality or better, ")
+                            .append(need.getGender() == null ? "any gender" : need.getGender().getLabel())
+                            .append(": ").append(items).append(" allocated"));
+                    open += (items < need.getQuantity()) ? 1 : 0;
+                    allocated += items;
+                }
+            }
+            renderer.list(lines, (line, text) -> text.append(line), scanner);
+            System.out.println(organizations.size() + " organizations, " + allocations.size() + " needs ("
+                    + open + " open), " + allocated + " items allocated");
+        } catch (Exception e) {
+            System.out.println("An error occurred while viewing donation organizations: " + e.getMessage());
+        }
     }
 
     public static void main(String[] args) {
         ClothesDonationSystem donationSystem = new ClothesDonationSystem();
+        donationSystem.store.getMetrics().startFromSystemProperties("console");
         donationSystem.checkUser();
         donationSystem.displayMainMenu();
     }
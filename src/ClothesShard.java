@@ -0,0 +1,711 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * This class holds one shard of the donated clothes: its file, the clothes in memory with their
+ * {@link DonationIndex} and {@link DonationStatistics}, and the {@link WriteAheadLog} of its donations.
+ * <p>
+ *     Which donations belong to which shard is decided by the {@link ShardManifest}. Every shard has
+ *     its own lock, so donations to different shards are written at the same time, and the
+ *     {@link DonationStore} scans the shards in parallel.
+ * </p>
+ * <p>
+ *     The clothes are only read from the file again when the file has changed, and if another
+ *     program has appended to it only the new lines are read. Several programs may donate to the
+ *     same shard file: a writer holds the lock that all of them share (see {@link SharedFileLock})
+ *     while it reads the lines the others appended and appends its own, and a full save first reads
+ *     what the others appended, so no program overwrites the donations of another. Writers take the lock of the shard;
+ *     readers never lock: the clothes and their index only grow, and are read up to the number of
+ *     clothes published when the read starts (see {@link ConcurrentRecordList} and {@link ConcurrentBitmap}).
+ *     When the file has been rewritten by another program, a new inventory is built and swapped in
+ *     with a single write.
+ * </p>
+ * <p>
+ *     Donations are first written to the write-ahead log next to the file of the shard (e.g.
+ *     clothesList.txt.wal) and are only acknowledged once that log is on disk; concurrent donations
+ *     share one force of the log. When the shard is opened, donations from the log that are missing
+ *     from the file are appended to it, and then loaded with the rest. The log is emptied whenever
+ *     the file has been forced to disk: on compaction, on a full save, on close, and when the log grows large.
+ * </p>
+ * <p>
+ *     The clothes are kept as {@link DonationRecord}s on the heap, or, for a shard created with
+ *     offHeap set, in columns outside the heap (see {@link OffHeapClothes}).
+ * </p>
+ * <p>
+ *     {@link #archive(long)} moves the oldest donations to the archive file of the shard (see {@link DonationArchive}).
+ * </p>
+ */
+public class ClothesShard {
+    // The write-ahead log is emptied once it grows beyond this size
+    private static final long CHECKPOINT_BYTES = 64L << 20;
+
+    private final String fileName;
+    private final AppendOnlyLog log;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final DonationMetrics metrics;
+    private final boolean printLoadStats;
+    private final boolean offHeap;
+    private volatile Inventory inventory;
+    // Opened by the first load or donation and replaced under lock; volatile for getSyncCount()
+    private volatile WriteAheadLog wal;
+    // Set once a resharding has moved the clothes to other shards, guarded by lock
+    private boolean retired;
+
+    /**
+     * The clothes of an inventory: an append-only list that one writer thread fills while any number
+     * of reader threads read it without locking.
+     */
+    interface Clothes {
+        /**
+         * Adds an item to the end of the list. Only one thread may add at a time.
+         */
+        void add(DonationRecord record);
+
+        DonationRecord get(int row);
+
+        /**
+         * Returns true if the item in the given row matches the query.
+         */
+        boolean matches(int row, DonationQuery query);
+
+        int size();
+
+        /**
+         * Returns a read-only view of the items added so far.
+         */
+        List<DonationRecord> snapshot();
+    }
+
+    /**
+     * Clothes kept as records on the heap.
+     */
+    private static final class HeapClothes implements Clothes {
+        private final ConcurrentRecordList<DonationRecord> records = new ConcurrentRecordList<>();
+
+        @Override
+        public void add(DonationRecord record) {
+            records.add(record);
+        }
+
+        @Override
+        public DonationRecord get(int row) {
+            return records.get(row);
+        }
+
+        @Override
+        public boolean matches(int row, DonationQuery query) {
+            return query.matches(records.get(row));
+        }
+
+        @Override
+        public int size() {
+            return records.size();
+        }
+
+        @Override
+        public List<DonationRecord> snapshot() {
+            return records.snapshot();
+        }
+    }
+
+    /**
+     * The donated clothes, their index and their statistics. Only grows while it is in use.
+     */
+    private static final class Inventory {
+        final Clothes clothes;
+        final DonationIndex index;
+        final DonationStatistics statistics;
+        // What was archived from the file before the first of the clothes
+        final DonationArchive.Header header;
+
+        Inventory(Clothes clothes, DonationArchive.Header header) {
+            this.clothes = clothes;
+            this.index = new DonationIndex();
+            this.statistics = new DonationStatistics();
+            this.header = header;
+        }
+
+        /**
+         * Restores an inventory from a snapshot, whose index and statistics already cover its clothes.
+         */
+        Inventory(Clothes clothes, StoreSnapshot.Shard snapshot, DonationArchive.Header header) {
+            this.clothes = clothes;
+            this.header = header;
+            this.index = snapshot.index;
+            this.statistics = snapshot.statistics;
+            for (DonationRecord record : snapshot.clothes) {
+                clothes.add(record);
+            }
+        }
+
+        void add(DonationRecord record) {
+            // Index first, so a reader never finds a listed record missing from the index
+            index.add(clothes.size(), record);
+            statistics.add(record);
+            clothes.add(record);
+        }
+    }
+
+    /**
+     * The clothes of a shard and the number of clothes archived before the first of them, taken from one inventory.
+     */
+    static final class Live {
+        final int archived;
+        final List<DonationRecord> clothes;
+
+        private Live(int archived, List<DonationRecord> clothes) {
+            this.archived = archived;
+            this.clothes = clothes;
+        }
+    }
+
+    /**
+     * Donations that were written to the write-ahead log of a shard but may not be on disk yet.
+     */
+    static final class Commit {
+        private final WriteAheadLog wal;
+        private final long position;
+
+        private Commit(WriteAheadLog wal, long position) {
+            this.wal = wal;
+            this.position = position;
+        }
+
+        /**
+         * Returns once the donations are on disk.
+         */
+        void awaitDurable() throws IOException {
+            wal.awaitDurable(position);
+        }
+    }
+
+    ClothesShard(String fileName, DonationMetrics metrics, boolean printLoadStats, boolean offHeap) {
+        this.fileName = fileName;
+        this.log = new AppendOnlyLog(fileName);
+        this.metrics = metrics;
+        this.printLoadStats = printLoadStats;
+        this.offHeap = offHeap;
+        this.inventory = new Inventory(newClothes(), DonationArchive.Header.NONE);
+    }
+
+    private Clothes newClothes() {
+        return offHeap ? new OffHeapClothes() : new HeapClothes();
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Returns the lock that writers of this shard hold.
+     */
+    ReentrantLock getLock() {
+        return lock;
+    }
+
+    /**
+     * Returns true if the file of this shard has been read at least once.
+     */
+    boolean isLoaded() {
+        return log.getSyncedLength() >= 0;
+    }
+
+    /**
+     * Opens the write-ahead log, appending the donations from it that had not reached the file
+     * when the system stopped.
+     */
+    void open() throws IOException {
+        lock.lock();
+        try {
+            log.lock();
+            try {
+                openWal();
+            } finally {
+                log.unlock();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Brings the clothes in memory up to date with the file.
+     * Does nothing if the file has not changed since it was last read, or if another thread
+     * is writing to it at the moment (that thread brings the clothes up to date itself).
+     */
+    void load() throws IOException {
+        if (log.isUpToDate() || !lock.tryLock()) {
+            return;
+        }
+        try {
+            refresh();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the changes of the file, holding the lock of the file shared with other programs.
+     * The caller must hold the lock.
+     */
+    private void refresh() throws IOException {
+        if (retired) {
+            // The file is no longer used
+            return;
+        }
+        log.lock();
+        try {
+            if (!log.isUpToDate()) {
+                read();
+            }
+        } finally {
+            log.unlock();
+        }
+    }
+
+    /**
+     * Reads the lines appended to the file since it was last read, or all of it if it was rewritten.
+     */
+    private void read() throws IOException {
+        long start = System.nanoTime();
+        OperationMetrics loadClothes = metrics.get(DonationMetrics.Operation.LOAD_CLOTHES);
+        List<String> lines = log.readAppended();
+        if (lines == null) {
+            // The file was rewritten, so read all of it again into a new inventory
+            Inventory reloaded = new Inventory(newClothes(), DonationArchive.readHeader(fileName));
+            List<DonationRecord> records = log.readLive(DonationRecord::parse);
+            for (DonationRecord record : records) {
+                reloaded.add(record);
+            }
+            inventory = reloaded;
+            loadClothes.addBytesRead(new File(fileName).length());
+            loadClothes.record(start, records.size());
+            if (printLoadStats && log.getLastLoad() != null) {
+                System.out.println("Loaded " + fileName + ": " + log.getLastLoad());
+            }
+            return;
+        }
+        Inventory current = inventory;
+        long bytes = 0;
+        for (String line : lines) {
+            bytes += line.length() + 1;
+            DonationRecord record = DonationRecord.parse(line);
+            if (record != null) {
+                current.add(record);
+            }
+        }
+        loadClothes.addBytesRead(bytes);
+        loadClothes.record(start, lines.size());
+    }
+
+    /**
+     * Replaces the clothes in memory with those of the snapshot, so that only the lines
+     * appended to the file after the snapshot are read.
+     */
+    void restore(StoreSnapshot.Shard snapshot) throws IOException {
+        lock.lock();
+        try {
+            // The header is the first line of the file, which the snapshot covers
+            inventory = new Inventory(newClothes(), snapshot, (snapshot.archived == 0) ? DonationArchive.Header.NONE
+                    : DonationArchive.readHeader(fileName));
+            log.resumeFrom(snapshot.position.length, snapshot.position.deadLines);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the file and the clothes in memory with the given clothes, e.g. when a resharding
+     * fills a new shard. The file is forced to disk before it replaces the old one.
+     *
+     * @return the number of clothes written
+     */
+    int replaceWith(List<DonationRecord> clothes) throws IOException {
+        lock.lock();
+        try {
+            Inventory replaced = new Inventory(newClothes(), DonationArchive.Header.NONE);
+            List<String> lines = new ArrayList<>(clothes.size());
+            for (DonationRecord record : clothes) {
+                replaced.add(record);
+                lines.add(record.toString());
+            }
+            log.rewrite(lines);
+            inventory = replaced;
+            return lines.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Brings the clothes up to date with the file and returns their state for a snapshot.
+     * The caller must hold the lock until the snapshot is written.
+     */
+    StoreSnapshot.Shard capture() throws IOException {
+        refresh();
+        Inventory current = inventory;
+        return new StoreSnapshot.Shard(fileName,
+                StoreSnapshot.FilePosition.of(fileName, log.getSyncedLength(), log.getDeadLines()),
+                current.header.archived, current.clothes.snapshot(), current.index, current.statistics);
+    }
+
+    /**
+     * Opens the write-ahead log of the file, which all programs using the file share.
+     * The caller must hold the lock and the lock of the file.
+     */
+    private WriteAheadLog openWal() throws IOException {
+        if (wal == null) {
+            WriteAheadLog opened = WriteAheadLog.open(Paths.get(fileName + ".wal"));
+            List<String> pending = opened.recover();
+            if (!pending.isEmpty()) {
+                log.redo(opened.getBaseLength(), pending);
+            }
+            wal = opened;
+            checkpoint();
+        }
+        return wal;
+    }
+
+    /**
+     * Forces the file to disk and empties the write-ahead log, whose donations are now
+     * all safe in the file. The caller must hold the lock and the lock of the file.
+     */
+    private void checkpoint() throws IOException {
+        if (wal != null) {
+            log.force();
+            wal.reset(new File(fileName).length());
+        }
+    }
+
+    /**
+     * Stores donations that belong to this shard and appends them to its file with a single write.
+     * The donations are on disk once {@link Commit#awaitDurable()} of the returned commit returns.
+     * They are only added to the clothes in memory once they are written to the write-ahead log and
+     * the file; if either write fails, neither keeps them and they are not added.
+     *
+     * @return the commit, or null if the shard was retired by a resharding and the donations
+     *         have to be added to the new shards instead
+     */
+    Commit add(List<DonationRecord> donations) throws IOException {
+        lock.lock();
+        try {
+            if (retired) {
+                return null;
+            }
+            // No other program may append between reading its donations and appending these
+            log.lock();
+            try {
+                refresh();
+
+                List<String> lines = new ArrayList<>(donations.size());
+                long bytes = 0;
+                for (DonationRecord donation : donations) {
+                    String line = donation.toString();
+                    lines.add(line);
+                    bytes += line.length() + 1;
+                }
+                WriteAheadLog opened = openWal();
+                long position = opened.append(lines);
+                try {
+                    log.appendAll(lines);
+                } catch (IOException | RuntimeException e) {
+                    // Not in the file, so they must not be recovered from the log either
+                    opened.removeLast();
+                    throw e;
+                }
+                // Published only once they are written, so readers never see a donation that was not saved
+                Inventory current = inventory;
+                for (DonationRecord donation : donations) {
+                    current.add(donation);
+                }
+                // Written twice: to the write-ahead log and to the file
+                metrics.get(DonationMetrics.Operation.DONATE).addBytesWritten(2 * bytes);
+
+                if (opened.size() > CHECKPOINT_BYTES) {
+                    checkpoint();
+                }
+                return new Commit(opened, position);
+            } finally {
+                log.unlock();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the clothes donated by the given user, oldest first.
+     */
+    List<DonationRecord> previousDonations(String username) {
+        Inventory current = inventory;
+        int[] rows = current.index.donationsOf(username, current.clothes.size());
+        List<DonationRecord> donations = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            donations.add(current.clothes.get(row));
+        }
+        return donations;
+    }
+
+    /**
+     * Returns the matches of the query among the clothes of this shard, found as they are consumed.
+     */
+    Matches matches(DonationQuery query) {
+        return new Matches(inventory, query);
+    }
+
+    /**
+     * The matches of a query in one inventory, found as they are consumed.
+     */
+    static final class Matches extends Spliterators.AbstractSpliterator<DonationRecord> {
+        private final Inventory inventory;
+        private final DonationQuery query;
+        private final DonationIndex.RowCursor rows;
+        // Records the index returned, some of which may have failed the checks below
+        long scanned;
+
+        private Matches(Inventory inventory, DonationQuery query) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+            this.inventory = inventory;
+            this.query = query;
+            this.rows = inventory.index.match(query, inventory.clothes.size());
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super DonationRecord> action) {
+            for (int row = rows.next(); row >= 0; row = rows.next()) {
+                scanned++;
+                // The index does not check the price, and not always the donor
+                if (inventory.clothes.matches(row, query)) {
+                    action.accept(inventory.clothes.get(row));
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Returns the clothes of this shard, oldest first.
+     */
+    List<DonationRecord> getClothes() {
+        return inventory.clothes.snapshot();
+    }
+
+    /**
+     * Returns the clothes of this shard, oldest first, with the number of clothes archived before them.
+     */
+    Live getLive() {
+        Inventory current = inventory;
+        return new Live(current.header.archived, current.clothes.snapshot());
+    }
+
+    /**
+     * Returns the inventory the clothes are in. It stays the same as long as the clothes only grow,
+     * and is replaced when they are read again from a rewritten file, so a reader can tell whether
+     * its position in the clothes still applies.
+     */
+    Object getInventory() {
+        return inventory;
+    }
+
+    DonationStatistics getStatistics() {
+        return inventory.statistics;
+    }
+
+    /**
+     * Rewrites the whole file from the clothes in memory, after reading the donations other programs
+     * have appended to it, so they are written as well.
+     *
+     * @return the number of clothes written
+     */
+    int save() throws IOException {
+        lock.lock();
+        try {
+            log.lock();
+            try {
+                refresh();
+                Inventory current = inventory;
+                List<DonationRecord> clothes = current.clothes.snapshot();
+                List<String> lines = new ArrayList<>(clothes.size() + 1);
+                if (current.header.toLine() != null) {
+                    lines.add(current.header.toLine());
+                }
+                for (DonationRecord record : clothes) {
+                    lines.add(record.toString());
+                }
+                log.rewrite(lines);
+                checkpoint();
+                return clothes.size();
+            } finally {
+                log.unlock();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rewrites the whole file and the clothes in memory with the name of every donor spelled as the
+     * given function says, after reading the donations other programs have appended to the file.
+     *
+     * @param spellings maps the ID of the spelling of a donor to the ID of the spelling to write
+     * @return the number of clothes written
+     */
+    int respell(IntUnaryOperator spellings) throws IOException {
+        lock.lock();
+        try {
+            log.lock();
+            try {
+                refresh();
+                Inventory current = inventory;
+                List<DonationRecord> clothes = current.clothes.snapshot();
+                Inventory respelled = new Inventory(newClothes(), current.header);
+                List<String> lines = new ArrayList<>(clothes.size() + 1);
+                if (current.header.toLine() != null) {
+                    lines.add(current.header.toLine());
+                }
+                for (DonationRecord record : clothes) {
+                    DonationRecord written = record.withDonorId(spellings.applyAsInt(record.getDonorId()));
+                    respelled.add(written);
+                    lines.add(written.toString());
+                }
+                log.rewrite(lines);
+                checkpoint();
+                inventory = respelled;
+                return clothes.size();
+            } finally {
+                log.unlock();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves the donations made before the given time, in seconds since 1970, from the start of the
+     * file to the archive file of the shard, and rewrites the file and the clothes in memory without them.
+     * Donations without a time are moved with the old donations that follow them (see {@link DonationArchive}).
+     *
+     * @return the number of donations archived
+     */
+    int archive(long beforeTime) throws IOException {
+        lock.lock();
+        try {
+            if (retired) {
+                return 0;
+            }
+            log.lock();
+            try {
+                refresh();
+                Inventory current = inventory;
+                List<DonationRecord> clothes = current.clothes.snapshot();
+                int count = 0;
+                for (int i = 0; i < clothes.size(); i++) {
+                    DonationRecord record = clothes.get(i);
+                    if (record.hasTime()) {
+                        if (record.getTime() >= beforeTime) {
+                            break;
+                        }
+                        count = i + 1;
+                    }
+                }
+                if (count == 0) {
+                    return 0;
+                }
+
+                DonationArchive.Header header = DonationArchive.append(fileName, current.header, clothes.subList(0, count));
+                Inventory remaining = new Inventory(newClothes(), header);
+                List<String> lines = new ArrayList<>(clothes.size() - count + 1);
+                lines.add(header.toLine());
+                for (DonationRecord record : clothes.subList(count, clothes.size())) {
+                    remaining.add(record);
+                    lines.add(record.toString());
+                }
+                log.rewrite(lines);
+                checkpoint();
+                inventory = remaining;
+                return count;
+            } finally {
+                log.unlock();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Compacts the file if it contains blank lines or removed records.
+     */
+    void compact() throws IOException {
+        lock.lock();
+        try {
+            log.lock();
+            try {
+                refresh();
+                log.compact();
+                checkpoint();
+            } finally {
+                log.unlock();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the shard as replaced by a resharding: its write-ahead log is emptied and closed,
+     * and donations that were waiting for the lock are sent to the new shards.
+     * The caller must hold the lock.
+     */
+    void retire() throws IOException {
+        retired = true;
+        if (wal != null) {
+            log.lock();
+            try {
+                checkpoint();
+            } finally {
+                log.unlock();
+            }
+            wal.close();
+            wal = null;
+        }
+    }
+
+    /**
+     * Empties and closes the write-ahead log. The shard can still be used afterwards;
+     * the log is opened again by the next donation.
+     */
+    void close() throws IOException {
+        lock.lock();
+        try {
+            if (wal != null) {
+                log.lock();
+                try {
+                    checkpoint();
+                } finally {
+                    log.unlock();
+                }
+                wal.close();
+                wal = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of times donations to this shard were forced to disk since it was opened.
+     */
+    long getSyncCount() {
+        WriteAheadLog current = wal;
+        return (current == null) ? 0 : current.getForceCount();
+    }
+}
@@ -0,0 +1,135 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * This class checks that kiosk sessions on many threads neither lose nor duplicate donations.
+ * <p>
+ *     Sessions on 8 threads by default share one store of 10,000 records, and every session runs
+ *     2,000 operations by default: searches and previous donations lookups with 5% donations.
+ *     Afterwards the store, its index and the clothes file must hold exactly the records and the
+ *     donations that were made. The sessions are run once with the clothes in one file and once
+ *     after splitting them into 4 shards, and then a new store loaded from the files is checked too.
+ * </p>
+ * <p>
+ *     Usage: java ConcurrencyTest [threads] [operations]
+ *     Prints the result of every check and exits with status 1 if one of them fails.
+ * </p>
+ */
+public class ConcurrencyTest {
+    private static final int RECORDS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        int threads = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+        int operations = (args.length > 1) ? Integer.parseInt(args[1].replace("_", "")) : 2_000;
+
+        Path directory = Files.createTempDirectory("donation-test");
+        String usersFile = directory.resolve("usersList.txt").toString();
+        String clothesFile = directory.resolve("clothesList.txt").toString();
+        String companiesFile = directory.resolve("donationCompaniesList.txt").toString();
+        DonationStore store = new DonationStore(usersFile, clothesFile, companiesFile);
+        boolean passed;
+        try {
+            DonationBenchmark.writeSyntheticData(usersFile, clothesFile, RECORDS);
+            store.load();
+            long donations = runSessions(store, threads, operations);
+            passed = checkConsistency("One file", store, RECORDS + donations);
+
+            store.reshard(4);
+            donations += runSessions(store, threads, operations);
+            passed &= checkConsistency("4 shards", store, RECORDS + donations);
+            store.close();
+
+            DonationStore reloaded = new DonationStore(usersFile, clothesFile, companiesFile);
+            reloaded.load();
+            passed &= checkConsistency("Reloaded", reloaded, RECORDS + donations);
+            reloaded.close();
+        } finally {
+            for (String shardFile : store.getManifest().getShardFiles()) {
+                DonationBenchmark.deleteQuietly(shardFile, shardFile + ".wal", shardFile + ".compact");
+            }
+            DonationBenchmark.deleteQuietly(usersFile, clothesFile, companiesFile, clothesFile + ".wal",
+                    clothesFile + ".manifest", clothesFile + ".snapshot");
+            Files.deleteIfExists(directory);
+        }
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs one kiosk session per thread, each for the given number of operations.
+     *
+     * @return the number of donations made
+     */
+    private static long runSessions(DonationStore store, int threads, int operations) throws InterruptedException {
+        AtomicLong donations = new AtomicLong();
+        List<Throwable> failures = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            DonationSession session = store.openSession("kiosk " + t);
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                DonationRecord.Gender[] genders = DonationRecord.Gender.values();
+                DonationRecord.Size[] sizes = DonationRecord.Size.values();
+                DonationRecord.Quality[] qualities = DonationRecord.Quality.values();
+                try {
+                    for (int i = 0; i < operations; i++) {
+                        int choice = random.nextInt(100);
+                        if (choice < 5) {
+                            session.donate(DonationRecord.Category.SHIRT, sizes[random.nextInt(sizes.length)],
+                                    qualities[random.nextInt(qualities.length)], genders[random.nextInt(genders.length)]);
+                            donations.incrementAndGet();
+                        } else if (choice < 50) {
+                            store.previousDonations("user " + random.nextInt(DonationBenchmark.USERS));
+                        } else {
+                            store.search(genders[random.nextInt(genders.length)], sizes[random.nextInt(sizes.length)],
+                                    qualities[random.nextInt(qualities.length)]);
+                        }
+                    }
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (!failures.isEmpty()) {
+            throw new IllegalStateException("A session failed", failures.get(0));
+        }
+        return donations.get();
+    }
+
+    /**
+     * Checks that the store, its index and the shard files all hold the expected number of donations.
+     *
+     * @return true if they do
+     */
+    static boolean checkConsistency(String name, DonationStore store, long expected) throws IOException {
+        long inMemory = store.getClothes().size();
+        long indexed = 0;
+        for (DonationRecord.Gender gender : DonationRecord.Gender.values()) {
+            indexed += store.searchByGender(gender).size();
+        }
+        long inFile = 0;
+        for (String shardFile : store.getManifest().getShardFiles()) {
+            try (Stream<String> lines = Files.lines(Path.of(shardFile))) {
+                inFile += lines.filter(line -> !line.trim().isEmpty() && !line.startsWith(DonationArchive.HEADER_PREFIX)).count();
+            }
+        }
+        boolean consistent = inMemory == expected && indexed == expected && inFile == expected;
+        System.out.printf("%s: expected %d, in memory %d, indexed %d, in file %d: %s%n", name, expected,
+                inMemory, indexed, inFile, consistent ? "ok" : "FAILED");
+        return consistent;
+    }
+}
@@ -0,0 +1,128 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class is a growable bitmap that one writer thread sets bits in while any number of
+ * reader threads read it without locking.
+ * <p>
+ *     The bits are stored in pages of 64-bit words. Pages are only added, never copied,
+ *     and every word is written and read with volatile semantics, so a reader always sees
+ *     either the old or the new value of a word. Bits are never cleared.
+ *     Callers must make sure only one thread sets bits at a time, e.g. by holding a lock.
+ * </p>
+ */
+public final class ConcurrentBitmap {
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_WORDS = 1 << PAGE_SHIFT;
+
+    private volatile AtomicLongArray[] pages = new AtomicLongArray[0];
+    private volatile int cardinality;
+
+    /**
+     * Sets a bit. Only one thread may set bits at a time.
+     */
+    public void set(int bit) {
+        int word = bit >>> 6;
+        int page = word >>> PAGE_SHIFT;
+        AtomicLongArray[] current = pages;
+        if (page >= current.length) {
+            current = Arrays.copyOf(current, Math.max(page + 1, current.length * 2));
+        }
+        if (current[page] == null) {
+            current[page] = new AtomicLongArray(PAGE_WORDS);
+        }
+        pages = current;
+
+        AtomicLongArray words = current[page];
+        long old = words.get(word & (PAGE_WORDS - 1));
+        long mask = 1L << bit;
+        if ((old & mask) == 0) {
+            words.set(word & (PAGE_WORDS - 1), old | mask);
+            cardinality++;
+        }
+    }
+
+    public boolean get(int bit) {
+        return (word(bit >>> 6) & (1L << bit)) != 0;
+    }
+
+    /**
+     * Returns the 64 bits starting at bit wordIndex * 64.
+     */
+    public long word(int wordIndex) {
+        AtomicLongArray[] current = pages;
+        int page = wordIndex >>> PAGE_SHIFT;
+        if (page >= current.length || current[page] == null) {
+            return 0L;
+        }
+        return current[page].get(wordIndex & (PAGE_WORDS - 1));
+    }
+
+    /**
+     * Returns the number of bits set.
+     */
+    public int cardinality() {
+        return cardinality;
+    }
+
+    /**
+     * Writes the bitmap, e.g. to a {@link StoreSnapshot}. No bits may be set at the same time.
+     * <p>
+     *     Only the words that have a bit set are written, as runs of consecutive words: the index of
+     *     the first word of the run, the number of words and the words, ended by -1. A bitmap of a few
+     *     rows therefore takes a few bytes instead of a page, and a dense bitmap 8 bytes per 64 rows.
+     * </p>
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        int words = pages.length * PAGE_WORDS;
+        out.writeInt(cardinality);
+        int start = 0;
+        while (true) {
+            while (start < words && word(start) == 0L) {
+                start++;
+            }
+            if (start == words) {
+                break;
+            }
+            int end = start;
+            while (end < words && word(end) != 0L) {
+                end++;
+            }
+            out.writeInt(start);
+            out.writeInt(end - start);
+            for (int i = start; i < end; i++) {
+                out.writeLong(word(i));
+            }
+            start = end;
+        }
+        out.writeInt(-1);
+    }
+
+    /**
+     * Reads a bitmap written by {@link #writeTo(DataOutputStream)}.
+     */
+    static ConcurrentBitmap readFrom(ByteBuffer in) {
+        ConcurrentBitmap bitmap = new ConcurrentBitmap();
+        int cardinality = in.getInt();
+        AtomicLongArray[] pages = new AtomicLongArray[0];
+        for (int start = in.getInt(); start >= 0; start = in.getInt()) {
+            int count = in.getInt();
+            for (int word = start; word < start + count; word++) {
+                int page = word >>> PAGE_SHIFT;
+                if (page >= pages.length) {
+                    pages = Arrays.copyOf(pages, Math.max(page + 1, pages.length * 2));
+                }
+                if (pages[page] == null) {
+                    pages[page] = new AtomicLongArray(PAGE_WORDS);
+                }
+                pages[page].set(word & (PAGE_WORDS - 1), in.getLong());
+            }
+        }
+        bitmap.pages = pages;
+        bitmap.cardinality = cardinality;
+        return bitmap;
+    }
+}
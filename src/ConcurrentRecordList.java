@@ -0,0 +1,77 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class is an append-only list that one writer thread fills while any number of
+ * reader threads read it without locking.
+ * <p>
+ *     The elements are stored in fixed size chunks, so adding an element never copies
+ *     the elements already stored. An element is written before the size is increased,
+ *     and the size is volatile, so a reader that reads the size sees every element below it.
+ *     Callers must make sure only one thread adds at a time, e.g. by holding a lock.
+ * </p>
+ */
+public final class ConcurrentRecordList<T> {
+    private static final int CHUNK_SHIFT = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    private volatile Object[][] chunks = new Object[0][];
+    private volatile int size;
+
+    /**
+     * Adds an element to the end of the list. Only one thread may add at a time.
+     */
+    public void add(T element) {
+        int index = size;
+        int chunk = index >>> CHUNK_SHIFT;
+        Object[][] current = chunks;
+        if (chunk == current.length) {
+            current = Arrays.copyOf(current, Math.max(4, current.length * 2));
+        }
+        if (current[chunk] == null) {
+            current[chunk] = new Object[CHUNK_SIZE];
+        }
+        current[chunk][index & (CHUNK_SIZE - 1)] = element;
+        chunks = current;
+        size = index + 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return (T) chunks[index >>> CHUNK_SHIFT][index & (CHUNK_SIZE - 1)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns a read-only view of the elements added so far.
+     * Elements added later are not part of the view.
+     */
+    public List<T> snapshot() {
+        int snapshotSize = size;
+        return new AbstractList<T>() {
+            @Override
+            public T get(int index) {
+                if (index >= snapshotSize) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + snapshotSize);
+                }
+                return ConcurrentRecordList.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return snapshotSize;
+            }
+        };
+    }
+}
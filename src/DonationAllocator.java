@@ -0,0 +1,403 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class allocates donated clothes to the open needs of the donation organizations
+ * (see {@link OrganizationNeed}).
+ * <p>
+ *     An item goes to the open need that accepts it and has the smallest share of its quantity
+ *     allocated so far, the need declared first among equals, so the items are spread over the
+ *     organizations by how far each one is from what it asked for. To find that need without
+ *     scanning all of them, the open needs are kept in a priority queue per combination of
+ *     category, size (or any size), gender (or any gender) and minimum quality. An item can only
+ *     match the queues of its own category, its size or any size, its gender or any gender, and
+ *     a minimum quality up to its own, which are at most twelve queues; the best need is the
+ *     best of their heads. A need leaves its queue when its quantity is reached.
+ * </p>
+ * <p>
+ *     Items that no open need accepts are kept in a pool per combination of category, size, gender
+ *     and quality, oldest first, so a need declared later takes them from the pools that it accepts.
+ * </p>
+ * <p>
+ *     The allocations are not stored: they follow from the needs and the clothes. {@link #catchUp}
+ *     allocates the clothes donated since the last call, reading every {@link ClothesShard} from where
+ *     it stopped before, and {@link #reallocate} allocates all clothes again from the start, e.g.
+ *     after the needs were read again or the clothes of a shard were replaced.
+ *     All methods may be called from any thread; they take the lock of the allocator.
+ * </p>
+ */
+public class DonationAllocator {
+    private static final int CATEGORIES = DonationRecord.Category.values().length;
+    private static final int SIZES = DonationRecord.Size.values().length;
+    private static final int QUALITIES = DonationRecord.Quality.values().length;
+    private static final int GENDERS = DonationRecord.Gender.values().length;
+    // The index of "any size" and "any gender" in the keys of the queues
+    private static final int ANY_SIZE = SIZES;
+    private static final int ANY_GENDER = GENDERS;
+
+    /**
+     * Needs with the smallest share allocated first, then the need declared first.
+     */
+    private static final Comparator<NeedState> MOST_IN_NEED = (a, b) -> {
+        int order = Long.compare((long) a.allocated * b.quantity, (long) b.allocated * a.quantity);
+        return (order != 0) ? order : Integer.compare(a.id, b.id);
+    };
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<NeedState> needs = new ArrayList<>();
+    // The open needs by the key of what they accept, and the unallocated items by the key of what they are;
+    // null where there are none yet
+    private final List<PriorityQueue<NeedState>> openNeeds =
+            new ArrayList<>(Collections.nCopies(CATEGORIES * (SIZES + 1) * (GENDERS + 1) * QUALITIES, null));
+    private final List<ArrayDeque<DonationRecord>> unallocated =
+            new ArrayList<>(Collections.nCopies(CATEGORIES * SIZES * GENDERS * QUALITIES, null));
+    private int openCount;
+    private long allocatedCount;
+    // Where every shard was read up to by the last catch-up
+    private List<Cursor> cursors = Collections.emptyList();
+
+    /**
+     * A need and the items allocated to it.
+     */
+    private static final class NeedState {
+        final int id;
+        final OrganizationNeed need;
+        final List<DonationRecord> items = new ArrayList<>();
+        // Copies of the item count and the quantity, which the queues compare all the time
+        final int quantity;
+        int allocated;
+
+        NeedState(int id, OrganizationNeed need) {
+            this.id = id;
+            this.need = need;
+            this.quantity = need.getQuantity();
+        }
+
+        void add(DonationRecord item) {
+            items.add(item);
+            allocated++;
+        }
+
+        boolean isMet() {
+            return allocated >= quantity;
+        }
+    }
+
+    /**
+     * How far the clothes of a shard have been allocated. The inventory of the shard identifies
+     * its clothes; when they are replaced, the positions no longer apply.
+     */
+    private static final class Cursor {
+        final ClothesShard shard;
+        final Object inventory;
+        int position;
+
+        Cursor(ClothesShard shard, Object inventory) {
+            this.shard = shard;
+            this.inventory = inventory;
+        }
+    }
+
+    /**
+     * A need and the items allocated to it at the time it was returned.
+     */
+    public static final class Allocation {
+        private final OrganizationNeed need;
+        private final List<DonationRecord> items;
+
+        private Allocation(OrganizationNeed need, List<DonationRecord> items) {
+            this.need = need;
+            this.items = items;
+        }
+
+        public OrganizationNeed getNeed() {
+            return need;
+        }
+
+        public List<DonationRecord> getItems() {
+            return items;
+        }
+
+        public boolean isMet() {
+            return items.size() >= need.getQuantity();
+        }
+
+        @Override
+        public String toString() {
+            return need + ": " + items.size() + " of " + need.getQuantity() + " allocated";
+        }
+    }
+
+    /**
+     * Adds needs, which first take the items from the pools of unallocated items that they accept.
+     */
+    public void addNeeds(List<OrganizationNeed> added) {
+        lock.lock();
+        try {
+            for (OrganizationNeed need : added) {
+                NeedState state = new NeedState(needs.size(), need);
+                needs.add(state);
+                takeUnallocated(state);
+                if (!state.isMet()) {
+                    queueOf(need).add(state);
+                    openCount++;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of needs.
+     */
+    public int getNeedCount() {
+        lock.lock();
+        try {
+            return needs.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Allocates the clothes added to the shards since the last call. If the shards are not the
+     * same as then, or the clothes of one of them were replaced, all clothes are allocated again.
+     *
+     * @return the number of clothes read
+     */
+    public long catchUp(List<ClothesShard> shards) {
+        lock.lock();
+        try {
+            if (!sameShards(shards)) {
+                return reallocate(shards);
+            }
+            long read = 0;
+            for (Cursor cursor : cursors) {
+                List<DonationRecord> clothes = cursor.shard.getClothes();
+                if (cursor.shard.getInventory() != cursor.inventory) {
+                    // Replaced while the other shards were read
+                    return read + reallocate(shards);
+                }
+                for (int i = cursor.position; i < clothes.size(); i++) {
+                    allocate(clothes.get(i));
+                }
+                read += clothes.size() - cursor.position;
+                cursor.position = clothes.size();
+            }
+            return read;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean sameShards(List<ClothesShard> shards) {
+        if (cursors.size() != shards.size()) {
+            return false;
+        }
+        for (int i = 0; i < shards.size(); i++) {
+            Cursor cursor = cursors.get(i);
+            if (cursor.shard != shards.get(i) || cursor.shard.getInventory() != cursor.inventory) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Takes all allocations back and allocates all clothes of the shards again, shard by shard and oldest first.
+     *
+     * @return the number of clothes read
+     */
+    public long reallocate(List<ClothesShard> shards) {
+        lock.lock();
+        try {
+            reset();
+            List<Cursor> read = new ArrayList<>(shards.size());
+            long count = 0;
+            for (ClothesShard shard : shards) {
+                Cursor cursor = new Cursor(shard, shard.getInventory());
+                List<DonationRecord> clothes = shard.getClothes();
+                for (DonationRecord item : clothes) {
+                    allocate(item);
+                }
+                cursor.position = clothes.size();
+                count += clothes.size();
+                read.add(cursor);
+            }
+            cursors = read;
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces all needs. The clothes are allocated again by the next {@link #catchUp}.
+     */
+    public void setNeeds(List<OrganizationNeed> replaced) {
+        lock.lock();
+        try {
+            needs.clear();
+            cursors = Collections.emptyList();
+            reset();
+            addNeeds(replaced);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes all items back from the needs and empties the pools, keeping the needs.
+     */
+    private void reset() {
+        Collections.fill(openNeeds, null);
+        Collections.fill(unallocated, null);
+        openCount = 0;
+        allocatedCount = 0;
+        for (NeedState state : needs) {
+            state.items.clear();
+            state.allocated = 0;
+            queueOf(state.need).add(state);
+            openCount++;
+        }
+    }
+
+    /**
+     * Allocates the item to the open need that is most in need of it, or adds it to its pool if there is none.
+     */
+    private void allocate(DonationRecord item) {
+        if (openCount > 0) {
+            int category = item.getCategory().ordinal();
+            int quality = item.getQuality().ordinal();
+            PriorityQueue<NeedState> best = null;
+            // The size of the item, then any size; the gender of the item, then any gender
+            for (int size = item.getSize().ordinal(); size <= ANY_SIZE; size += ANY_SIZE - item.getSize().ordinal()) {
+                for (int gender = item.getGender().ordinal(); gender <= ANY_GENDER;
+                     gender += ANY_GENDER - item.getGender().ordinal()) {
+                    for (int minQuality = 0; minQuality <= quality; minQuality++) {
+                        PriorityQueue<NeedState> queue = openNeeds.get(needKey(category, size, gender, minQuality));
+                        if (queue != null && !queue.isEmpty()
+                                && (best == null || MOST_IN_NEED.compare(queue.peek(), best.peek()) < 0)) {
+                            best = queue;
+                        }
+                    }
+                }
+            }
+            if (best != null) {
+                // Take the need out while its share changes, and put it back if it is still open
+                NeedState state = best.poll();
+                state.add(item);
+                allocatedCount++;
+                if (state.isMet()) {
+                    openCount--;
+                } else {
+                    best.add(state);
+                }
+                return;
+            }
+        }
+        int key = itemKey(item.getCategory().ordinal(), item.getSize().ordinal(), item.getGender().ordinal(),
+                item.getQuality().ordinal());
+        ArrayDeque<DonationRecord> pool = unallocated.get(key);
+        if (pool == null) {
+            pool = new ArrayDeque<>();
+            unallocated.set(key, pool);
+        }
+        pool.addLast(item);
+    }
+
+    /**
+     * Gives the need the oldest unallocated items it accepts, up to its quantity.
+     */
+    private void takeUnallocated(NeedState state) {
+        OrganizationNeed need = state.need;
+        int category = need.getCategory().ordinal();
+        for (int size = 0; size < SIZES; size++) {
+            if (need.getSize() != null && need.getSize().ordinal() != size) {
+                continue;
+            }
+            for (int gender = 0; gender < GENDERS; gender++) {
+                if (need.getGender() != null && need.getGender().ordinal() != gender) {
+                    continue;
+                }
+                for (int quality = need.getMinQuality().ordinal(); quality < QUALITIES; quality++) {
+                    ArrayDeque<DonationRecord> pool = unallocated.get(itemKey(category, size, gender, quality));
+                    while (pool != null && !pool.isEmpty() && !state.isMet()) {
+                        state.add(pool.pollFirst());
+                        allocatedCount++;
+                    }
+                    if (state.isMet()) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private PriorityQueue<NeedState> queueOf(OrganizationNeed need) {
+        int key = needKey(need.getCategory().ordinal(),
+                (need.getSize() == null) ? ANY_SIZE : need.getSize().ordinal(),
+                (need.getGender() == null) ? ANY_GENDER : need.getGender().ordinal(),
+                need.getMinQuality().ordinal());
+        PriorityQueue<NeedState> queue = openNeeds.get(key);
+        if (queue == null) {
+            queue = new PriorityQueue<>(MOST_IN_NEED);
+            openNeeds.set(key, queue);
+        }
+        return queue;
+    }
+
+    private static int needKey(int category, int size, int gender, int minQuality) {
+        return ((category * (SIZES + 1) + size) * (GENDERS + 1) + gender) * QUALITIES + minQuality;
+    }
+
+    private static int itemKey(int category, int size, int gender, int quality) {
+        return ((category * SIZES + size) * GENDERS + gender) * QUALITIES + quality;
+    }
+
+    /**
+     * Returns every need with the items allocated to it, in the order the needs were declared.
+     */
+    public List<Allocation> getAllocations() {
+        lock.lock();
+        try {
+            List<Allocation> allocations = new ArrayList<>(needs.size());
+            for (NeedState state : needs) {
+                allocations.add(new Allocation(state.need, Collections.unmodifiableList(new ArrayList<>(state.items))));
+            }
+            return allocations;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of needs whose quantity has not been reached.
+     */
+    public int getOpenCount() {
+        lock.lock();
+        try {
+            return openCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of items allocated to a need.
+     */
+    public long getAllocatedCount() {
+        lock.lock();
+        try {
+            return allocatedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
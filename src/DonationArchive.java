@@ -0,0 +1,201 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class moves old donations out of the shard files into cold archive files, and searches them.
+ * <p>
+ *     Archiving a shard (see {@link DonationStore#archive(long)}) moves the donations made before a given
+ *     time from the start of its file to the end of its archive file next to it (e.g.
+ *     clothesList.txt.archive), which the store never loads, so the clothes in memory, the loads and
+ *     the full saves only cover the recent donations. Donations arrive in time order, so the old ones
+ *     are at the start of the file; the move stops at the first donation made at or after the time.
+ *     Donations without a time (from before donations had one) are only moved if an old donation
+ *     comes after them, which shows that they are old as well.
+ * </p>
+ * <p>
+ *     The first line of an archived shard file is a header with the number of donations archived
+ *     from it and the length of its archive file, e.g. "#archived 1200 61234". The positions of the
+ *     remaining donations, e.g. in the {@link DonationFeed}, count on from the archived ones. The
+ *     archive file is forced to disk before the shard file is rewritten without the donations; if
+ *     the system stops in between, the shard file still has them and the next archival first cuts
+ *     the archive file back to the length in the header, so no donation is archived twice.
+ * </p>
+ * <p>
+ *     A resharding moves only the donations that were not archived. The archive files of the old shards
+ *     stay where they are and are listed in the {@link ShardManifest}, so they are searched as well.
+ *     Usage: java DonationArchive [days]
+ *     archives the donations of clothesList.txt made more than 90 days (by default) ago, or:
+ *     java DonationArchive list [from] [before]
+ *     lists the archived donations made from and before the given dates (e.g. 2026-07-01) or times.
+ * </p>
+ */
+public final class DonationArchive {
+    static final String SUFFIX = ".archive";
+    static final String HEADER_PREFIX = "#archived ";
+
+    /**
+     * The number of donations archived from a shard file and the length of its archive file after them.
+     */
+    static final class Header {
+        static final Header NONE = new Header(0, 0);
+
+        final int archived;
+        final long archiveLength;
+
+        Header(int archived, long archiveLength) {
+            this.archived = archived;
+            this.archiveLength = archiveLength;
+        }
+
+        /**
+         * Returns the first line of the shard file, or null if nothing was archived from it.
+         */
+        String toLine() {
+            return (archived == 0) ? null : HEADER_PREFIX + archived + " " + archiveLength;
+        }
+    }
+
+    private DonationArchive() {
+    }
+
+    /**
+     * Returns the header of a shard file, or {@link Header#NONE} if it has none.
+     */
+    static Header readHeader(String shardFile) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(shardFile))) {
+            Header header = parseHeader(reader.readLine());
+            return (header != null) ? header : Header.NONE;
+        } catch (FileNotFoundException e) {
+            return Header.NONE;
+        }
+    }
+
+    /**
+     * Parses the header line of a shard file.
+     *
+     * @return the header, or null if the line is not one
+     */
+    static Header parseHeader(String line) {
+        if (line == null || !line.startsWith(HEADER_PREFIX)) {
+            return null;
+        }
+        String[] parts = line.substring(HEADER_PREFIX.length()).trim().split(" ");
+        try {
+            if (parts.length == 2) {
+                return new Header(Integer.parseInt(parts[0]), Long.parseLong(parts[1]));
+            }
+        } catch (NumberFormatException e) {
+            // Not a header
+        }
+        return null;
+    }
+
+    /**
+     * Appends donations to the archive file of a shard and forces it to disk. Whatever follows the
+     * length in the header, left by an archival that did not finish, is cut off first.
+     * The caller holds the lock of the shard file.
+     *
+     * @return the header of the shard file once the donations are removed from it
+     */
+    static Header append(String shardFile, Header header, List<DonationRecord> donations) throws IOException {
+        Path archive = Paths.get(shardFile + SUFFIX);
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (channel.size() > header.archiveLength) {
+                channel.truncate(header.archiveLength);
+            }
+        }
+        try (FileOutputStream out = new FileOutputStream(archive.toFile(), true);
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, Charset.defaultCharset()))) {
+            for (DonationRecord donation : donations) {
+                writer.write(donation.toString());
+                writer.newLine();
+            }
+            writer.flush();
+            out.getFD().sync();
+        }
+        return new Header(header.archived + donations.size(), Files.size(archive));
+    }
+
+    /**
+     * Returns the archive files of the shards of the clothes file, those of earlier generations first.
+     */
+    static List<Path> archiveFiles(String clothesFile) throws IOException {
+        ShardManifest manifest = ShardManifest.read(clothesFile);
+        List<Path> files = new ArrayList<>();
+        for (String file : manifest.getArchiveFiles()) {
+            files.add(Paths.get(file));
+        }
+        for (String shardFile : manifest.getShardFiles()) {
+            Path file = Paths.get(shardFile + SUFFIX);
+            if (Files.exists(file)) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Returns at most limit archived donations that match the query, file by file and oldest first
+     * within a file. The archive files are read from the start, as they have no index.
+     */
+    static List<DonationRecord> query(String clothesFile, DonationQuery query, int limit) throws IOException {
+        List<DonationRecord> matches = new ArrayList<>();
+        for (Path file : archiveFiles(clothesFile)) {
+            try (BufferedReader reader = Files.newBufferedReader(file, Charset.defaultCharset())) {
+                String line;
+                while ((line = reader.readLine()) != null && matches.size() < limit) {
+                    DonationRecord record = DonationRecord.parse(line);
+                    if (record != null && query.matches(record)) {
+                        matches.add(record);
+                    }
+                }
+            }
+        }
+        return matches;
+    }
+
+    public static void main(String[] args) {
+        DonationStore store = new DonationStore("usersList.txt", "clothesList.txt", "donationCompaniesList.txt");
+        try {
+            if (args.length > 0 && args[0].equals("list")) {
+                DonationQuery query = new DonationQuery();
+                if (args.length > 1) {
+                    query.donatedFrom(DonationQuery.parseTimeBound(args[1]));
+                }
+                if (args.length > 2) {
+                    query.donatedBefore(DonationQuery.parseTimeBound(args[2]));
+                }
+                ListingRenderer renderer = ListingRenderer.forConsole(ListingRenderer.Mode.BULK);
+                for (DonationRecord record : store.queryArchive(query, Integer.MAX_VALUE)) {
+                    renderer.line(record);
+                }
+                renderer.flush();
+                return;
+            }
+            int days = (args.length > 0) ? Integer.parseInt(args[0]) : 90;
+            store.load();
+            int archived = store.archive(DonationRecord.now() - days * DonationRecord.SECONDS_PER_DAY);
+            System.out.println("Archived " + archived + " donations made more than " + days + " days ago.");
+            store.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println("Usage: java DonationArchive [days]");
+            System.out.println("   or: java DonationArchive list [from] [before]");
+        }
+    }
+}
@@ -0,0 +1,1024 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * This class benchmarks the hot paths of the {@link DonationStore} on synthetic data.
+ * <p>
+ *     For every dataset size a users file and a clothes file are generated in a temporary
+ *     directory. Every operation is first run for a warm-up period so the JIT can compile it,
+ *     and then timed for a measurement period. The average time per operation and the
+ *     operations per second are printed in a table, one dataset after the other, so the
+ *     scaling of every operation with the size of the inventory is visible.
+ * </p>
+ * <p>
+ *     Usage: java DonationBenchmark [records ...]
+ *     The default datasets are 10,000, 1,000,000 and 10,000,000 records.
+ *     The largest dataset needs a heap of a few gigabytes (e.g. -Xmx4g).
+ *     The same operations are benchmarked with JMH, in forked JVMs, by StoreBenchmark in the benchmarks module.
+ * </p>
+ * <p>
+ *     Usage: java DonationBenchmark concurrency [records]
+ *     Runs kiosk sessions on 1, 2, 4, ... threads (up to twice the number of cores) against one
+ *     shared store of 1,000,000 records by default. Every session mixes searches and
+ *     previous donations lookups with 5% donations. The throughput and the speedup over one
+ *     thread are printed for every thread count. {@link ConcurrencyTest} checks that no donation is
+ *     lost or duplicated by such sessions.
+ * </p>
+ * <p>
+ *     Usage: java DonationBenchmark durability [threads]
+ *     Donates from 1, 4, 16, ... threads (up to 64 by default) and prints the donations per second,
+ *     the number of times the write-ahead log was forced to disk and the donations made durable by each force.
+ * </p>
+ * <p>
+ *     Usage: java DonationBenchmark shards [records]
+ *     Splits a store of 1,000,000 records by default into 1, 2, 4, ... shards (up to the number of cores)
+ *     and times a search and a listing of all clothes, which run on all shards in parallel, and the
+ *     donations per second from four threads per core, which are written to different shards at the same time.
+ * </p>
+ * <p>
+ *     Usage: java DonationBenchmark binary [records]
+ *     Compares the size and the full scan time of a clothes text file of 1,000,000 records by default
+ *     with the same records converted to a {@link BinaryClothesFile}, and times random reads of single records.
+ * </p>
+ * <p>
+ *     Usage: java DonationBenchmark startup [records]
+ *     Times loading a store of 1,000,000 records by default from the text files alone, and from a
+ *     {@link StoreSnapshot} after 1,000 more records were appended to the clothes file, then checks
+ *     that both loads hold the same clothes and statistics.
+ * </p>
+ * <p>
+ *     Usage: java DonationBenchmark allocation [organizations] [records]
+ *     Declares the needs of 100,000 organizations by default (one to five needs each) against a store of
+ *     1,000,000 records by default and times the first allocation, a full reallocation, donations while
+ *     the new ones are allocated in the background, reading the allocations and a restart.
+ *     {@link AllocationTest} checks the allocations themselves.
+ * </p>
+ * <p>
+ *     Usage: java DonationBenchmark render [lines] [file]
+ *     Lists 1,000,000 records by default to a file (a temporary file, or e.g. /dev/tty for the terminal)
+ *     with one println per line on a stream set up like System.out, and with a {@link ListingRenderer}
+ *     in bulk mode and in paged mode (answering "next" to every page), and prints the lines per second.
+ * </p>
+ * <p>
+ *     Usage: java DonationBenchmark processes [processes] [seconds]
+ *     Starts 1, 2, 4, ... kiosk programs (up to 8 by default) that donate to the same files for 5 seconds
+ *     by default, and prints the donations per second of all of them together. Every kiosk donates as its
+ *     own donor and registers a new user every 100 donations; the first one also rewrites the clothes
+ *     file every second, and all of them compact and close the store when they stop, as the console
+ *     does on exit. The kiosks are those of {@link ProcessTest}, which checks the files they leave behind.
+ * </p>
+ * <p>
+ *     Usage: java DonationBenchmark feed [records]
+ *     Makes 100 donations at a time to a store of 1,000,000 records by default, and after every 100
+ *     times how long a consumer in another store on the same files takes to find them: by reading the
+ *     whole clothes file and skipping the donations it has seen, and with the {@link DonationFeed}.
+ *     Then checks that the feed returned every donation once, resumes from a committed cursor, and
+ *     starts over after a resharding.
+ * </p>
+ * <p>
+ *     Usage: java DonationBenchmark archive [records]
+ *     Makes a store of 1,000,000 records by default donated evenly over the last 365 days and times
+ *     a search of the last 7 days through the day buckets of the {@link DonationIndex} and by scanning
+ *     all clothes, then archives the donations older than 90 days (see {@link DonationArchive}) and
+ *     times the load before and after. Checks that both searches match the same donations, that no
+ *     donation is lost or duplicated by the archival, and that the feed and a restart still work.
+ * </p>
+ * <p>
+ *     Usage: java DonationBenchmark offheap [records ...]
+ *     Loads stores of 1,000,000, 2,000,000 and 4,000,000 records by default with the clothes on the heap
+ *     and outside it (see {@link OffHeapClothes}) and prints for each the heap in use after a full
+ *     garbage collection, the direct memory, the time of a full collection, the collection time while
+ *     loading, and the time of a search that checks the price of every item. Checks that both stores
+ *     return the same search results. The largest dataset needs a heap of a few gigabytes (e.g. -Xmx4g).
+ * </p>
+ */
+public class DonationBenchmark {
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final long MEASURE_NANOS = 2_000_000_000L;
+    static final int USERS = 50_000;
+
+    /**
+     * An operation to benchmark. The returned value is consumed so the JIT can not remove the work.
+     */
+    interface Operation {
+        long run() throws Exception;
+    }
+
+    // Consumes the results of the operations
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("concurrency")) {
+            runConcurrencyBenchmark(args.length > 1 ? Integer.parseInt(args[1].replace("_", "")) : 1_000_000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("durability")) {
+            runDurabilityBenchmark(args.length > 1 ? Integer.parseInt(args[1]) : 64);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("shards")) {
+            runShardBenchmark(args.length > 1 ? Integer.parseInt(args[1].replace("_", "")) : 1_000_000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("startup")) {
+            runStartupBenchmark(args.length > 1 ? Integer.parseInt(args[1].replace("_", "")) : 1_000_000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("allocation")) {
+            runAllocationBenchmark(args.length > 1 ? Integer.parseInt(args[1].replace("_", "")) : 100_000,
+                    args.length > 2 ? Integer.parseInt(args[2].replace("_", "")) : 1_000_000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("render")) {
+            runRenderBenchmark(args.length > 1 ? Integer.parseInt(args[1].replace("_", "")) : 1_000_000,
+                    args.length > 2 ? args[2] : null);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("processes")) {
+            runProcessBenchmark(args.length > 1 ? Integer.parseInt(args[1]) : 8,
+                    args.length > 2 ? Integer.parseInt(args[2]) : 5);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("feed")) {
+            runFeedBenchmark(args.length > 1 ? Integer.parseInt(args[1].replace("_", "")) : 1_000_000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("archive")) {
+            runArchiveBenchmark(args.length > 1 ? Integer.parseInt(args[1].replace("_", "")) : 1_000_000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("offheap")) {
+            int[] records = {1_000_000, 2_000_000, 4_000_000};
+            if (args.length > 1) {
+                records = new int[args.length - 1];
+                for (int i = 1; i < args.length; i++) {
+                    records[i - 1] = Integer.parseInt(args[i].replace("_", ""));
+                }
+            }
+            runOffHeapBenchmark(records);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("binary")) {
+            runBinaryBenchmark(args.length > 1 ? Integer.parseInt(args[1].replace("_", "")) : 1_000_000);
+            return;
+        }
+
+        long[] sizes = {10_000, 1_000_000, 10_000_000};
+        if (args.length > 0) {
+            sizes = new long[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Long.parseLong(args[i].replace("_", ""));
+            }
+        }
+
+        System.out.printf("%-26s %12s %14s %14s%n", "Benchmark", "Records", "ms/op", "ops/s");
+        for (long size : sizes) {
+            runStoreBenchmarks((int) size);
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    private static void runStoreBenchmarks(int records) throws Exception {
+        Random random = new Random(7);
+        Path directory = Files.createTempDirectory("donation-benchmark");
+        String usersFile = directory.resolve("usersList.txt").toString();
+        String clothesFile = directory.resolve("clothesList.txt").toString();
+        String companiesFile = directory.resolve("donationCompaniesList.txt").toString();
+        try {
+            writeSyntheticData(usersFile, clothesFile, records);
+
+            measure("loadClothesData", records, () -> {
+                DonationStore store = new DonationStore(usersFile, clothesFile, companiesFile);
+                store.loadClothesData();
+                return store.getClothes().size();
+            });
+
+            DonationStore store = new DonationStore(usersFile, clothesFile, companiesFile);
+            store.load();
+
+            measure("saveClothesData", records, () -> {
+                store.saveClothesData();
+                return new File(clothesFile).length();
+            });
+            measure("searchByGender", records, () -> store.searchByGender(DonationRecord.Gender.FEMALE).size());
+            measure("searchBySize", records, () -> store.searchBySize(DonationRecord.Size.XL).size());
+            measure("searchByQuality", records, () -> store.searchByQuality(DonationRecord.Quality.HIGH).size());
+
+            DonationQuery firstPage = new DonationQuery().gender(DonationRecord.Gender.FEMALE)
+                    .size(DonationRecord.Size.M).quality(DonationRecord.Quality.HIGH).category(DonationRecord.Category.SHIRT);
+            measure("query first 20", records, () -> store.query(firstPage, 0, 20).size());
+            measure("query page 100", records, () -> store.query(firstPage, 99 * 20, 20).size());
+            measure("query donor+price", records, () -> store.query(new DonationQuery()
+                    .donor("user " + random.nextInt(USERS)).quality(DonationRecord.Quality.HIGH).minPrice(4005), 0, 20).size());
+
+            measure("previousDonations", records, () -> store.previousDonations("user " + random.nextInt(USERS)).size());
+            measure("statistics (High, Female)", records, () -> store.getStatistics()
+                    .count(null, null, DonationRecord.Quality.HIGH, DonationRecord.Gender.FEMALE));
+            measure("statistics (donor worth)", records, () -> store.getStatistics().donorWorthCents("user " + random.nextInt(USERS)));
+            measure("generateRandomPrice", records, () -> store.generateRandomPrice(DonationRecord.Quality.MEDIUM));
+        } finally {
+            deleteQuietly(usersFile, clothesFile, companiesFile, clothesFile + ".compact", clothesFile + ".wal",
+                    clothesFile + ".snapshot");
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static void runConcurrencyBenchmark(int records) throws Exception {
+        Path directory = Files.createTempDirectory("donation-benchmark");
+        String usersFile = directory.resolve("usersList.txt").toString();
+        String clothesFile = directory.resolve("clothesList.txt").toString();
+        String companiesFile = directory.resolve("donationCompaniesList.txt").toString();
+        try {
+            writeSyntheticData(usersFile, clothesFile, records);
+            DonationStore store = new DonationStore(usersFile, clothesFile, companiesFile);
+            store.load();
+
+            int maxThreads = Runtime.getRuntime().availableProcessors() * 2;
+            AtomicLong donations = new AtomicLong();
+            double singleThreaded = 0;
+            System.out.printf("%-10s %14s %10s%n", "Threads", "ops/s", "Speedup");
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                runSessions(store, threads, WARMUP_NANOS, donations);
+                double opsPerSecond = runSessions(store, threads, MEASURE_NANOS, donations);
+                if (threads == 1) {
+                    singleThreaded = opsPerSecond;
+                }
+                System.out.printf("%-10d %14.1f %10.2f%n", threads, opsPerSecond, opsPerSecond / singleThreaded);
+            }
+        } finally {
+            deleteQuietly(usersFile, clothesFile, companiesFile, clothesFile + ".compact", clothesFile + ".wal",
+                    clothesFile + ".snapshot");
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static void runDurabilityBenchmark(int maxThreads) throws Exception {
+        Path directory = Files.createTempDirectory("donation-benchmark");
+        String usersFile = directory.resolve("usersList.txt").toString();
+        String clothesFile = directory.resolve("clothesList.txt").toString();
+        String companiesFile = directory.resolve("donationCompaniesList.txt").toString();
+        try {
+            writeSyntheticData(usersFile, clothesFile, 10_000);
+            DonationStore store = new DonationStore(usersFile, clothesFile, companiesFile);
+            store.load();
+
+            AtomicLong donations = new AtomicLong();
+            System.out.printf("%-10s %14s %12s %16s%n", "Threads", "donations/s", "syncs", "donations/sync");
+            for (int threads = 1; threads <= maxThreads; threads *= 4) {
+                runDonors(store, threads, WARMUP_NANOS, donations);
+                long donationsBefore = donations.get();
+                long syncsBefore = store.getSyncCount();
+                long start = System.nanoTime();
+                runDonors(store, threads, MEASURE_NANOS, donations);
+                double seconds = (System.nanoTime() - start) / 1e9;
+
+                long donated = donations.get() - donationsBefore;
+                long syncs = store.getSyncCount() - syncsBefore;
+                System.out.printf("%-10d %14.1f %12d %16.1f%n", threads, donated / seconds, syncs, (double) donated / Math.max(1, syncs));
+            }
+            store.close();
+        } finally {
+            deleteQuietly(usersFile, clothesFile, companiesFile, clothesFile + ".compact", clothesFile + ".wal",
+                    clothesFile + ".snapshot");
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static void runShardBenchmark(int records) throws Exception {
+        Path directory = Files.createTempDirectory("donation-benchmark");
+        String usersFile = directory.resolve("usersList.txt").toString();
+        String clothesFile = directory.resolve("clothesList.txt").toString();
+        String companiesFile = directory.resolve("donationCompaniesList.txt").toString();
+        DonationStore store = new DonationStore(usersFile, clothesFile, companiesFile);
+        try {
+            writeSyntheticData(usersFile, clothesFile, records);
+            store.load();
+
+            int cores = Runtime.getRuntime().availableProcessors();
+            AtomicLong donations = new AtomicLong();
+            System.out.printf("%-26s %12s %14s %14s%n", "Benchmark", "Records", "ms/op", "ops/s");
+            for (int shards = 1; shards <= Math.max(2, cores); shards *= 2) {
+                store.reshard(shards);
+                measure("searchBySize (" + shards + " shards)", records,
+                        () -> store.searchBySize(DonationRecord.Size.XL).size());
+                measure("getClothes (" + shards + " shards)", records, () -> store.getClothes().size());
+
+                runDonors(store, 4 * cores, WARMUP_NANOS, donations);
+                long donationsBefore = donations.get();
+                long start = System.nanoTime();
+                runDonors(store, 4 * cores, MEASURE_NANOS, donations);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%-26s %12d %14.4f %14.1f%n", "donate (" + shards + " shards)", records,
+                        seconds * 1e3 / (donations.get() - donationsBefore), (donations.get() - donationsBefore) / seconds);
+            }
+        } finally {
+            for (String shardFile : store.getManifest().getShardFiles()) {
+                deleteQuietly(shardFile, shardFile + ".wal", shardFile + ".compact");
+            }
+            deleteQuietly(usersFile, clothesFile, companiesFile, clothesFile + ".wal", clothesFile + ".manifest",
+                    clothesFile + ".snapshot");
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    /**
+     * Donates one item at a time on every thread for the given time.
+     */
+    private static void runDonors(DonationStore store, int threads, long nanos, AtomicLong donations)
+            throws InterruptedException {
+        List<Throwable> failures = new ArrayList<>();
+        List<Thread> donors = new ArrayList<>();
+        long end = System.nanoTime() + nanos;
+        for (int t = 0; t < threads; t++) {
+            DonationSession session = store.openSession("donor " + t);
+            Thread donor = new Thread(() -> {
+                try {
+                    while (System.nanoTime() < end) {
+                        session.donate(DonationRecord.Category.JACKET, DonationRecord.Size.L,
+                                DonationRecord.Quality.MEDIUM, DonationRecord.Gender.UNISEX);
+                        donations.incrementAndGet();
+                    }
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            });
+            donors.add(donor);
+            donor.start();
+        }
+        for (Thread donor : donors) {
+            donor.join();
+        }
+        if (!failures.isEmpty()) {
+            throw new IllegalStateException("A donor failed", failures.get(0));
+        }
+    }
+
+    private static void runProcessBenchmark(int maxProcesses, int seconds) throws Exception {
+        System.out.printf("%-10s %14s %10s %12s %8s%n", "Processes", "donations/s", "Speedup", "New users", "Saves");
+        double singleProcess = 0;
+        for (int processes = 1; processes <= maxProcesses; processes *= 2) {
+            Path directory = Files.createTempDirectory("donation-benchmark");
+            String usersFile = directory.resolve("usersList.txt").toString();
+            String clothesFile = directory.resolve("clothesList.txt").toString();
+            String companiesFile = directory.resolve("donationCompaniesList.txt").toString();
+            try {
+                writeSyntheticData(usersFile, clothesFile, 10_000);
+                ProcessTest.Kiosks kiosks = ProcessTest.runKiosks(directory, processes, seconds);
+                double donationsPerSecond = (double) kiosks.totalDonated() / seconds;
+                if (processes == 1) {
+                    singleProcess = donationsPerSecond;
+                }
+                System.out.printf("%-10d %14.1f %10.2f %12d %8d%n", processes, donationsPerSecond,
+                        donationsPerSecond / singleProcess, kiosks.users, kiosks.saves);
+            } finally {
+                deleteQuietly(usersFile, clothesFile, companiesFile, usersFile + ".compact", clothesFile + ".compact",
+                        clothesFile + ".wal", clothesFile + ".snapshot", clothesFile + ".snapshot.tmp");
+                Files.deleteIfExists(directory);
+            }
+        }
+    }
+
+    private static void runBinaryBenchmark(int records) throws Exception {
+        Path directory = Files.createTempDirectory("donation-benchmark");
+        String usersFile = directory.resolve("usersList.txt").toString();
+        String clothesFile = directory.resolve("clothesList.txt").toString();
+        Path binaryFile = directory.resolve("clothesList.bin");
+        try {
+            writeSyntheticData(usersFile, clothesFile, records);
+            BinaryClothesFile.textToBinary(Paths.get(clothesFile), binaryFile);
+            System.out.printf("Text file: %,d bytes, binary file: %,d bytes (%.1fx smaller)%n",
+                    Files.size(Paths.get(clothesFile)), Files.size(binaryFile),
+                    (double) Files.size(Paths.get(clothesFile)) / Files.size(binaryFile));
+
+            System.out.printf("%-26s %12s %14s %14s%n", "Benchmark", "Records", "ms/op", "ops/s");
+            measure("text full scan", records,
+                    () -> ParallelLoader.load(Paths.get(clothesFile), DonationRecord::parse).getRecords().size());
+            measure("binary full scan", records, () -> {
+                try (BinaryClothesFile binary = BinaryClothesFile.open(binaryFile)) {
+                    return binary.readAll().size();
+                }
+            });
+            try (BinaryClothesFile binary = BinaryClothesFile.open(binaryFile)) {
+                Random random = new Random(11);
+                measure("binary random read", records, () -> binary.get(random.nextInt(records)).getPriceCents());
+            }
+        } finally {
+            deleteQuietly(usersFile, clothesFile, binaryFile.toString());
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static void runAllocationBenchmark(int organizations, int records) throws Exception {
+        Path directory = Files.createTempDirectory("donation-benchmark");
+        String usersFile = directory.resolve("usersList.txt").toString();
+        String clothesFile = directory.resolve("clothesList.txt").toString();
+        String companiesFile = directory.resolve("donationCompaniesList.txt").toString();
+        try {
+            writeSyntheticData(usersFile, clothesFile, records);
+            DonationStore store = new DonationStore(usersFile, clothesFile, companiesFile);
+            store.load();
+            Random random = new Random(5);
+            List<OrganizationNeed> needs = syntheticNeeds(organizations, random);
+
+            long start = System.nanoTime();
+            store.registerNeeds(needs);
+            System.out.printf("Declared %,d needs of %,d organizations and allocated %,d records in %d ms%n",
+                    needs.size(), organizations, records, (System.nanoTime() - start) / 1_000_000);
+            for (int i = 0; i < 3; i++) {
+                start = System.nanoTime();
+                long allocated = store.reallocate();
+                System.out.printf("Reallocated %,d records, %,d allocated, in %d ms%n",
+                        records, allocated, (System.nanoTime() - start) / 1_000_000);
+            }
+
+            // New donations are allocated on the allocator thread, and reading the allocations catches up
+            OperationMetrics allocate = store.getMetrics().get(DonationMetrics.Operation.ALLOCATE);
+            long callsBefore = allocate.getCalls();
+            int batches = 100;
+            start = System.nanoTime();
+            for (int i = 0; i < batches; i++) {
+                store.addDonations(syntheticDonations(1_000, random));
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            start = System.nanoTime();
+            long allocated = store.getAllocations().stream().mapToLong(allocation -> allocation.getItems().size()).sum();
+            System.out.printf("Donated %,d records in batches of 1,000: %,.0f donations/s, %,d allocations of new donations%n",
+                    batches * 1_000, batches * 1_000 / seconds, allocate.getCalls() - callsBefore);
+            System.out.printf("Read the allocations of %,d items in %.1f ms%n", allocated, (System.nanoTime() - start) / 1e6);
+            store.close();
+
+            // A restart allocates all clothes again while it loads
+            start = System.nanoTime();
+            DonationStore restarted = new DonationStore(usersFile, clothesFile, companiesFile);
+            restarted.load();
+            System.out.printf("Restarted from the snapshot and allocated all records in %d ms%n",
+                    (System.nanoTime() - start) / 1_000_000);
+            restarted.close();
+        } finally {
+            deleteQuietly(usersFile, clothesFile, companiesFile, clothesFile + ".compact", clothesFile + ".wal",
+                    clothesFile + ".snapshot");
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    /**
+     * Returns one to five random needs for every organization. A fifth of the needs accept any size
+     * and a third any gender.
+     */
+    static List<OrganizationNeed> syntheticNeeds(int organizations, Random random) {
+        DonationRecord.Category[] categories = DonationRecord.Category.values();
+        DonationRecord.Size[] sizes = DonationRecord.Size.values();
+        DonationRecord.Quality[] qualities = DonationRecord.Quality.values();
+        DonationRecord.Gender[] genders = DonationRecord.Gender.values();
+        List<OrganizationNeed> needs = new ArrayList<>();
+        for (int i = 0; i < organizations; i++) {
+            int count = 1 + random.nextInt(5);
+            for (int j = 0; j < count; j++) {
+                needs.add(new OrganizationNeed("organization " + i, categories[random.nextInt(categories.length)],
+                        random.nextInt(5) == 0 ? null : sizes[random.nextInt(sizes.length)],
+                        qualities[random.nextInt(qualities.length)],
+                        random.nextInt(3) == 0 ? null : genders[random.nextInt(genders.length)],
+                        1 + random.nextInt(20)));
+            }
+        }
+        return needs;
+    }
+
+    /**
+     * Returns random donations by the synthetic users, priced for their quality.
+     */
+    static List<DonationRecord> syntheticDonations(int count, Random random) {
+        DonationRecord.Category[] categories = DonationRecord.Category.values();
+        DonationRecord.Size[] sizes = DonationRecord.Size.values();
+        DonationRecord.Quality[] qualities = DonationRecord.Quality.values();
+        DonationRecord.Gender[] genders = DonationRecord.Gender.values();
+        List<DonationRecord> donations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            DonationRecord.Quality quality = qualities[random.nextInt(qualities.length)];
+            donations.add(new DonationRecord("user " + random.nextInt(USERS), categories[random.nextInt(categories.length)],
+                    sizes[random.nextInt(sizes.length)], quality, genders[random.nextInt(genders.length)],
+                    quality.getBasePriceCents() + random.nextInt(11)));
+        }
+        return donations;
+    }
+
+    private static void runRenderBenchmark(int lines, String target) throws Exception {
+        Path directory = Files.createTempDirectory("donation-benchmark");
+        String usersFile = directory.resolve("usersList.txt").toString();
+        String clothesFile = directory.resolve("clothesList.txt").toString();
+        File listing = (target != null) ? new File(target) : directory.resolve("listing.txt").toFile();
+        try {
+            writeSyntheticData(usersFile, clothesFile, lines);
+            List<DonationRecord> records = ParallelLoader.load(Paths.get(clothesFile), DonationRecord::parse).getRecords();
+            String nextPages = "n\n".repeat(lines / ListingRenderer.DEFAULT_PAGE_SIZE + 1);
+
+            System.out.printf("%-26s %12s %14s %14s%n", "Benchmark", "Lines", "ms/listing", "lines/s");
+            measureLines("println per line", lines, () -> {
+                try (PrintStream out = consoleStream(listing)) {
+                    for (DonationRecord record : records) {
+                        out.println(record);
+                    }
+                }
+            });
+            measureLines("renderer bulk", lines, () -> {
+                try (PrintStream out = consoleStream(listing)) {
+                    new ListingRenderer(out, StandardCharsets.UTF_8, ListingRenderer.Mode.BULK,
+                            ListingRenderer.DEFAULT_PAGE_SIZE).list(records, null);
+                }
+            });
+            measureLines("renderer paged", lines, () -> {
+                try (PrintStream out = consoleStream(listing)) {
+                    new ListingRenderer(out, StandardCharsets.UTF_8, ListingRenderer.Mode.PAGED,
+                            ListingRenderer.DEFAULT_PAGE_SIZE).list(records, new Scanner(nextPages));
+                }
+            });
+        } finally {
+            deleteQuietly(usersFile, clothesFile);
+            if (target == null) {
+                listing.delete();
+            }
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    /**
+     * Returns a stream to the file that is set up the way the JDK sets up System.out:
+     * a small buffer that is flushed on every line.
+     */
+    private static PrintStream consoleStream(File file) throws IOException {
+        return new PrintStream(new BufferedOutputStream(new FileOutputStream(file), 128), true, StandardCharsets.UTF_8);
+    }
+
+    interface Listing {
+        void run() throws Exception;
+    }
+
+    /**
+     * Writes the listing once to warm up, then as often as fits in the measurement period,
+     * and prints the time per listing and the lines per second.
+     */
+    private static void measureLines(String name, int lines, Listing listing) throws Exception {
+        listing.run();
+        long listings = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            listing.run();
+            listings++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < MEASURE_NANOS);
+
+        double nanosPerListing = (double) elapsed / listings;
+        System.out.printf("%-26s %12d %14.1f %14.0f%n", name, lines, nanosPerListing / 1e6, lines * 1e9 / nanosPerListing);
+    }
+
+    private static void runStartupBenchmark(int records) throws Exception {
+        Path directory = Files.createTempDirectory("donation-benchmark");
+        String usersFile = directory.resolve("usersList.txt").toString();
+        String clothesFile = directory.resolve("clothesList.txt").toString();
+        String companiesFile = directory.resolve("donationCompaniesList.txt").toString();
+        int appended = 1_000;
+        try {
+            writeSyntheticData(usersFile, clothesFile, records);
+            System.out.printf("%-26s %12s %14s %14s%n", "Benchmark", "Records", "ms/op", "ops/s");
+            measure("load (files only)", records, () -> {
+                DonationStore store = new DonationStore(usersFile, clothesFile, companiesFile);
+                store.load();
+                return store.getClothes().size();
+            });
+
+            DonationStore snapshotted = new DonationStore(usersFile, clothesFile, companiesFile);
+            snapshotted.load();
+            snapshotted.close();
+            appendSyntheticClothes(clothesFile, appended, new Random(43));
+            measure("load (snapshot + " + appended + ")", records + appended, () -> {
+                DonationStore store = new DonationStore(usersFile, clothesFile, companiesFile);
+                store.load();
+                return store.getClothes().size();
+            });
+            // The snapshot holds the users as well as the clothes
+            System.out.printf("Snapshot: %,d bytes, users and clothes files: %,d bytes%n",
+                    Files.size(Paths.get(clothesFile + ".snapshot")),
+                    Files.size(Paths.get(usersFile)) + Files.size(Paths.get(clothesFile)));
+
+            DonationStore restored = new DonationStore(usersFile, clothesFile, companiesFile);
+            restored.load();
+            Files.delete(Paths.get(clothesFile + ".snapshot"));
+            DonationStore reloaded = new DonationStore(usersFile, clothesFile, companiesFile);
+            reloaded.load();
+            boolean same = restored.getClothes().toString().equals(reloaded.getClothes().toString())
+                    && restored.getUsers().equals(reloaded.getUsers())
+                    && restored.previousDonations("user 7").toString().equals(reloaded.previousDonations("user 7").toString())
+                    && restored.getStatistics().worthCents(null, null, DonationRecord.Quality.HIGH, null)
+                            == reloaded.getStatistics().worthCents(null, null, DonationRecord.Quality.HIGH, null)
+                    && restored.getStatistics().donorCount("user 7") == reloaded.getStatistics().donorCount("user 7")
+                    && restored.search(DonationRecord.Gender.FEMALE, DonationRecord.Size.S, null).toString()
+                            .equals(reloaded.search(DonationRecord.Gender.FEMALE, DonationRecord.Size.S, null).toString());
+            System.out.println("Restored store matches the files: " + (same ? "ok" : "FAILED"));
+        } finally {
+            deleteQuietly(usersFile, clothesFile, companiesFile, clothesFile + ".compact", clothesFile + ".wal",
+                    clothesFile + ".snapshot");
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static void runFeedBenchmark(int records) throws Exception {
+        Path directory = Files.createTempDirectory("donation-benchmark");
+        String usersFile = directory.resolve("usersList.txt").toString();
+        String clothesFile = directory.resolve("clothesList.txt").toString();
+        String companiesFile = directory.resolve("donationCompaniesList.txt").toString();
+        int rounds = 20;
+        int perRound = 100;
+        DonationStore store = new DonationStore(usersFile, clothesFile, companiesFile);
+        try {
+            writeSyntheticData(usersFile, clothesFile, records);
+            store.load();
+            // The consumer is another store on the same files, as in another program
+            DonationStore follower = new DonationStore(usersFile, clothesFile, companiesFile);
+            follower.load();
+            DonationFeed feed = follower.getFeed();
+            DonationFeed.Cursor cursor = feed.end();
+
+            long seenByRereading = records;
+            long rereadNanos = 0;
+            long feedNanos = 0;
+            List<DonationRecord> donated = new ArrayList<>();
+            List<DonationRecord> fed = new ArrayList<>();
+            for (int round = 0; round < rounds; round++) {
+                for (int i = 0; i < perRound; i++) {
+                    donated.add(store.donate("user " + (i % 50), DonationRecord.Category.SHIRT, DonationRecord.Size.M,
+                            DonationRecord.Quality.HIGH, DonationRecord.Gender.FEMALE));
+                }
+
+                long start = System.nanoTime();
+                long found = 0;
+                try (Stream<String> lines = Files.lines(Paths.get(clothesFile))) {
+                    long position = 0;
+                    for (String line : (Iterable<String>) lines::iterator) {
+                        DonationRecord record = DonationRecord.parse(line);
+                        if (record != null && position++ >= seenByRereading) {
+                            found++;
+                        }
+                    }
+                }
+                seenByRereading += found;
+                rereadNanos += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                DonationFeed.Batch batch = feed.read(cursor, Integer.MAX_VALUE);
+                feedNanos += System.nanoTime() - start;
+                fed.addAll(batch.getDonations());
+                cursor = batch.getNext();
+                sink += found;
+            }
+
+            System.out.printf("%-34s %14s %16s%n", "Poll after " + perRound + " donations", "ms/poll", "records parsed");
+            System.out.printf("%-34s %14.3f %16d%n", "Reread the file and skip", rereadNanos / 1e6 / rounds,
+                    records + (long) rounds * perRound);
+            System.out.printf("%-34s %14.3f %16d%n", "DonationFeed.read", feedNanos / 1e6 / rounds, perRound);
+            boolean exact = fed.toString().equals(donated.toString());
+            System.out.println("Feed returned every donation once: " + (exact ? "ok" : "FAILED"));
+
+            feed.commit("benchmark", cursor);
+            store.donate("user 1", DonationRecord.Category.JACKET, DonationRecord.Size.L,
+                    DonationRecord.Quality.LOW, DonationRecord.Gender.MALE);
+            DonationStore restarted = new DonationStore(usersFile, clothesFile, companiesFile);
+            restarted.load();
+            DonationFeed.Batch resumed = restarted.getFeed().read(restarted.getFeed().committed("benchmark"), 1000);
+            boolean resumes = resumed.getDonations().size() == 1 && !resumed.isRestarted();
+            System.out.println("Resumed from the committed cursor " + cursor + ": " + (resumes ? "ok" : "FAILED"));
+
+            store.reshard(2);
+            DonationFeed.Batch afterReshard = store.getFeed().read(cursor, Integer.MAX_VALUE);
+            boolean startsOver = afterReshard.isRestarted()
+                    && afterReshard.getDonations().size() == records + rounds * perRound + 1
+                    && afterReshard.getNext().getCount() == afterReshard.getDonations().size();
+            System.out.println("Started over after resharding to " + afterReshard.getNext() + ": "
+                    + (startsOver ? "ok" : "FAILED"));
+            store.close();
+        } finally {
+            for (String shardFile : store.getManifest().getShardFiles()) {
+                deleteQuietly(shardFile, shardFile + ".wal", shardFile + ".compact");
+            }
+            deleteQuietly(usersFile, clothesFile, companiesFile, clothesFile + ".wal", clothesFile + ".manifest",
+                    clothesFile + ".snapshot", clothesFile + DonationFeed.SUFFIX);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static void runArchiveBenchmark(int records) throws Exception {
+        Path directory = Files.createTempDirectory("donation-benchmark");
+        String usersFile = directory.resolve("usersList.txt").toString();
+        String clothesFile = directory.resolve("clothesList.txt").toString();
+        String companiesFile = directory.resolve("donationCompaniesList.txt").toString();
+        long now = DonationRecord.now();
+        long oldest = now - 365 * DonationRecord.SECONDS_PER_DAY;
+        try {
+            writeSyntheticData(usersFile, clothesFile, 0);
+            appendSyntheticClothes(clothesFile, records, new Random(42), oldest, now);
+            DonationStore store = new DonationStore(usersFile, clothesFile, companiesFile);
+            store.load();
+
+            DonationQuery lastWeek = new DonationQuery().gender(DonationRecord.Gender.FEMALE)
+                    .donatedFrom(now - 7 * DonationRecord.SECONDS_PER_DAY);
+            System.out.printf("%-26s %12s %14s %14s%n", "Benchmark", "Records", "ms/op", "ops/s");
+            measure("last 7 days (day index)", records, () -> store.query(lastWeek).count());
+            measure("last 7 days (full scan)", records, () -> store.getClothes().stream().filter(lastWeek::matches).count());
+            measure("load (365 days)", records, () -> {
+                DonationStore loaded = new DonationStore(usersFile, clothesFile, companiesFile);
+                loaded.load();
+                return loaded.getClothes().size();
+            });
+            boolean same = store.query(lastWeek).collect(Collectors.toList()).toString().equals(
+                    store.getClothes().stream().filter(lastWeek::matches).collect(Collectors.toList()).toString());
+            System.out.println("Day index matches the full scan: " + (same ? "ok" : "FAILED"));
+
+            DonationFeed.Cursor beforeArchival = store.getFeed().end();
+            long start = System.nanoTime();
+            int archived = store.archive(now - 90 * DonationRecord.SECONDS_PER_DAY);
+            System.out.printf("Archived %,d donations older than 90 days in %.1f ms, %,d left%n", archived,
+                    (System.nanoTime() - start) / 1e6, store.getClothes().size());
+            measure("load (90 days)", records - archived, () -> {
+                DonationStore loaded = new DonationStore(usersFile, clothesFile, companiesFile);
+                loaded.load();
+                return loaded.getClothes().size();
+            });
+
+            DonationQuery all = new DonationQuery();
+            long inArchive = store.queryArchive(all, Integer.MAX_VALUE).size();
+            boolean complete = inArchive == archived && store.getClothes().size() + inArchive == records
+                    && store.query(lastWeek).count() == store.getClothes().stream().filter(lastWeek::matches).count();
+            System.out.println("Every donation is either live or archived once: " + (complete ? "ok" : "FAILED"));
+
+            store.donate("user 1", DonationRecord.Category.JACKET, DonationRecord.Size.L,
+                    DonationRecord.Quality.LOW, DonationRecord.Gender.MALE);
+            DonationFeed.Batch fed = store.getFeed().read(beforeArchival, 1000);
+            DonationFeed.Batch fromStart = store.getFeed().read(store.getFeed().start(), Integer.MAX_VALUE);
+            boolean feedKept = fed.getDonations().size() == 1 && !fed.isRestarted()
+                    && fromStart.getDonations().size() == store.getClothes().size()
+                    && fromStart.getNext().getCount() == records + 1;
+            System.out.println("Feed cursors still point at the same donations: " + (feedKept ? "ok" : "FAILED"));
+
+            store.close();
+            DonationStore restored = new DonationStore(usersFile, clothesFile, companiesFile);
+            restored.load();
+            Files.delete(Paths.get(clothesFile + ".snapshot"));
+            DonationStore reloaded = new DonationStore(usersFile, clothesFile, companiesFile);
+            reloaded.load();
+            boolean restarts = restored.getClothes().toString().equals(store.getClothes().toString())
+                    && reloaded.getClothes().toString().equals(store.getClothes().toString())
+                    && reloaded.getFeed().end().toString().equals(store.getFeed().end().toString());
+            System.out.println("Snapshot and files load the same clothes after archival: " + (restarts ? "ok" : "FAILED"));
+        } finally {
+            deleteQuietly(usersFile, clothesFile, companiesFile, clothesFile + ".compact", clothesFile + ".wal",
+                    clothesFile + ".snapshot", clothesFile + DonationArchive.SUFFIX);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static void runOffHeapBenchmark(int[] sizes) throws Exception {
+        System.out.printf("%-10s %12s %10s %12s %12s %12s %12s%n", "Clothes", "Records", "heap MB",
+                "direct MB", "full GC ms", "load GC ms", "scan ms");
+        for (int records : sizes) {
+            Path directory = Files.createTempDirectory("donation-benchmark");
+            String usersFile = directory.resolve("usersList.txt").toString();
+            String clothesFile = directory.resolve("clothesList.txt").toString();
+            String companiesFile = directory.resolve("donationCompaniesList.txt").toString();
+            try {
+                writeSyntheticData(usersFile, clothesFile, records);
+                DonationQuery pricey = new DonationQuery().quality(DonationRecord.Quality.HIGH).minPrice(4008);
+                String[] results = new String[2];
+                for (int offHeap = 0; offHeap < 2; offHeap++) {
+                    System.setProperty("cds.offHeap", Boolean.toString(offHeap == 1));
+                    fullGc();
+                    long heapBefore = usedHeap();
+                    long directBefore = directMemory();
+                    long gcBefore = gcMillis();
+                    DonationStore store = new DonationStore(usersFile, clothesFile, companiesFile);
+                    store.load();
+                    long loadGc = gcMillis() - gcBefore;
+
+                    long start = System.nanoTime();
+                    System.gc();
+                    double fullGcMillis = (System.nanoTime() - start) / 1e6;
+                    fullGc();
+                    long heap = usedHeap() - heapBefore;
+                    long direct = directMemory() - directBefore;
+
+                    long scanned = 0;
+                    start = System.nanoTime();
+                    int scans = 0;
+                    do {
+                        scanned += store.query(pricey).count();
+                        scans++;
+                    } while (System.nanoTime() - start < MEASURE_NANOS);
+                    double scanMillis = (System.nanoTime() - start) / 1e6 / scans;
+                    sink += scanned;
+
+                    results[offHeap] = store.query(pricey, 1000, 20) + " " + store.previousDonations("user 7")
+                            + " " + store.getStatistics().worthCents(null, null, DonationRecord.Quality.HIGH, null);
+                    System.out.printf("%-10s %12d %10.1f %12.1f %12.1f %12d %12.2f%n", (offHeap == 1) ? "off heap" : "heap",
+                            records, heap / 1e6, direct / 1e6, fullGcMillis, loadGc, scanMillis);
+                    if (store.getClothes().size() != records) {
+                        throw new IllegalStateException("Loaded " + store.getClothes().size() + " of " + records + " records");
+                    }
+                }
+                System.out.println("Same results on and off the heap: " + (results[0].equals(results[1]) ? "ok" : "FAILED"));
+            } finally {
+                System.clearProperty("cds.offHeap");
+                deleteQuietly(usersFile, clothesFile, companiesFile, clothesFile + ".wal");
+                Files.deleteIfExists(directory);
+            }
+        }
+    }
+
+    /**
+     * Runs two full garbage collections, so objects with finalization or cleaners are collected as well,
+     * and gives the cleaners of direct buffers time to free their memory.
+     */
+    private static void fullGc() throws InterruptedException {
+        System.gc();
+        System.gc();
+        Thread.sleep(100);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long directMemory() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the time spent in garbage collection since the start of the program.
+     */
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+
+    /**
+     * Runs one kiosk session per thread for the given time.
+     *
+     * @return the operations per second of all threads together
+     */
+    private static double runSessions(DonationStore store, int threads, long nanos, AtomicLong donations)
+            throws InterruptedException {
+        LongAdder operations = new LongAdder();
+        List<Throwable> failures = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        long end = System.nanoTime() + nanos;
+
+        for (int t = 0; t < threads; t++) {
+            DonationSession session = store.openSession("kiosk " + t);
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                DonationRecord.Gender[] genders = DonationRecord.Gender.values();
+                DonationRecord.Size[] sizes = DonationRecord.Size.values();
+                DonationRecord.Quality[] qualities = DonationRecord.Quality.values();
+                try {
+                    while (System.nanoTime() < end) {
+                        int choice = random.nextInt(100);
+                        if (choice < 5) {
+                            session.donate(DonationRecord.Category.SHIRT, sizes[random.nextInt(sizes.length)],
+                                    qualities[random.nextInt(qualities.length)], genders[random.nextInt(genders.length)]);
+                            donations.incrementAndGet();
+                        } else if (choice < 50) {
+                            sink += store.previousDonations("user " + random.nextInt(USERS)).size();
+                        } else {
+                            sink += store.search(genders[random.nextInt(genders.length)], sizes[random.nextInt(sizes.length)],
+                                    qualities[random.nextInt(qualities.length)]).size();
+                        }
+                        operations.increment();
+                    }
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (!failures.isEmpty()) {
+            throw new IllegalStateException("A session failed", failures.get(0));
+        }
+        return operations.sum() / (nanos / 1e9);
+    }
+
+    /**
+     * Runs the operation for the warm-up period, then times it for the measurement period.
+     */
+    static void measure(String name, long records, Operation operation) throws Exception {
+        long end = System.nanoTime() + WARMUP_NANOS;
+        do {
+            sink += operation.run();
+        } while (System.nanoTime() < end);
+
+        long operations = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            sink += operation.run();
+            operations++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < MEASURE_NANOS);
+
+        double nanosPerOperation = (double) elapsed / operations;
+        System.out.printf("%-26s %12d %14.4f %14.1f%n", name, records, nanosPerOperation / 1e6, 1e9 / nanosPerOperation);
+    }
+
+    /**
+     * Writes a users file and a clothes file with random donations by USERS different users.
+     */
+    static void writeSyntheticData(String usersFile, String clothesFile, int records) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(usersFile))) {
+            for (int i = 0; i < USERS; i++) {
+                writer.write("user " + i);
+                writer.newLine();
+            }
+        }
+        Files.deleteIfExists(Paths.get(clothesFile));
+        appendSyntheticClothes(clothesFile, records, new Random(42));
+    }
+
+    /**
+     * Appends random donations by USERS different users, made now, to the clothes file.
+     */
+    static void appendSyntheticClothes(String clothesFile, int records, Random random) throws IOException {
+        long now = DonationRecord.now();
+        appendSyntheticClothes(clothesFile, records, random, now, now);
+    }
+
+    /**
+     * Appends random donations by USERS different users to the clothes file, made evenly from the
+     * first time to before the end time, in seconds since 1970.
+     */
+    static void appendSyntheticClothes(String clothesFile, int records, Random random, long first, long end)
+            throws IOException {
+        DonationRecord.Category[] categories = DonationRecord.Category.values();
+        DonationRecord.Size[] sizes = DonationRecord.Size.values();
+        DonationRecord.Quality[] qualities = DonationRecord.Quality.values();
+        DonationRecord.Gender[] genders = DonationRecord.Gender.values();
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(clothesFile, true), 1 << 16)) {
+            for (int i = 0; i < records; i++) {
+                DonationRecord.Quality quality = qualities[random.nextInt(qualities.length)];
+                DonationRecord record = new DonationRecord("user " + random.nextInt(USERS),
+                        categories[random.nextInt(categories.length)], sizes[random.nextInt(sizes.length)],
+                        quality, genders[random.nextInt(genders.length)],
+                        quality.getBasePriceCents() + random.nextInt(11), first + (end - first) * i / records);
+                writer.write(record.toString());
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Deletes the files and their version files (see {@link SharedFileLock}), ignoring files that do not exist.
+     */
+    static void deleteQuietly(String... fileNames) {
+        for (String fileName : fileNames) {
+            new File(fileName).delete();
+            new File(fileName + SharedFileLock.SUFFIX).delete();
+        }
+    }
+}
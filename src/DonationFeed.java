@@ -0,0 +1,436 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * This class is the change feed of a {@link DonationStore}: it hands out the donations made since
+ * a {@link Cursor}, so programs that follow the donations, e.g. reporting or pickup scheduling,
+ * read only the new ones instead of the whole clothes file on every poll.
+ * <p>
+ *     The clothes of a shard (see {@link ClothesShard}) only grow, and a full save or compaction
+ *     writes them back in the same order, so the position of a donation in its shard never changes,
+ *     in this program, in other programs using the same files, or after a restart. Positions count
+ *     the donations archived from the shard (see {@link DonationArchive}) as well; a cursor before
+ *     them skips them. A cursor is the
+ *     generation of the {@link ShardManifest} and the number of donations read from every shard,
+ *     e.g. "g0:1200" or "g2:310,295,301,288". All donations of a user are in one shard, so they are
+ *     read in the order they were made; donations of different shards are read shard by shard.
+ *     A resharding moves the donations to new shards, so a cursor of an older generation is read
+ *     again from the start of the new shards, and the batch says so (see {@link Batch#isRestarted()}).
+ * </p>
+ * <p>
+ *     A consumer keeps its cursor itself, or commits it under its name to a file next to the clothes
+ *     file (clothesList.txt.cursors, one line per commit, the last line of a name wins), so it
+ *     resumes where it left off after a restart. {@link #await} waits until there are new donations:
+ *     donations made through this store wake it at once, and donations of other programs are found
+ *     by reading the new lines of the shard files every {@link #POLL_MILLIS} milliseconds.
+ *     {@link DonationHttpServer} serves the feed to other programs at /feed.
+ * </p>
+ * <p>
+ *     The feed shows a donation as soon as it is in the clothes, like the searches do, which may be
+ *     just before it is on disk. All methods may be called from any thread.
+ * </p>
+ * <p>
+ *     Usage: java DonationFeed consumer [follow]
+ *     prints the donations of clothesList.txt since the cursor committed by the consumer and commits
+ *     the new cursor, or keeps printing new donations until stopped.
+ * </p>
+ */
+public class DonationFeed {
+    static final String SUFFIX = ".cursors";
+    static final long POLL_MILLIS = 200;
+    // The cursors file is rewritten once it has this many times more lines than consumers
+    private static final int COMPACT_FACTOR = 8;
+
+    private final DonationStore store;
+    private final AppendOnlyLog cursorsLog;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition newDonations = lock.newCondition();
+    // Counts the calls of published(), guarded by lock
+    private long published;
+    // Consumer -> last committed cursor, and the number of lines they were read from, guarded by lock
+    private final Map<String, Cursor> committed = new HashMap<>();
+    private int cursorLines;
+
+    /**
+     * The position of a consumer in the feed: the manifest generation and the number of donations read from every shard.
+     */
+    public static final class Cursor {
+        private final int generation;
+        private final int[] positions;
+
+        private Cursor(int generation, int[] positions) {
+            this.generation = generation;
+            this.positions = positions;
+        }
+
+        /**
+         * Returns the cursor before the first donation of every shard of the manifest.
+         */
+        static Cursor start(ShardManifest manifest) {
+            return new Cursor(manifest.getGeneration(), new int[manifest.size()]);
+        }
+
+        /**
+         * Parses a cursor written by {@link #toString()}.
+         *
+         * @throws IllegalArgumentException if the text is not a cursor
+         */
+        public static Cursor parse(String text) {
+            String trimmed = text.trim();
+            int colon = trimmed.indexOf(':');
+            try {
+                if (!trimmed.startsWith("g") || colon < 0) {
+                    throw new NumberFormatException();
+                }
+                int generation = Integer.parseInt(trimmed.substring(1, colon));
+                String[] parts = trimmed.substring(colon + 1).split(",");
+                int[] positions = new int[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    positions[i] = Integer.parseInt(parts[i]);
+                    if (positions[i] < 0) {
+                        throw new NumberFormatException();
+                    }
+                }
+                return new Cursor(generation, positions);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid cursor: " + text);
+            }
+        }
+
+        public int getGeneration() {
+            return generation;
+        }
+
+        /**
+         * Returns the number of donations read from the shard with the given number.
+         */
+        public int getPosition(int shard) {
+            return positions[shard];
+        }
+
+        /**
+         * Returns the number of donations read from all shards together.
+         */
+        public long getCount() {
+            long count = 0;
+            for (int position : positions) {
+                count += position;
+            }
+            return count;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Cursor)) {
+                return false;
+            }
+            Cursor cursor = (Cursor) other;
+            return generation == cursor.generation && Arrays.equals(positions, cursor.positions);
+        }
+
+        @Override
+        public int hashCode() {
+            return generation * 31 + Arrays.hashCode(positions);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder().append('g').append(generation).append(':');
+            for (int i = 0; i < positions.length; i++) {
+                if (i > 0) {
+                    text.append(',');
+                }
+                text.append(positions[i]);
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * The donations read from the feed and the cursor after them.
+     */
+    public static final class Batch {
+        private final List<DonationRecord> donations;
+        private final Cursor next;
+        private final boolean restarted;
+
+        private Batch(List<DonationRecord> donations, Cursor next, boolean restarted) {
+            this.donations = donations;
+            this.next = next;
+            this.restarted = restarted;
+        }
+
+        public List<DonationRecord> getDonations() {
+            return donations;
+        }
+
+        /**
+         * Returns the cursor to read the next batch from.
+         */
+        public Cursor getNext() {
+            return next;
+        }
+
+        /**
+         * Returns true if the cursor was of an older resharding, so the donations were read again
+         * from the start of the new shards and include donations the consumer has seen before.
+         */
+        public boolean isRestarted() {
+            return restarted;
+        }
+
+        public boolean isEmpty() {
+            return donations.isEmpty();
+        }
+    }
+
+    DonationFeed(DonationStore store, String clothesFile) {
+        this.store = store;
+        this.cursorsLog = new AppendOnlyLog(clothesFile + SUFFIX);
+    }
+
+    /**
+     * Returns the cursor before the first donation.
+     */
+    public Cursor start() throws IOException {
+        return Cursor.start(store.getManifest());
+    }
+
+    /**
+     * Returns the cursor after the last donation, to follow only the donations made from now on.
+     */
+    public Cursor end() throws IOException {
+        store.loadClothesData();
+        DonationStore.ShardSet current = store.shards();
+        int[] positions = new int[current.shards.size()];
+        for (int i = 0; i < positions.length; i++) {
+            ClothesShard.Live live = current.shards.get(i).getLive();
+            positions[i] = live.archived + live.clothes.size();
+        }
+        return new Cursor(current.manifest.getGeneration(), positions);
+    }
+
+    /**
+     * Returns at most limit donations made after the cursor, without waiting.
+     * If there are more, every shard gets an equal share of the limit, so a busy shard does not hold up the others.
+     */
+    public Batch read(Cursor from, int limit) throws IOException {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Invalid limit: " + limit);
+        }
+        store.loadClothesData();
+        DonationStore.ShardSet current = store.shards();
+        boolean restarted = from.generation != current.manifest.getGeneration();
+        if (!restarted && from.positions.length != current.shards.size()) {
+            throw new IllegalArgumentException("The cursor " + from + " does not fit the " + current.manifest);
+        }
+        int[] positions = restarted ? new int[current.shards.size()] : from.positions.clone();
+
+        List<ClothesShard.Live> clothes = new ArrayList<>(positions.length);
+        int[] available = new int[positions.length];
+        int left = 0;
+        for (int i = 0; i < positions.length; i++) {
+            ClothesShard.Live live = current.shards.get(i).getLive();
+            clothes.add(live);
+            // Archived donations are no longer in the feed
+            positions[i] = Math.max(positions[i], live.archived);
+            available[i] = Math.max(0, live.archived + live.clothes.size() - positions[i]);
+            if (available[i] > 0) {
+                left++;
+            }
+        }
+        // Every shard with new donations takes its share of what is left of the limit
+        int[] taken = new int[positions.length];
+        int remaining = limit;
+        for (int i = 0; i < positions.length && remaining > 0; i++) {
+            if (available[i] > 0) {
+                taken[i] = Math.min(available[i], Math.max(1, remaining / left));
+                remaining -= taken[i];
+                left--;
+            }
+        }
+        // Shards with more donations than their share take what the others left
+        for (int i = 0; i < positions.length && remaining > 0; i++) {
+            int more = Math.min(available[i] - taken[i], remaining);
+            taken[i] += more;
+            remaining -= more;
+        }
+
+        List<DonationRecord> donations = new ArrayList<>(limit - remaining);
+        for (int i = 0; i < positions.length; i++) {
+            // A cursor past the end of a shard, e.g. from before a crash lost its last donations, waits for new ones
+            if (taken[i] > 0) {
+                int first = positions[i] - clothes.get(i).archived;
+                donations.addAll(clothes.get(i).clothes.subList(first, first + taken[i]));
+                positions[i] += taken[i];
+            }
+        }
+        return new Batch(Collections.unmodifiableList(donations),
+                new Cursor(current.manifest.getGeneration(), positions), restarted);
+    }
+
+    /**
+     * Returns at most limit donations made after the cursor, waiting up to the timeout until there are any.
+     *
+     * @return the donations, which are empty if none were made before the timeout
+     */
+    public Batch await(Cursor from, int limit, long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            long seen;
+            lock.lock();
+            try {
+                seen = published;
+            } finally {
+                lock.unlock();
+            }
+            Batch batch = read(from, limit);
+            long left = deadline - System.nanoTime();
+            if (!batch.isEmpty() || batch.isRestarted() || left <= 0) {
+                return batch;
+            }
+            lock.lock();
+            try {
+                if (published == seen) {
+                    newDonations.awaitNanos(Math.min(left, TimeUnit.MILLISECONDS.toNanos(POLL_MILLIS)));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Wakes the consumers waiting in {@link #await}. Called by the store after donations were made or the clothes were resharded.
+     */
+    void published() {
+        lock.lock();
+        try {
+            published++;
+            newDonations.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the cursor last committed by the consumer, by any program, or the start if it never committed one.
+     */
+    public Cursor committed(String consumer) throws IOException {
+        String name = consumerName(consumer);
+        lock.lock();
+        try {
+            if (!cursorsLog.isUpToDate()) {
+                readCursors();
+            }
+            Cursor cursor = committed.get(name);
+            return (cursor != null) ? cursor : start();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records the cursor of the consumer in the cursors file and forces it to disk,
+     * so the consumer resumes from it after a restart.
+     */
+    public void commit(String consumer, Cursor cursor) throws IOException {
+        String name = consumerName(consumer);
+        lock.lock();
+        try {
+            cursorsLog.lock();
+            try {
+                if (!cursorsLog.isUpToDate()) {
+                    readCursors();
+                }
+                cursorsLog.append(name + " " + cursor);
+                cursorsLog.force();
+                committed.put(name, cursor);
+                cursorLines++;
+                if (cursorLines > COMPACT_FACTOR * committed.size()) {
+                    List<String> lines = new ArrayList<>(committed.size());
+                    for (Map.Entry<String, Cursor> entry : committed.entrySet()) {
+                        lines.add(entry.getKey() + " " + entry.getValue());
+                    }
+                    cursorsLog.rewrite(lines);
+                    cursorsLog.force();
+                    cursorLines = lines.size();
+                }
+            } finally {
+                cursorsLog.unlock();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static String consumerName(String consumer) {
+        String name = (consumer == null) ? "" : consumer.trim();
+        if (name.isEmpty() || name.chars().anyMatch(Character::isWhitespace)) {
+            throw new IllegalArgumentException("Invalid consumer name: " + consumer);
+        }
+        return name;
+    }
+
+    /**
+     * Reads the cursors committed since the file was last read, or all of them if it was rewritten.
+     * The caller holds the lock.
+     */
+    private void readCursors() throws IOException {
+        List<String> lines = cursorsLog.readAppended();
+        if (lines == null) {
+            committed.clear();
+            cursorLines = 0;
+            lines = cursorsLog.readLive(Function.identity());
+        }
+        for (String line : lines) {
+            int space = line.lastIndexOf(' ');
+            if (space > 0) {
+                try {
+                    committed.put(line.substring(0, space).trim(), Cursor.parse(line.substring(space + 1)));
+                    cursorLines++;
+                } catch (IllegalArgumentException e) {
+                    // A line cut short by a crash; the earlier cursor of the consumer still holds
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1 || (args.length > 1 && !args[1].equals("follow"))) {
+            System.out.println("Usage: java DonationFeed consumer [follow]");
+            return;
+        }
+        String consumer = args[0];
+        boolean follow = args.length > 1;
+        DonationStore store = new DonationStore("usersList.txt", "clothesList.txt", "donationCompaniesList.txt");
+        store.load();
+        DonationFeed feed = store.getFeed();
+        ListingRenderer renderer = ListingRenderer.forConsole(ListingRenderer.Mode.BULK);
+        Cursor cursor = feed.committed(consumer);
+        do {
+            Batch batch = follow ? feed.await(cursor, 1000, 1, TimeUnit.MINUTES) : feed.read(cursor, Integer.MAX_VALUE);
+            if (batch.isRestarted()) {
+                renderer.line("The clothes were resharded; reading all donations again.");
+            }
+            for (DonationRecord donation : batch.getDonations()) {
+                renderer.line(donation);
+            }
+            renderer.flush();
+            if (!batch.getNext().equals(cursor)) {
+                cursor = batch.getNext();
+                feed.commit(consumer, cursor);
+            }
+        } while (follow);
+        store.close();
+    }
+}
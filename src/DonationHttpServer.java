@@ -0,0 +1,490 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class serves the Clothes Donation System over HTTP.
+ * <p>
+ *     All requests share one {@link DonationStore}, so every kiosk or client sees the same
+ *     inventory without reading the files itself. The server is the JDK's built-in
+ *     {@link HttpServer}. Every request runs on its own virtual thread when the JVM supports
+ *     them (Java 21 and later); on older JVMs a cached thread pool is used instead.
+ * </p>
+ * <p>
+ *     Endpoints (parameters are passed in the query string or as a form body, responses are JSON):
+ *     <ul>
+ *         <li>POST /donations?username=&amp;category=&amp;size=&amp;quality=&amp;gender= donates an item.
+ *             Size, quality and gender accept the menu keys (e.g. M, H, F) or the full names.</li>
+ *         <li>GET /users?username= tells if the user exists and lists their previous donations.</li>
+ *         <li>POST /users?username= creates the user if it does not exist yet.</li>
+ *         <li>GET /search?gender=&amp;size=&amp;quality=&amp;category=&amp;donor=&amp;minPrice=&amp;maxPrice=&amp;from=&amp;to=&amp;offset=&amp;limit=
+ *             lists the items matching all given values, donated from the date or time from and before
+ *             the date or time to (e.g. 2026-10-01 or 2026-10-01T09:30:00Z), skipping the first offset
+ *             matches and returning at most limit of them (see {@link DonationQuery}).</li>
+ *         <li>GET /clothes lists all donated clothes.</li>
+ *         <li>GET /statistics?category=&amp;size=&amp;quality=&amp;gender= returns the number and total worth
+ *             of the items matching all given values, or with donor= those of the donations of one user.</li>
+ *         <li>GET /feed?cursor=&amp;consumer=&amp;limit=&amp;wait= returns at most limit (default 1000) donations made
+ *             after the cursor, or after the cursor last committed by the consumer, or all of them, waiting up to
+ *             wait milliseconds until there are any, with the cursor to continue from (see {@link DonationFeed}).</li>
+ *         <li>POST /feed?consumer=&amp;cursor= commits the cursor of the consumer.</li>
+ *     </ul>
+ * </p>
+ * <p>
+ *     Usage: java DonationHttpServer [port]  (the default port is 8080)
+ *     The metrics of the store are published over JMX, and printed periodically when run with
+ *     -Dcds.metricsDump=seconds (see {@link DonationMetrics}).
+ * </p>
+ */
+public class DonationHttpServer {
+    private final DonationStore store;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public DonationHttpServer(DonationStore store, int port) throws IOException {
+        this.store = store;
+        this.server = HttpServer.create(new InetSocketAddress(port), 4096);
+        this.executor = newRequestExecutor();
+
+        server.setExecutor(executor);
+        server.createContext("/donations", exchange -> handle(exchange, "POST", this::donate));
+        server.createContext("/users", exchange -> handle(exchange, null, this::users));
+        server.createContext("/search", exchange -> handle(exchange, "GET", this::search));
+        server.createContext("/clothes", exchange -> handle(exchange, "GET", this::clothes));
+        server.createContext("/statistics", exchange -> handle(exchange, "GET", this::statistics));
+        server.createContext("/feed", exchange -> handle(exchange, null, this::feed));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns an executor that starts a virtual thread for every task, or a cached thread pool
+     * if this JVM has no virtual threads.
+     */
+    static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * A request handler. It checks the parameters and does the work of the request,
+     * and returns the body of the response, which is written after the status has been sent.
+     */
+    private interface Handler {
+        Body handle(HttpExchange exchange, Map<String, String> parameters) throws IOException;
+    }
+
+    /**
+     * Writes the JSON body of a response.
+     */
+    private interface Body {
+        void write(Writer writer) throws IOException;
+    }
+
+    /**
+     * Thrown for a request with missing or invalid parameters. Answered with status 400.
+     */
+    private static class BadRequestException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        BadRequestException(String message) {
+            super(message);
+        }
+    }
+
+    private void handle(HttpExchange exchange, String method, Handler handler) throws IOException {
+        try (exchange) {
+            if (method != null && !method.equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Method not allowed, use " + method + ".");
+                return;
+            }
+            Body body;
+            try {
+                body = handler.handle(exchange, readParameters(exchange));
+            } catch (BadRequestException e) {
+                sendError(exchange, 400, e.getMessage());
+                return;
+            } catch (IOException | RuntimeException e) {
+                sendError(exchange, 500, "Internal error: " + e.getMessage());
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0);
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+                body.write(writer);
+            }
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) {
+        try {
+            byte[] body = ("{\"error\":" + quote(message) + "}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+        } catch (IOException e) {
+            // The client is gone; nothing more can be done
+        }
+    }
+
+    private Body donate(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+        String username = username(parameters);
+        DonationRecord.Category category = DonationRecord.Category.fromLabel(required(parameters, "category"));
+        DonationRecord.Size size = parseSize(required(parameters, "size"));
+        DonationRecord.Quality quality = parseQuality(required(parameters, "quality"));
+        DonationRecord.Gender gender = parseGender(required(parameters, "gender"));
+        if (category == null) {
+            throw new BadRequestException("Invalid category: " + parameters.get("category"));
+        }
+        DonationRecord donation = store.donate(username, category, size, quality, gender);
+        return writer -> writeRecord(writer, donation);
+    }
+
+    private Body users(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+        String username = username(parameters);
+        if (exchange.getRequestMethod().equals("POST")) {
+            boolean created = store.addUser(username);
+            return writer -> writer.write("{\"username\":" + quote(username) + ",\"created\":" + created + "}");
+        }
+
+        boolean exists = store.hasUser(username);
+        List<DonationRecord> donations = store.previousDonations(username);
+        return writer -> {
+            writer.write("{\"username\":" + quote(username) + ",\"exists\":" + exists + ",\"donations\":");
+            writeRecords(writer, donations);
+            writer.write("}");
+        };
+    }
+
+    private Body search(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+        DonationQuery query = new DonationQuery().donor(parameters.get("donor"));
+        if (parameters.containsKey("gender")) {
+            query.gender(parseGender(parameters.get("gender")));
+        }
+        if (parameters.containsKey("size")) {
+            query.size(parseSize(parameters.get("size")));
+        }
+        if (parameters.containsKey("quality")) {
+            query.quality(parseQuality(parameters.get("quality")));
+        }
+        if (parameters.containsKey("category")) {
+            DonationRecord.Category category = DonationRecord.Category.fromLabel(parameters.get("category").trim());
+            if (category == null) {
+                throw new BadRequestException("Invalid category: " + parameters.get("category"));
+            }
+            query.category(category);
+        }
+        if (parameters.containsKey("minPrice")) {
+            query.minPrice(parsePrice(parameters.get("minPrice")));
+        }
+        if (parameters.containsKey("maxPrice")) {
+            query.maxPrice(parsePrice(parameters.get("maxPrice")));
+        }
+        if (parameters.containsKey("from")) {
+            query.donatedFrom(parseTimeBound(parameters.get("from")));
+        }
+        if (parameters.containsKey("to")) {
+            query.donatedBefore(parseTimeBound(parameters.get("to")));
+        }
+        int offset = parameters.containsKey("offset") ? parseCount("offset", parameters.get("offset")) : 0;
+        int limit = parameters.containsKey("limit") ? parseCount("limit", parameters.get("limit")) : Integer.MAX_VALUE;
+
+        // Written while the matches are found, so a page never holds more than its own records
+        Iterator<DonationRecord> results = store.query(query).skip(offset).limit(limit).iterator();
+        return writer -> {
+            writer.write('[');
+            for (boolean first = true; results.hasNext(); first = false) {
+                if (!first) {
+                    writer.write(',');
+                }
+                writeRecord(writer, results.next());
+            }
+            writer.write(']');
+        };
+    }
+
+    private Body clothes(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+        List<DonationRecord> clothes = store.getClothes();
+        return writer -> writeRecords(writer, clothes);
+    }
+
+    private Body statistics(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+        DonationStatistics statistics = store.getStatistics();
+        long count;
+        long worthCents;
+        String donor = parameters.get("donor");
+        if (donor != null && !donor.trim().isEmpty()) {
+            count = statistics.donorCount(donor);
+            worthCents = statistics.donorWorthCents(donor);
+        } else {
+            DonationRecord.Category category = null;
+            if (parameters.containsKey("category")) {
+                category = DonationRecord.Category.fromLabel(parameters.get("category").trim());
+                if (category == null) {
+                    throw new BadRequestException("Invalid category: " + parameters.get("category"));
+                }
+            }
+            DonationRecord.Size size = parameters.containsKey("size") ? parseSize(parameters.get("size")) : null;
+            DonationRecord.Quality quality = parameters.containsKey("quality") ? parseQuality(parameters.get("quality")) : null;
+            DonationRecord.Gender gender = parameters.containsKey("gender") ? parseGender(parameters.get("gender")) : null;
+            count = statistics.count(category, size, quality, gender);
+            worthCents = statistics.worthCents(category, size, quality, gender);
+        }
+        return writer -> writer.write("{\"count\":" + count + ",\"worth\":" + DonationStatistics.formatWorth(worthCents) + "}");
+    }
+
+    private Body feed(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+        DonationFeed feed = store.getFeed();
+        String consumer = parameters.get("consumer");
+        if (exchange.getRequestMethod().equals("POST")) {
+            DonationFeed.Cursor cursor = parseCursor(required(parameters, "cursor"));
+            try {
+                feed.commit(required(parameters, "consumer"), cursor);
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestException(e.getMessage());
+            }
+            return writer -> writer.write("{\"consumer\":" + quote(consumer.trim()) + ",\"cursor\":" + quote(cursor.toString()) + "}");
+        }
+
+        DonationFeed.Cursor from;
+        if (parameters.containsKey("cursor")) {
+            from = parseCursor(parameters.get("cursor"));
+        } else if (consumer != null) {
+            try {
+                from = feed.committed(consumer);
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestException(e.getMessage());
+            }
+        } else {
+            from = feed.start();
+        }
+        int limit = parameters.containsKey("limit") ? parseCount("limit", parameters.get("limit")) : 1000;
+        int wait = parameters.containsKey("wait") ? parseCount("wait", parameters.get("wait")) : 0;
+        if (limit < 1) {
+            throw new BadRequestException("Invalid limit: " + limit);
+        }
+        DonationFeed.Batch batch;
+        try {
+            batch = feed.await(from, limit, wait, TimeUnit.MILLISECONDS);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Waiting for donations was interrupted.", e);
+        }
+        return writer -> {
+            writer.write("{\"cursor\":" + quote(batch.getNext().toString()) + ",\"restarted\":" + batch.isRestarted()
+                    + ",\"donations\":");
+            writeRecords(writer, batch.getDonations());
+            writer.write("}");
+        };
+    }
+
+    private static DonationFeed.Cursor parseCursor(String text) {
+        try {
+            return DonationFeed.Cursor.parse(text);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+    }
+
+    private static String required(Map<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            throw new BadRequestException("Missing parameter: " + name);
+        }
+        return value.trim();
+    }
+
+    /**
+     * Returns the username parameter, which must be a name the store can write to its files.
+     */
+    private static String username(Map<String, String> parameters) {
+        String username = required(parameters, "username");
+        try {
+            DonationStore.checkUsername(username);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+        return username;
+    }
+
+    private static int parsePrice(String text) {
+        int cents = DonationRecord.parsePriceCents(text);
+        if (cents < 0) {
+            throw new BadRequestException("Invalid price: " + text);
+        }
+        return cents;
+    }
+
+    private static long parseTimeBound(String text) {
+        try {
+            return DonationQuery.parseTimeBound(text);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+    }
+
+    private static int parseCount(String name, String text) {
+        try {
+            int count = Integer.parseInt(text.trim());
+            if (count >= 0) {
+                return count;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new BadRequestException("Invalid " + name + ": " + text);
+    }
+
+    private static DonationRecord.Size parseSize(String text) {
+        DonationRecord.Size size = DonationRecord.Size.fromLabel(text.trim());
+        if (size == null) {
+            throw new BadRequestException("Invalid size. Please enter XS, S, M, L, or XL.");
+        }
+        return size;
+    }
+
+    private static DonationRecord.Quality parseQuality(String text) {
+        text = text.trim();
+        DonationRecord.Quality quality = (text.length() == 1)
+                ? DonationRecord.Quality.fromKey(text) : DonationRecord.Quality.fromLabel(text);
+        if (quality == null) {
+            throw new BadRequestException("Invalid quality. Please enter L, M, or H.");
+        }
+        return quality;
+    }
+
+    private static DonationRecord.Gender parseGender(String text) {
+        text = text.trim();
+        DonationRecord.Gender gender = (text.length() == 1)
+                ? DonationRecord.Gender.fromKey(text) : DonationRecord.Gender.fromLabel(text);
+        if (gender == null) {
+            throw new BadRequestException("Invalid gender. Please enter M, F, or U.");
+        }
+        return gender;
+    }
+
+    /**
+     * Reads the parameters of the query string and, for a POST, of the form body.
+     */
+    private static Map<String, String> readParameters(HttpExchange exchange) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        parseQuery(exchange.getRequestURI().getRawQuery(), parameters);
+        if (exchange.getRequestMethod().equals("POST")) {
+            try (InputStream body = exchange.getRequestBody()) {
+                parseQuery(new String(body.readAllBytes(), StandardCharsets.UTF_8), parameters);
+            }
+        }
+        return parameters;
+    }
+
+    private static void parseQuery(String query, Map<String, String> parameters) {
+        if (query == null || query.isEmpty()) {
+            return;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = (equals < 0) ? pair : pair.substring(0, equals);
+            String value = (equals < 0) ? "" : pair.substring(equals + 1);
+            parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void writeRecords(Writer writer, List<DonationRecord> records) throws IOException {
+        writer.write('[');
+        for (int i = 0; i < records.size(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writeRecord(writer, records.get(i));
+        }
+        writer.write(']');
+    }
+
+    static void writeRecord(Writer writer, DonationRecord record) throws IOException {
+        writer.write("{\"donor\":");
+        writer.write(quote(record.getDonor()));
+        writer.write(",\"category\":\"");
+        writer.write(record.getCategory().getLabel());
+        writer.write("\",\"size\":\"");
+        writer.write(record.getSize().getLabel());
+        writer.write("\",\"quality\":\"");
+        writer.write(record.getQuality().getLabel());
+        writer.write("\",\"gender\":\"");
+        writer.write(record.getGender().getLabel());
+        writer.write("\",\"price\":");
+        writer.write(DonationRecord.formatPrice(record.getPriceCents()));
+        if (record.hasTime()) {
+            writer.write(",\"time\":\"");
+            writer.write(DonationRecord.formatTime(record.getTime()));
+            writer.write('"');
+        }
+        writer.write('}');
+    }
+
+    /**
+     * Returns the text as a JSON string literal.
+     */
+    static String quote(String text) {
+        StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : 8080;
+        DonationStore store = new DonationStore("usersList.txt", "clothesList.txt", "donationCompaniesList.txt");
+        store.getMetrics().startFromSystemProperties("http");
+        store.load();
+
+        DonationHttpServer server = new DonationHttpServer(store, port);
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                store.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "close-store"));
+        System.out.println("Clothes Donation System is listening on http://localhost:" + server.getPort() + "/");
+    }
+}
@@ -0,0 +1,474 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * This class keeps bitmap indexes over the donated clothes.
+ * <p>
+ *     For every gender, size, quality and category there is a bitmap with one bit per record in clothesList.
+ *     A bit is set when the record at that position has the value.
+ *     The bitmaps are updated every time a donation is added, so a search only visits
+ *     the matching records instead of scanning the whole list.
+ *     A search on several attributes (e.g. Female + M + High) is the AND of their bitmaps.
+ * </p>
+ * <p>
+ *     The index also maps every donor to the positions of their donations, in an array indexed by
+ *     the ID of the user in the {@link UserDictionary}, which is the same for "user 33" and "User33".
+ * </p>
+ * <p>
+ *     The donations of every day (in UTC) are kept in a bucket as ranges of positions: donations
+ *     arrive in time order, so the donations of a day are usually one run of positions, and a
+ *     search for a time window (see {@link DonationQuery#donatedFrom(long)}) only visits the
+ *     buckets of the days in the window. Records without a time are kept apart and never match a time window.
+ * </p>
+ * <p>
+ *     One thread at a time may add records while other threads search without locking
+ *     (see {@link ConcurrentBitmap}). A record is added to the index before it is added to the
+ *     list of clothes, so searches take the size of the list as a limit and ignore positions beyond it.
+ * </p>
+ */
+public class DonationIndex {
+    private final EnumMap<DonationRecord.Gender, ConcurrentBitmap> byGender = new EnumMap<>(DonationRecord.Gender.class);
+    private final EnumMap<DonationRecord.Size, ConcurrentBitmap> bySize = new EnumMap<>(DonationRecord.Size.class);
+    private final EnumMap<DonationRecord.Quality, ConcurrentBitmap> byQuality = new EnumMap<>(DonationRecord.Quality.class);
+    private final EnumMap<DonationRecord.Category, ConcurrentBitmap> byCategory = new EnumMap<>(DonationRecord.Category.class);
+    private final IdTable<RowList> byDonor = new IdTable<>();
+    private final ConcurrentSkipListMap<Long, RowRanges> byDay = new ConcurrentSkipListMap<>();
+    private RowRanges undated = new RowRanges();
+    // The bucket the last dated record was added to, used only by the thread that adds
+    private long lastDay;
+    private RowRanges lastBucket;
+
+    public DonationIndex() {
+        for (DonationRecord.Gender gender : DonationRecord.Gender.values()) {
+            byGender.put(gender, new ConcurrentBitmap());
+        }
+        for (DonationRecord.Size size : DonationRecord.Size.values()) {
+            bySize.put(size, new ConcurrentBitmap());
+        }
+        for (DonationRecord.Quality quality : DonationRecord.Quality.values()) {
+            byQuality.put(quality, new ConcurrentBitmap());
+        }
+        for (DonationRecord.Category category : DonationRecord.Category.values()) {
+            byCategory.put(category, new ConcurrentBitmap());
+        }
+    }
+
+    /**
+     * Adds the record stored at the given position of clothesList. Only one thread may add at a time.
+     */
+    public void add(int row, DonationRecord record) {
+        byGender.get(record.getGender()).set(row);
+        bySize.get(record.getSize()).set(row);
+        byQuality.get(record.getQuality()).set(row);
+        byCategory.get(record.getCategory()).set(row);
+        byDonor.computeIfAbsent(record.getUserId(), id -> new RowList()).add(row);
+        if (record.hasTime()) {
+            long day = record.getDay();
+            if (lastBucket == null || day != lastDay) {
+                lastBucket = byDay.computeIfAbsent(day, key -> new RowRanges());
+                lastDay = day;
+            }
+            lastBucket.add(row);
+        } else {
+            undated.add(row);
+        }
+    }
+
+    /**
+     * Returns the positions below limit of the donations made by the given user, in the order they were donated.
+     * Whitespace and case in the username are ignored.
+     */
+    public int[] donationsOf(String username, int limit) {
+        return donationsOf(UserDictionary.global().find(username), limit);
+    }
+
+    /**
+     * Returns the positions below limit of the donations made by the user with the given ID (see
+     * {@link UserDictionary#find(String)}), in the order they were donated. An unknown ID, e.g. -1, has no donations.
+     */
+    public int[] donationsOf(int userId, int limit) {
+        RowList rows = byDonor.get(userId);
+        return (rows == null) ? new int[0] : rows.toArray(limit);
+    }
+
+    /**
+     * Returns the positions below limit of the records that may match the query, in ascending order.
+     * <p>
+     *     The gender, size, quality and category of every returned position match the query.
+     *     The donor only matches if the donor's own list of positions was the most selective way
+     *     to answer the query, and the price is not checked here at all, so callers must still check
+     *     the records themselves (see {@link DonationQuery#matches(DonationRecord)}).
+     * </p>
+     * <p>
+     *     The most selective source of positions is read first: either the donor's positions, each
+     *     checked against the bitmaps, or the bitmaps ANDed one 64-bit word at a time starting with
+     *     the one with the fewest bits, so words without any match are skipped after a single read.
+     *     Positions are found as the cursor advances, so nothing is copied up front.
+     * </p>
+     */
+    public RowCursor match(DonationQuery query, int limit) {
+        int[] ranges = null;
+        if (query.hasTimeWindow()) {
+            ranges = rangesBetween(query.getFromTime(), query.getBeforeTime(), limit);
+        }
+        ConcurrentBitmap[] filters = new ConcurrentBitmap[4];
+        int count = 0;
+        if (query.getGender() != null) {
+            filters[count++] = byGender.get(query.getGender());
+        }
+        if (query.getSize() != null) {
+            filters[count++] = bySize.get(query.getSize());
+        }
+        if (query.getQuality() != null) {
+            filters[count++] = byQuality.get(query.getQuality());
+        }
+        if (query.getCategory() != null) {
+            filters[count++] = byCategory.get(query.getCategory());
+        }
+        // Most selective bitmap first
+        Arrays.sort(filters, 0, count, (a, b) -> Integer.compare(a.cardinality(), b.cardinality()));
+
+        int[] donorRows = null;
+        if (query.getDonor() != null) {
+            donorRows = donationsOf(query.getUserId(), limit);
+            if ((count == 0 || donorRows.length <= filters[0].cardinality())
+                    && (ranges == null || donorRows.length <= rowCount(ranges))) {
+                return new DonorCursor(donorRows, filters, count);
+            }
+        }
+        if (ranges != null && (count == 0 || rowCount(ranges) <= filters[0].cardinality())) {
+            return new RangeCursor(ranges, filters, count);
+        }
+        return new BitmapCursor(filters, count, limit);
+    }
+
+    /**
+     * Returns the ranges of the positions below limit in the buckets of the days from the day of
+     * fromTime up to the day of beforeTime, in ascending order, as pairs of start (inclusive) and
+     * end (exclusive). The donations of the first and the last day may lie outside the times.
+     */
+    int[] rangesBetween(long fromTime, long beforeTime, int limit) {
+        if (beforeTime <= fromTime) {
+            return new int[0];
+        }
+        Map<Long, RowRanges> days = byDay;
+        if (fromTime != Long.MIN_VALUE || beforeTime != Long.MAX_VALUE) {
+            long fromDay = (fromTime == Long.MIN_VALUE) ? Long.MIN_VALUE : Math.floorDiv(fromTime, DonationRecord.SECONDS_PER_DAY);
+            long lastDay = (beforeTime == Long.MAX_VALUE) ? Long.MAX_VALUE
+                    : Math.floorDiv(beforeTime - 1, DonationRecord.SECONDS_PER_DAY);
+            days = byDay.subMap(fromDay, true, lastDay, true);
+        }
+        List<int[]> buckets = new ArrayList<>();
+        int total = 0;
+        for (RowRanges bucket : days.values()) {
+            int[] ranges = bucket.toArray(limit);
+            buckets.add(ranges);
+            total += ranges.length;
+        }
+        int[] ranges = new int[total];
+        int position = 0;
+        boolean ordered = true;
+        for (int[] bucket : buckets) {
+            ordered &= position == 0 || bucket.length == 0 || bucket[0] >= ranges[position - 1];
+            System.arraycopy(bucket, 0, ranges, position, bucket.length);
+            position += bucket.length;
+        }
+        return ordered ? ranges : sortRanges(ranges);
+    }
+
+    /**
+     * Sorts ranges by their start, for donations that did not arrive in time order, e.g. imported ones.
+     */
+    private static int[] sortRanges(int[] ranges) {
+        long[] packed = new long[ranges.length / 2];
+        for (int i = 0; i < packed.length; i++) {
+            packed[i] = ((long) ranges[2 * i] << 32) | (ranges[2 * i + 1] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(packed);
+        int[] sorted = new int[ranges.length];
+        for (int i = 0; i < packed.length; i++) {
+            sorted[2 * i] = (int) (packed[i] >>> 32);
+            sorted[2 * i + 1] = (int) packed[i];
+        }
+        return sorted;
+    }
+
+    private static int rowCount(int[] ranges) {
+        int count = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            count += ranges[i + 1] - ranges[i];
+        }
+        return count;
+    }
+
+    /**
+     * Writes the index, e.g. to a {@link StoreSnapshot}. No records may be added at the same time.
+     * The rows of every donor are not written, since {@link #readFrom(ByteBuffer, List)} finds them
+     * in the records faster than it could read them by donor name.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        for (ConcurrentBitmap bitmap : byGender.values()) {
+            bitmap.writeTo(out);
+        }
+        for (ConcurrentBitmap bitmap : bySize.values()) {
+            bitmap.writeTo(out);
+        }
+        for (ConcurrentBitmap bitmap : byQuality.values()) {
+            bitmap.writeTo(out);
+        }
+        for (ConcurrentBitmap bitmap : byCategory.values()) {
+            bitmap.writeTo(out);
+        }
+        undated.writeTo(out);
+        out.writeInt(byDay.size());
+        for (Map.Entry<Long, RowRanges> day : byDay.entrySet()) {
+            out.writeLong(day.getKey());
+            day.getValue().writeTo(out);
+        }
+    }
+
+    /**
+     * Reads an index written by {@link #writeTo(DataOutputStream)} for the given records.
+     */
+    static DonationIndex readFrom(ByteBuffer in, List<DonationRecord> records) {
+        DonationIndex index = new DonationIndex();
+        for (DonationRecord.Gender gender : DonationRecord.Gender.values()) {
+            index.byGender.put(gender, ConcurrentBitmap.readFrom(in));
+        }
+        for (DonationRecord.Size size : DonationRecord.Size.values()) {
+            index.bySize.put(size, ConcurrentBitmap.readFrom(in));
+        }
+        for (DonationRecord.Quality quality : DonationRecord.Quality.values()) {
+            index.byQuality.put(quality, ConcurrentBitmap.readFrom(in));
+        }
+        for (DonationRecord.Category category : DonationRecord.Category.values()) {
+            index.byCategory.put(category, ConcurrentBitmap.readFrom(in));
+        }
+        for (int row = 0; row < records.size(); row++) {
+            index.byDonor.computeIfAbsent(records.get(row).getUserId(), id -> new RowList()).add(row);
+        }
+        index.undated = RowRanges.readFrom(in);
+        int days = in.getInt();
+        for (int i = 0; i < days; i++) {
+            index.byDay.put(in.getLong(), RowRanges.readFrom(in));
+        }
+        return index;
+    }
+
+    /**
+     * A cursor over record positions.
+     */
+    public interface RowCursor {
+        /**
+         * Returns the next position, or -1 when there are no more.
+         */
+        int next();
+    }
+
+    /**
+     * Walks the AND of the bitmaps one word at a time.
+     */
+    private static class BitmapCursor implements RowCursor {
+        private final ConcurrentBitmap[] filters;
+        private final int count;
+        private final int limit;
+        private final int words;
+        private int word = -1;
+        private long bits;
+
+        BitmapCursor(ConcurrentBitmap[] filters, int count, int limit) {
+            this.filters = filters;
+            this.count = count;
+            this.limit = limit;
+            this.words = (limit + 63) >>> 6;
+        }
+
+        @Override
+        public int next() {
+            while (bits == 0) {
+                if (++word >= words) {
+                    return -1;
+                }
+                long next = -1L;
+                for (int i = 0; i < count && next != 0; i++) {
+                    next &= filters[i].word(word);
+                }
+                if (word == words - 1 && (limit & 63) != 0) {
+                    next &= (1L << limit) - 1;
+                }
+                bits = next;
+            }
+            int row = (word << 6) + Long.numberOfTrailingZeros(bits);
+            bits &= bits - 1;
+            return row;
+        }
+    }
+
+    /**
+     * Walks the positions of one donor, skipping those missing from any of the bitmaps.
+     */
+    private static class DonorCursor implements RowCursor {
+        private final int[] rows;
+        private final ConcurrentBitmap[] filters;
+        private final int count;
+        private int position;
+
+        DonorCursor(int[] rows, ConcurrentBitmap[] filters, int count) {
+            this.rows = rows;
+            this.filters = filters;
+            this.count = count;
+        }
+
+        @Override
+        public int next() {
+            while (position < rows.length) {
+                int row = rows[position++];
+                int i = 0;
+                while (i < count && filters[i].get(row)) {
+                    i++;
+                }
+                if (i == count) {
+                    return row;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Walks the positions in ranges, skipping those missing from any of the bitmaps.
+     */
+    private static class RangeCursor implements RowCursor {
+        private final int[] ranges;
+        private final ConcurrentBitmap[] filters;
+        private final int count;
+        private int range;
+        private int row;
+
+        RangeCursor(int[] ranges, ConcurrentBitmap[] filters, int count) {
+            this.ranges = ranges;
+            this.filters = filters;
+            this.count = count;
+            this.row = (ranges.length > 0) ? ranges[0] : 0;
+        }
+
+        @Override
+        public int next() {
+            while (range < ranges.length) {
+                if (row >= ranges[range + 1]) {
+                    range += 2;
+                    if (range < ranges.length) {
+                        row = ranges[range];
+                    }
+                    continue;
+                }
+                int candidate = row++;
+                int i = 0;
+                while (i < count && filters[i].get(candidate)) {
+                    i++;
+                }
+                if (i == count) {
+                    return candidate;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * A growable list of record positions that avoids boxing every position into an Integer.
+     * One thread adds while others read: a position is written before the size is increased,
+     * and a larger array always contains every position of the array it replaces.
+     */
+    private static class RowList {
+        private volatile int[] rows = new int[4];
+        private volatile int size;
+
+        void add(int row) {
+            int[] current = rows;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, size * 2);
+            }
+            current[size] = row;
+            rows = current;
+            size = size + 1;
+        }
+
+        int[] toArray(int limit) {
+            int count = size;
+            int[] current = rows;
+            while (count > 0 && current[count - 1] >= limit) {
+                count--;
+            }
+            return Arrays.copyOf(current, count);
+        }
+    }
+
+    /**
+     * Growable runs of consecutive record positions, as pairs of start (inclusive) and end (exclusive).
+     * A position one past the end of the last run extends that run. Like {@link RowList}, one thread
+     * adds while others read: a larger array always contains every value of the array it replaces.
+     */
+    private static class RowRanges {
+        private volatile int[] ranges = new int[2];
+        private volatile int size;
+
+        void add(int row) {
+            int[] current = ranges;
+            if (size > 0 && current[size - 1] == row) {
+                current[size - 1] = row + 1;
+                ranges = current;
+                return;
+            }
+            if (size == current.length) {
+                current = Arrays.copyOf(current, size * 2);
+            }
+            current[size] = row;
+            current[size + 1] = row + 1;
+            ranges = current;
+            size = size + 2;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            int count = size;
+            int[] current = ranges;
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeInt(current[i]);
+            }
+        }
+
+        static RowRanges readFrom(ByteBuffer in) {
+            RowRanges ranges = new RowRanges();
+            int count = in.getInt();
+            int[] values = new int[Math.max(2, count)];
+            in.asIntBuffer().get(values, 0, count);
+            in.position(in.position() + count * Integer.BYTES);
+            ranges.ranges = values;
+            ranges.size = count;
+            return ranges;
+        }
+
+        /**
+         * Returns the runs cut off at limit, dropping those that start at or after it.
+         */
+        int[] toArray(int limit) {
+            int count = size;
+            int[] current = Arrays.copyOf(ranges, count);
+            while (count > 0 && current[count - 2] >= limit) {
+                count -= 2;
+            }
+            if (count > 0 && current[count - 1] > limit) {
+                current[count - 1] = limit;
+            }
+            return (count == current.length) ? current : Arrays.copyOf(current, count);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class holds the {@link OperationMetrics} of every operation of a {@link DonationStore}.
+ * <p>
+ *     The metrics can be read in three ways: directly with {@link #get(Operation)}, over JMX
+ *     (e.g. with jconsole) once {@link #registerMBeans(String)} was called, where every operation
+ *     is an MBean named ClothesDonationSystem:type=Operation,store=...,name=..., and as a
+ *     text table that {@link #dump(PrintStream)} prints, which {@link #startPeriodicDump} does
+ *     on a background thread.
+ * </p>
+ * <p>
+ *     The programs with a main method start the periodic dump when they are run with
+ *     -Dcds.metricsDump=seconds (see {@link #startFromSystemProperties}); the table goes to
+ *     the error stream so it does not mix with the menus.
+ * </p>
+ */
+public class DonationMetrics {
+
+    /**
+     * The operations that are measured.
+     */
+    public enum Operation {
+        LOAD_USERS("loadUsers"),
+        LOAD_CLOTHES("loadClothes"),
+        SAVE_CLOTHES("saveClothes"),
+        COMPACT("compact"),
+        LOAD_SNAPSHOT("loadSnapshot"),
+        SAVE_SNAPSHOT("saveSnapshot"),
+        RESHARD("reshard"),
+        ARCHIVE("archive"),
+        DONATE("donate"),
+        SYNC_WAIT("syncWait"),
+        SEARCH("search"),
+        QUERY("query"),
+        PREVIOUS_DONATIONS("previousDonations"),
+        ALLOCATE("allocate"),
+        REALLOCATE("reallocate");
+
+        private final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private final Map<Operation, OperationMetrics> operations = new EnumMap<>(Operation.class);
+
+    public DonationMetrics() {
+        for (Operation operation : Operation.values()) {
+            operations.put(operation, new OperationMetrics(operation.getLabel()));
+        }
+    }
+
+    public OperationMetrics get(Operation operation) {
+        return operations.get(operation);
+    }
+
+    /**
+     * Registers an MBean for every operation with the platform MBean server.
+     *
+     * @param store a name for the store, to tell several stores in one JVM apart
+     */
+    public void registerMBeans(String store) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (OperationMetrics metrics : operations.values()) {
+                ObjectName name = new ObjectName("ClothesDonationSystem:type=Operation,store="
+                        + ObjectName.quote(store) + ",name=" + metrics.getName());
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(metrics, name);
+                }
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register the metrics MBeans", e);
+        }
+    }
+
+    /**
+     * Prints a table with the metrics of every operation that was called at least once.
+     */
+    public void dump(PrintStream out) {
+        StringBuilder table = new StringBuilder();
+        table.append(String.format("%-18s %10s %10s %10s %10s %10s %12s %12s %14s%n", "Operation", "Calls",
+                "Mean ms", "p50 ms", "p99 ms", "Max ms", "Read KB", "Written KB", "Scanned"));
+        for (OperationMetrics metrics : operations.values()) {
+            if (metrics.getCalls() == 0) {
+                continue;
+            }
+            table.append(String.format("%-18s %10d %10.3f %10.3f %10.3f %10.3f %12.1f %12.1f %14d%n",
+                    metrics.getName(), metrics.getCalls(), metrics.getMeanMillis(), metrics.getP50Millis(),
+                    metrics.getP99Millis(), metrics.getMaxMillis(), metrics.getBytesRead() / 1e3,
+                    metrics.getBytesWritten() / 1e3, metrics.getRecordsScanned()));
+        }
+        // One print, so the table is not interleaved with other output
+        out.print(table);
+        out.flush();
+    }
+
+    /**
+     * Prints the metrics every given number of seconds on a daemon thread.
+     */
+    public void startPeriodicDump(PrintStream out, long periodSeconds) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> dump(out), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Registers the MBeans and, if the system property cds.metricsDump is set to a number of seconds,
+     * starts dumping the metrics to the error stream at that interval.
+     */
+    public void startFromSystemProperties(String store) {
+        registerMBeans(store);
+        long period = Long.getLong("cds.metricsDump", 0);
+        if (period > 0) {
+            startPeriodicDump(System.err, period);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+/**
+ * This class describes a search over the donated clothes on several criteria at once.
+ * <p>
+ *     A query matches the items that have all of the values that are set. A value that is
+ *     not set (null, or no price bound) matches every item. The setters return the query,
+ *     so a query can be written in one expression:
+ *     {@code new DonationQuery().gender(Gender.FEMALE).size(Size.M).maxPrice(3005)}.
+ *     Prices are in cents, the same as {@link DonationRecord#getPriceCents()}, and times are in
+ *     seconds since 1970, the same as {@link DonationRecord#getTime()}. A query with a time window
+ *     only matches items that have a time, e.g. {@code new DonationQuery().donatedFrom(now - 7 * 86_400)}
+ *     matches the items donated in the last week.
+ * </p>
+ * <p>
+ *     {@link DonationStore#query(DonationQuery)} runs the query on the indexes and returns the
+ *     matches lazily, so asking for the first page of a large result does not visit the rest.
+ * </p>
+ */
+public class DonationQuery {
+    private DonationRecord.Gender gender;
+    private DonationRecord.Size size;
+    private DonationRecord.Quality quality;
+    private DonationRecord.Category category;
+    private String donor;
+    // The ID of the user of the donor, or -1 if no donor is set or the donor had no ID yet when it was looked up
+    private int userId = -1;
+    private int minPriceCents = 0;
+    private int maxPriceCents = Integer.MAX_VALUE;
+    private long fromTime = Long.MIN_VALUE;
+    private long beforeTime = Long.MAX_VALUE;
+
+    public DonationQuery gender(DonationRecord.Gender gender) {
+        this.gender = gender;
+        return this;
+    }
+
+    public DonationQuery size(DonationRecord.Size size) {
+        this.size = size;
+        return this;
+    }
+
+    public DonationQuery quality(DonationRecord.Quality quality) {
+        this.quality = quality;
+        return this;
+    }
+
+    public DonationQuery category(DonationRecord.Category category) {
+        this.category = category;
+        return this;
+    }
+
+    /**
+     * Only matches the donations of the given user. Whitespace and case in the username are ignored,
+     * the same as for the previous donations. A blank username matches every donor.
+     */
+    public DonationQuery donor(String donor) {
+        if (donor == null || donor.trim().isEmpty()) {
+            this.donor = null;
+            this.userId = -1;
+        } else {
+            this.donor = donor.trim();
+            this.userId = UserDictionary.global().find(this.donor);
+        }
+        return this;
+    }
+
+    /**
+     * Only matches items worth at least the given number of cents.
+     */
+    public DonationQuery minPrice(int minPriceCents) {
+        this.minPriceCents = minPriceCents;
+        return this;
+    }
+
+    /**
+     * Only matches items worth at most the given number of cents.
+     */
+    public DonationQuery maxPrice(int maxPriceCents) {
+        this.maxPriceCents = maxPriceCents;
+        return this;
+    }
+
+    /**
+     * Only matches items donated at or after the given time, in seconds since 1970.
+     */
+    public DonationQuery donatedFrom(long fromTime) {
+        this.fromTime = fromTime;
+        return this;
+    }
+
+    /**
+     * Only matches items donated before the given time, in seconds since 1970.
+     */
+    public DonationQuery donatedBefore(long beforeTime) {
+        this.beforeTime = beforeTime;
+        return this;
+    }
+
+    /**
+     * Parses a bound of a time window: a date like "2026-10-17", which stands for the start of that day
+     * in UTC, or a time like "2026-10-17T09:30:00Z".
+     *
+     * @return the time in seconds since 1970
+     * @throws IllegalArgumentException if the text is neither
+     */
+    public static long parseTimeBound(String text) {
+        String trimmed = text.trim();
+        try {
+            if (trimmed.length() == 10) {
+                return LocalDate.parse(trimmed).toEpochDay() * DonationRecord.SECONDS_PER_DAY;
+            }
+        } catch (DateTimeParseException e) {
+            // Reported below
+        }
+        long time = DonationRecord.parseTime(trimmed);
+        if (time == DonationRecord.NO_TIME) {
+            throw new IllegalArgumentException("Invalid date or time: " + text);
+        }
+        return time;
+    }
+
+    public DonationRecord.Gender getGender() {
+        return gender;
+    }
+
+    public DonationRecord.Size getSize() {
+        return size;
+    }
+
+    public DonationRecord.Quality getQuality() {
+        return quality;
+    }
+
+    public DonationRecord.Category getCategory() {
+        return category;
+    }
+
+    public String getDonor() {
+        return donor;
+    }
+
+    /**
+     * Returns the ID of the user of the donor in the {@link UserDictionary}, or -1 if no donor is set
+     * or the donor has never donated or registered, so no item matches.
+     */
+    public int getUserId() {
+        if (donor != null && userId < 0) {
+            userId = UserDictionary.global().find(donor);
+        }
+        return userId;
+    }
+
+    public int getMinPriceCents() {
+        return minPriceCents;
+    }
+
+    public int getMaxPriceCents() {
+        return maxPriceCents;
+    }
+
+    public long getFromTime() {
+        return fromTime;
+    }
+
+    public long getBeforeTime() {
+        return beforeTime;
+    }
+
+    /**
+     * Returns true if the query only matches items donated in a window of time.
+     */
+    public boolean hasTimeWindow() {
+        return fromTime != Long.MIN_VALUE || beforeTime != Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns true if the item has all of the values set in this query.
+     */
+    public boolean matches(DonationRecord record) {
+        return (gender == null || record.getGender() == gender)
+                && (size == null || record.getSize() == size)
+                && (quality == null || record.getQuality() == quality)
+                && (category == null || record.getCategory() == category)
+                && record.getPriceCents() >= minPriceCents
+                && record.getPriceCents() <= maxPriceCents
+                && (donor == null || record.getUserId() == getUserId())
+                && (!hasTimeWindow() || (record.hasTime() && record.getTime() >= fromTime && record.getTime() < beforeTime));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        append(text, "gender", gender == null ? null : gender.getLabel());
+        append(text, "size", size == null ? null : size.getLabel());
+        append(text, "quality", quality == null ? null : quality.getLabel());
+        append(text, "category", category == null ? null : category.getLabel());
+        append(text, "donor", donor);
+        append(text, "min price", minPriceCents == 0 ? null : "$" + DonationRecord.formatPrice(minPriceCents));
+        append(text, "max price", maxPriceCents == Integer.MAX_VALUE ? null : "$" + DonationRecord.formatPrice(maxPriceCents));
+        append(text, "from", fromTime == Long.MIN_VALUE ? null : DonationRecord.formatTime(fromTime));
+        append(text, "before", beforeTime == Long.MAX_VALUE ? null : DonationRecord.formatTime(beforeTime));
+        return (text.length() == 0) ? "all items" : text.toString();
+    }
+
+    private static void append(StringBuilder text, String name, String value) {
+        if (value != null) {
+            if (text.length() > 0) {
+                text.append(", ");
+            }
+            text.append(name).append(' ').append(value);
+        }
+    }
+}
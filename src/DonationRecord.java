@@ -0,0 +1,515 @@
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+/**
+ * This class represents one donated item.
+ * <p>
+ *     A record is parsed once from a line of clothesList.txt, for example
+ *     "laiba zahoor, Shirt, XS, Medium, Female, $30.01, 2026-10-17T09:30:00Z".
+ *     The last field is the time the item was donated, in UTC to the second; lines written before
+ *     donations had a time have no such field, and their records have no time ({@link #NO_TIME}).
+ *     The category, size, quality and gender are stored as enums, the price is stored in cents
+ *     and the time in seconds since 1970, so searching the records does not need to split or compare strings.
+ *     The donor is stored as the ID of its spelling in the {@link UserDictionary}, so the records of
+ *     a donor share one copy of the name and the line is written back with the name as it was read.
+ *     {@link #toString()} gives back the line in the same format as the file.
+ * </p>
+ */
+public final class DonationRecord {
+    private static final String SEPARATOR = ", ";
+    /**
+     * The time of a record donated before donations had a time.
+     */
+    public static final long NO_TIME = Long.MIN_VALUE;
+    static final long SECONDS_PER_DAY = 86_400;
+    // The length of a time as it is written, e.g. "2026-10-17T09:30:00Z"
+    private static final int TIME_LENGTH = 20;
+
+    public enum Category {
+        SHIRT("Shirt"), HOODIE("Hoodie"), JACKET("Jacket"), PANT("Pant"), TROUSER("Trouser");
+
+        private final String label;
+
+        Category(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public static Category fromLabel(String label) {
+            for (Category category : values()) {
+                if (category.label.equalsIgnoreCase(label)) {
+                    return category;
+                }
+            }
+            return null;
+        }
+    }
+
+    public enum Size {
+        XS, S, M, L, XL;
+
+        public String getLabel() {
+            return name();
+        }
+
+        public static Size fromLabel(String label) {
+            for (Size size : values()) {
+                if (size.name().equalsIgnoreCase(label)) {
+                    return size;
+                }
+            }
+            return null;
+        }
+    }
+
+    public enum Quality {
+        LOW("Low", 2000), MEDIUM("Medium", 3000), HIGH("High", 4000);
+
+        private final String label;
+        private final int basePriceCents;
+
+        Quality(String label, int basePriceCents) {
+            this.label = label;
+            this.basePriceCents = basePriceCents;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public int getBasePriceCents() {
+            return basePriceCents;
+        }
+
+        public static Quality fromLabel(String label) {
+            for (Quality quality : values()) {
+                if (quality.label.equalsIgnoreCase(label)) {
+                    return quality;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Maps the menu key (L, M or H) to a quality.
+         */
+        public static Quality fromKey(String key) {
+            for (Quality quality : values()) {
+                if (quality.label.substring(0, 1).equalsIgnoreCase(key)) {
+                    return quality;
+                }
+            }
+            return null;
+        }
+    }
+
+    public enum Gender {
+        MALE("Male"), FEMALE("Female"), UNISEX("Unisex");
+
+        private final String label;
+
+        Gender(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public static Gender fromLabel(String label) {
+            for (Gender gender : values()) {
+                if (gender.label.equalsIgnoreCase(label)) {
+                    return gender;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Maps the menu key (M, F or U) to a gender.
+         */
+        public static Gender fromKey(String key) {
+            for (Gender gender : values()) {
+                if (gender.label.substring(0, 1).equalsIgnoreCase(key)) {
+                    return gender;
+                }
+            }
+            return null;
+        }
+    }
+
+    // Cached values() and labels of the enums, in ordinal order, used while parsing
+    private static final Category[] CATEGORY_VALUES = Category.values();
+    private static final Size[] SIZE_VALUES = Size.values();
+    private static final Quality[] QUALITY_VALUES = Quality.values();
+    private static final Gender[] GENDER_VALUES = Gender.values();
+    private static final String[] CATEGORIES = new String[CATEGORY_VALUES.length];
+    private static final String[] SIZES = new String[SIZE_VALUES.length];
+    private static final String[] QUALITIES = new String[QUALITY_VALUES.length];
+    private static final String[] GENDERS = new String[GENDER_VALUES.length];
+
+    static {
+        for (Category category : CATEGORY_VALUES) {
+            CATEGORIES[category.ordinal()] = category.getLabel();
+        }
+        for (Size size : SIZE_VALUES) {
+            SIZES[size.ordinal()] = size.getLabel();
+        }
+        for (Quality quality : QUALITY_VALUES) {
+            QUALITIES[quality.ordinal()] = quality.getLabel();
+        }
+        for (Gender gender : GENDER_VALUES) {
+            GENDERS[gender.ordinal()] = gender.getLabel();
+        }
+    }
+
+    private final int donorId;
+    private final Category category;
+    private final Size size;
+    private final Quality quality;
+    private final Gender gender;
+    private final int priceCents;
+    private final long time;
+
+    /**
+     * Creates a record donated now.
+     */
+    public DonationRecord(String donor, Category category, Size size, Quality quality, Gender gender, int priceCents) {
+        this(donor, category, size, quality, gender, priceCents, now());
+    }
+
+    /**
+     * Creates a record donated at the given time, in seconds since 1970 or {@link #NO_TIME}.
+     */
+    public DonationRecord(String donor, Category category, Size size, Quality quality, Gender gender, int priceCents,
+                          long time) {
+        this(UserDictionary.global().idOf(donor), category, size, quality, gender, priceCents, time);
+    }
+
+    /**
+     * Creates a record of the donor with the given ID in the {@link UserDictionary}, donated at the given
+     * time, in seconds since 1970 or {@link #NO_TIME}.
+     */
+    public DonationRecord(int donorId, Category category, Size size, Quality quality, Gender gender, int priceCents,
+                          long time) {
+        this.donorId = donorId;
+        this.category = category;
+        this.size = size;
+        this.quality = quality;
+        this.gender = gender;
+        this.priceCents = priceCents;
+        this.time = time;
+    }
+
+    /**
+     * Returns the current time in whole seconds since 1970, the precision donations are stored with.
+     */
+    public static long now() {
+        return Math.floorDiv(System.currentTimeMillis(), 1000);
+    }
+
+    /**
+     * Parses a line of clothesList.txt.
+     * The fields are read from the end of the line, so a donor name may itself contain ", ".
+     * A line whose last field is not a time is a line from before donations had a time.
+     *
+     * @return the parsed record, or null if the line is not a valid donation
+     */
+    public static DonationRecord parse(String line) {
+        if (line == null) {
+            return null;
+        }
+        int end = line.length();
+        long time = NO_TIME;
+        int last = line.lastIndexOf(SEPARATOR);
+        if (last >= 0) {
+            time = parseTime(line, last + SEPARATOR.length(), end);
+            if (time != NO_TIME) {
+                end = last;
+            }
+        }
+        // Field i spans [starts[i], ends[i]) of the line; only the donor name is copied out
+        int[] starts = new int[5];
+        int[] ends = new int[5];
+        for (int i = starts.length - 1; i >= 0; i--) {
+            int start = line.lastIndexOf(SEPARATOR, end - 1);
+            if (start < 0) {
+                return null;
+            }
+            starts[i] = start + SEPARATOR.length();
+            ends[i] = end;
+            end = start;
+        }
+        String donor = line.substring(0, end).trim();
+
+        int category = matchLabel(line, starts[0], ends[0], CATEGORIES);
+        int size = matchLabel(line, starts[1], ends[1], SIZES);
+        int quality = matchLabel(line, starts[2], ends[2], QUALITIES);
+        int gender = matchLabel(line, starts[3], ends[3], GENDERS);
+        int priceCents = parsePriceCents(line, starts[4], ends[4]);
+        if (donor.isEmpty() || category < 0 || size < 0 || quality < 0 || gender < 0 || priceCents < 0) {
+            return null;
+        }
+        return new DonationRecord(donor, CATEGORY_VALUES[category], SIZE_VALUES[size],
+                QUALITY_VALUES[quality], GENDER_VALUES[gender], priceCents, time);
+    }
+
+    /**
+     * Parses a time like "2026-10-17T09:30:00Z" into seconds since 1970.
+     *
+     * @return the time, or {@link #NO_TIME} if the text is not a time
+     */
+    public static long parseTime(String text) {
+        return parseTime(text, 0, text.length());
+    }
+
+    /**
+     * Parses the time between start and end of the text. Leading and trailing whitespace is ignored.
+     * The format the records are written in is parsed by hand; other ISO-8601 instants, e.g. with
+     * fractions of a second, are passed to {@link Instant#parse(CharSequence)}.
+     */
+    static long parseTime(String text, int start, int end) {
+        while (start < end && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        // A price never has a T, so most lines without a time are told apart by one character
+        if (end - start < TIME_LENGTH || text.charAt(start + 10) != 'T') {
+            return NO_TIME;
+        }
+        if (end - start == TIME_LENGTH && text.charAt(start + 4) == '-' && text.charAt(start + 7) == '-'
+                && text.charAt(start + 13) == ':' && text.charAt(start + 16) == ':' && text.charAt(start + 19) == 'Z') {
+            int year = digits(text, start, 4);
+            int month = digits(text, start + 5, 2);
+            int day = digits(text, start + 8, 2);
+            int hour = digits(text, start + 11, 2);
+            int minute = digits(text, start + 14, 2);
+            int second = digits(text, start + 17, 2);
+            if (year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= LocalDate.of(year, month, 1).lengthOfMonth()
+                    && hour >= 0 && hour < 24 && minute >= 0 && minute < 60 && second >= 0 && second < 60) {
+                return LocalDate.of(year, month, day).toEpochDay() * SECONDS_PER_DAY + hour * 3600 + minute * 60 + second;
+            }
+            return NO_TIME;
+        }
+        try {
+            return Instant.parse(text.subSequence(start, end)).getEpochSecond();
+        } catch (DateTimeParseException e) {
+            return NO_TIME;
+        }
+    }
+
+    /**
+     * Returns the number written with the given number of digits at start of the text, or -1 if one is not a digit.
+     */
+    private static int digits(String text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Appends a time in the format of the file, e.g. "2026-10-17T09:30:00Z".
+     */
+    static StringBuilder appendTime(StringBuilder text, long time) {
+        LocalDate date = LocalDate.ofEpochDay(Math.floorDiv(time, SECONDS_PER_DAY));
+        int secondOfDay = (int) Math.floorMod(time, SECONDS_PER_DAY);
+        if (date.getYear() < 1000 || date.getYear() > 9999) {
+            // Outside the fixed-width format, but still an instant that parses back
+            return text.append(Instant.ofEpochSecond(time));
+        }
+        text.append(date.getYear()).append('-');
+        appendTwoDigits(text, date.getMonthValue()).append('-');
+        appendTwoDigits(text, date.getDayOfMonth()).append('T');
+        appendTwoDigits(text, secondOfDay / 3600).append(':');
+        appendTwoDigits(text, secondOfDay / 60 % 60).append(':');
+        return appendTwoDigits(text, secondOfDay % 60).append('Z');
+    }
+
+    private static StringBuilder appendTwoDigits(StringBuilder text, int value) {
+        return text.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    /**
+     * Returns the time in the format of the file, or null for {@link #NO_TIME}.
+     */
+    public static String formatTime(long time) {
+        return (time == NO_TIME) ? null : appendTime(new StringBuilder(TIME_LENGTH), time).toString();
+    }
+
+    /**
+     * Returns the index of the label that the (trimmed) text between start and end matches, ignoring case.
+     *
+     * @return the index of the label, or -1 if no label matches
+     */
+    private static int matchLabel(String line, int start, int end, String[] labels) {
+        while (start < end && Character.isWhitespace(line.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(line.charAt(end - 1))) {
+            end--;
+        }
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i].length() == end - start && line.regionMatches(true, start, labels[i], 0, end - start)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses a price like "$30.01" or "$20.1" into cents.
+     *
+     * @return the price in cents, or -1 if the text is not a valid price or more than Integer.MAX_VALUE cents
+     */
+    static int parsePriceCents(String text) {
+        return parsePriceCents(text, 0, text.length());
+    }
+
+    /**
+     * Parses the price between start and end of the text into cents.
+     * Leading and trailing whitespace is ignored.
+     */
+    static int parsePriceCents(String text, int start, int end) {
+        while (start < end && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        int i = (start < end && text.charAt(start) == '$') ? start + 1 : start;
+        long dollars = 0;
+        int cents = 0;
+        int digits = 0;
+        boolean fraction = false;
+        int fractionDigits = 0;
+
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '.' && !fraction) {
+                fraction = true;
+            } else if (c >= '0' && c <= '9') {
+                digits++;
+                if (!fraction) {
+                    dollars = dollars * 10 + (c - '0');
+                    if (dollars > Integer.MAX_VALUE / 100) {
+                        return -1;
+                    }
+                } else if (fractionDigits < 2) {
+                    cents = cents * 10 + (c - '0');
+                    fractionDigits++;
+                }
+            } else {
+                return -1;
+            }
+        }
+        if (digits == 0) {
+            return -1;
+        }
+        if (fractionDigits == 1) {
+            cents *= 10;
+        }
+        long priceCents = dollars * 100 + cents;
+        return (priceCents > Integer.MAX_VALUE) ? -1 : (int) priceCents;
+    }
+
+    /**
+     * Formats cents the same way the price has always been written to the file, e.g. 2010 -> "20.1".
+     */
+    static String formatPrice(int priceCents) {
+        return String.valueOf(priceCents / 100.0);
+    }
+
+    /**
+     * Returns the name of the donor, spelled as when the item was donated.
+     */
+    public String getDonor() {
+        return UserDictionary.global().nameOf(donorId);
+    }
+
+    /**
+     * Returns the ID of the spelling of the donor's name in the {@link UserDictionary}.
+     */
+    public int getDonorId() {
+        return donorId;
+    }
+
+    /**
+     * Returns the ID of the donor in the {@link UserDictionary}, the same for every spelling of the name.
+     */
+    public int getUserId() {
+        return UserDictionary.global().userOf(donorId);
+    }
+
+    /**
+     * Returns this record with the donor's name spelled as the spelling with the given ID.
+     */
+    DonationRecord withDonorId(int donorId) {
+        return (donorId == this.donorId) ? this
+                : new DonationRecord(donorId, category, size, quality, gender, priceCents, time);
+    }
+
+    public Category getCategory() {
+        return category;
+    }
+
+    public Size getSize() {
+        return size;
+    }
+
+    public Quality getQuality() {
+        return quality;
+    }
+
+    public Gender getGender() {
+        return gender;
+    }
+
+    public int getPriceCents() {
+        return priceCents;
+    }
+
+    /**
+     * Returns the time the item was donated, in seconds since 1970, or {@link #NO_TIME} if it is not known.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public boolean hasTime() {
+        return time != NO_TIME;
+    }
+
+    /**
+     * Returns the day the item was donated, in days since 1970 in UTC. Only valid if the record has a time.
+     */
+    public long getDay() {
+        return Math.floorDiv(time, SECONDS_PER_DAY);
+    }
+
+    /**
+     * Appends the line of this record, as {@link #toString()} returns it, without building a string for it.
+     */
+    public StringBuilder appendTo(StringBuilder line) {
+        line.append(getDonor()).append(SEPARATOR).append(category.getLabel()).append(SEPARATOR)
+                .append(size.getLabel()).append(SEPARATOR).append(quality.getLabel()).append(SEPARATOR)
+                .append(gender.getLabel()).append(SEPARATOR).append('$').append(priceCents / 100.0);
+        return (time == NO_TIME) ? line : appendTime(line.append(SEPARATOR), time);
+    }
+
+    @Override
+    public String toString() {
+        return appendTo(new StringBuilder(64)).toString();
+    }
+}
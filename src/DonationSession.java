@@ -0,0 +1,55 @@
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * This class is the context of one user's visit to the Clothes Donation System, e.g. at one kiosk.
+ * <p>
+ *     Every session knows its own user, so many sessions can use the same {@link DonationStore}
+ *     at the same time from different threads without sharing any state but the store.
+ * </p>
+ */
+public class DonationSession {
+    private final DonationStore store;
+    private final String username;
+
+    DonationSession(DonationStore store, String username) {
+        this.store = store;
+        this.username = username;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Returns true if the user of this session already exists in the system.
+     */
+    public boolean isReturningUser() {
+        return store.hasUser(username);
+    }
+
+    /**
+     * Adds the user of this session to the system if it does not exist yet.
+     *
+     * @return true if the user was added
+     */
+    public boolean register() throws IOException {
+        return store.addUser(username);
+    }
+
+    public List<DonationRecord> previousDonations() throws IOException {
+        return store.previousDonations(username);
+    }
+
+    /**
+     * Donates an item in the name of the user of this session.
+     */
+    public DonationRecord donate(DonationRecord.Category category, DonationRecord.Size size,
+                                 DonationRecord.Quality quality, DonationRecord.Gender gender) throws IOException {
+        return store.donate(username, category, size, quality, gender);
+    }
+
+    public DonationStore getStore() {
+        return store;
+    }
+}
@@ -0,0 +1,231 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class keeps the number and the total estimated worth of the donated clothes.
+ * <p>
+ *     The totals are kept for every combination of category, size, quality and gender, including
+ *     "any" for each of them, so e.g. the number of High quality Female items of any category and
+ *     size is a single read. Every donation updates the 16 combinations it belongs to, so the totals
+ *     never have to be computed by reading the clothes again. Totals are also kept per donor, by the
+ *     ID of the user in the {@link UserDictionary}.
+ *     All worths are in cents, the same as {@link DonationRecord#getPriceCents()}.
+ * </p>
+ * <p>
+ *     One thread at a time may add donations while other threads read without locking.
+ *     A reader may see the count of a donation that is being added before its worth.
+ * </p>
+ * <p>
+ *     {@link #sumOf(List)} returns a read-only view that adds up the totals of several statistics,
+ *     e.g. of all shards of the inventory (see {@link ClothesShard}).
+ * </p>
+ */
+public class DonationStatistics {
+    private static final int CATEGORIES = DonationRecord.Category.values().length + 1;
+    private static final int SIZES = DonationRecord.Size.values().length + 1;
+    private static final int QUALITIES = DonationRecord.Quality.values().length + 1;
+    private static final int GENDERS = DonationRecord.Gender.values().length + 1;
+    private static final int CELLS = CATEGORIES * SIZES * QUALITIES * GENDERS;
+
+    // The count of a combination is at 2 * cell, its worth at 2 * cell + 1
+    private final AtomicLongArray totals;
+    private final IdTable<DonorTotals> byDonor;
+    // The statistics added up by a view, or null if these statistics hold their own totals
+    private final List<DonationStatistics> parts;
+
+    /**
+     * The number and worth of the donations of one donor.
+     */
+    private static final class DonorTotals {
+        volatile long count;
+        volatile long worthCents;
+    }
+
+    public DonationStatistics() {
+        this.totals = new AtomicLongArray(CELLS * 2);
+        this.byDonor = new IdTable<>();
+        this.parts = null;
+    }
+
+    private DonationStatistics(List<DonationStatistics> parts) {
+        this.totals = null;
+        this.byDonor = null;
+        this.parts = parts;
+    }
+
+    /**
+     * Returns a read-only view whose totals are the sums of the totals of the given statistics.
+     * The view is always up to date with them.
+     */
+    public static DonationStatistics sumOf(List<DonationStatistics> parts) {
+        return (parts.size() == 1) ? parts.get(0) : new DonationStatistics(List.copyOf(parts));
+    }
+
+    /**
+     * Adds a donation to the totals. Only one thread may add at a time.
+     */
+    public void add(DonationRecord record) {
+        if (parts != null) {
+            throw new UnsupportedOperationException("Donations are added to the statistics of a shard, not to their sum");
+        }
+        int category = record.getCategory().ordinal();
+        int size = record.getSize().ordinal();
+        int quality = record.getQuality().ordinal();
+        int gender = record.getGender().ordinal();
+        // Every combination of the record's own value and "any" for the four attributes
+        for (int any = 0; any < 16; any++) {
+            int cell = cell((any & 1) == 0 ? category : CATEGORIES - 1,
+                    (any & 2) == 0 ? size : SIZES - 1,
+                    (any & 4) == 0 ? quality : QUALITIES - 1,
+                    (any & 8) == 0 ? gender : GENDERS - 1);
+            totals.set(2 * cell, totals.get(2 * cell) + 1);
+            totals.set(2 * cell + 1, totals.get(2 * cell + 1) + record.getPriceCents());
+        }
+
+        DonorTotals donor = byDonor.computeIfAbsent(record.getUserId(), id -> new DonorTotals());
+        donor.count = donor.count + 1;
+        donor.worthCents = donor.worthCents + record.getPriceCents();
+    }
+
+    private static int cell(int category, int size, int quality, int gender) {
+        return ((category * SIZES + size) * QUALITIES + quality) * GENDERS + gender;
+    }
+
+    private static int cell(DonationRecord.Category category, DonationRecord.Size size,
+                            DonationRecord.Quality quality, DonationRecord.Gender gender) {
+        return cell(category == null ? CATEGORIES - 1 : category.ordinal(),
+                size == null ? SIZES - 1 : size.ordinal(),
+                quality == null ? QUALITIES - 1 : quality.ordinal(),
+                gender == null ? GENDERS - 1 : gender.ordinal());
+    }
+
+    /**
+     * Returns the number of donated items with all of the given values. A null value matches every item.
+     */
+    public long count(DonationRecord.Category category, DonationRecord.Size size,
+                      DonationRecord.Quality quality, DonationRecord.Gender gender) {
+        if (parts != null) {
+            long count = 0;
+            for (DonationStatistics part : parts) {
+                count += part.count(category, size, quality, gender);
+            }
+            return count;
+        }
+        return totals.get(2 * cell(category, size, quality, gender));
+    }
+
+    /**
+     * Returns the total worth in cents of the donated items with all of the given values.
+     * A null value matches every item.
+     */
+    public long worthCents(DonationRecord.Category category, DonationRecord.Size size,
+                           DonationRecord.Quality quality, DonationRecord.Gender gender) {
+        if (parts != null) {
+            long worth = 0;
+            for (DonationStatistics part : parts) {
+                worth += part.worthCents(category, size, quality, gender);
+            }
+            return worth;
+        }
+        return totals.get(2 * cell(category, size, quality, gender) + 1);
+    }
+
+    /**
+     * Returns the number of donated items.
+     */
+    public long getCount() {
+        return count(null, null, null, null);
+    }
+
+    /**
+     * Returns the total worth in cents of the donated items.
+     */
+    public long getWorthCents() {
+        return worthCents(null, null, null, null);
+    }
+
+    /**
+     * Returns the number of items donated by the given user. Whitespace and case in the username are ignored.
+     */
+    public long donorCount(String username) {
+        if (parts != null) {
+            long count = 0;
+            for (DonationStatistics part : parts) {
+                count += part.donorCount(username);
+            }
+            return count;
+        }
+        DonorTotals donor = byDonor.get(UserDictionary.global().find(username));
+        return (donor == null) ? 0 : donor.count;
+    }
+
+    /**
+     * Returns the total worth in cents of the items donated by the given user.
+     * Whitespace and case in the username are ignored.
+     */
+    public long donorWorthCents(String username) {
+        if (parts != null) {
+            long worth = 0;
+            for (DonationStatistics part : parts) {
+                worth += part.donorWorthCents(username);
+            }
+            return worth;
+        }
+        DonorTotals donor = byDonor.get(UserDictionary.global().find(username));
+        return (donor == null) ? 0 : donor.worthCents;
+    }
+
+    /**
+     * Writes the totals, e.g. to a {@link StoreSnapshot}. No donations may be added at the same time.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(totals.length());
+        // Most combinations have no donations, so only the other totals are written with their position
+        int used = 0;
+        for (int i = 0; i < totals.length(); i++) {
+            if (totals.get(i) != 0) {
+                used++;
+            }
+        }
+        out.writeInt(used);
+        for (int i = 0; i < totals.length(); i++) {
+            if (totals.get(i) != 0) {
+                out.writeInt(i);
+                out.writeLong(totals.get(i));
+            }
+        }
+    }
+
+    /**
+     * Reads totals written by {@link #writeTo(DataOutputStream)} for the given records.
+     * The totals of every donor are not written but added up from the records.
+     */
+    static DonationStatistics readFrom(ByteBuffer in, List<DonationRecord> records) {
+        DonationStatistics statistics = new DonationStatistics();
+        int length = in.getInt();
+        if (length != statistics.totals.length()) {
+            throw new IllegalStateException("The statistics were written for other categories, sizes, qualities or genders");
+        }
+        int used = in.getInt();
+        for (int i = 0; i < used; i++) {
+            statistics.totals.set(in.getInt(), in.getLong());
+        }
+        for (DonationRecord record : records) {
+            DonorTotals donor = statistics.byDonor.computeIfAbsent(record.getUserId(), id -> new DonorTotals());
+            donor.count = donor.count + 1;
+            donor.worthCents = donor.worthCents + record.getPriceCents();
+        }
+        return statistics;
+    }
+
+    /**
+     * Formats a worth in cents as dollars with two decimals, e.g. 4010 -> "40.10".
+     */
+    public static String formatWorth(long worthCents) {
+        return BigDecimal.valueOf(worthCents, 2).toPlainString();
+    }
+}
@@ -0,0 +1,1015 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * This class holds the data of the Clothes Donation System and the operations on it.
+ * <p>
+ *     It loads the users, clothes and donation companies files, keeps the donated clothes
+ *     as {@link DonationRecord}s with their {@link DonationIndex} and {@link DonationStatistics},
+ *     and appends new users and donations to their files. It does not read from or print to the console, so it can be
+ *     used by the console menu in {@link ClothesDonationSystem} as well as by other programs
+ *     such as {@link DonationBenchmark}.
+ * </p>
+ * <p>
+ *     The clothes are split into {@link ClothesShard}s as described by the {@link ShardManifest}.
+ *     The users and clothes are only read from their files again when the files have changed,
+ *     and if another program has appended to them only the new lines are read.
+ *     Run with -Dcds.loadStats=true to print the load throughput of every file.
+ * </p>
+ * <p>
+ *     The store is safe to use from many threads, e.g. one per kiosk session (see {@link DonationSession}),
+ *     and from several programs on the same files (see {@link SharedFileLock}), except for {@link #reshard(int)}.
+ *     Writers of the users take the users lock and writers of the clothes take the lock of their
+ *     shard, because every write is appended to a single file. Readers never lock.
+ * </p>
+ */
+public class DonationStore {
+    // Runs the work of one operation on all shards at the same time
+    private static final ExecutorService SHARD_EXECUTOR = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), task -> {
+                Thread thread = new Thread(task, "shard-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+    // Allocates the donations of all stores after they were made, so donors never wait for the allocator
+    private static final ExecutorService ALLOCATION_EXECUTOR = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "allocator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String usersFile;
+    private final String clothesFile;
+
+    private final ConcurrentRecordList<String> usersList = new ConcurrentRecordList<>();
+    // The IDs of the registered users (see UserDictionary), set under the users lock
+    private final ConcurrentBitmap registeredUsers = new ConcurrentBitmap();
+    // Read from the manifest on first use, replaced by a resharding
+    private volatile ShardSet shardSet;
+    private final OrganizationRegistry organizations;
+    private final DonationAllocator allocator = new DonationAllocator();
+    // Set while an allocation of new donations waits for the allocator thread
+    private final AtomicBoolean allocationPending = new AtomicBoolean();
+    private final DonationFeed feed;
+
+    private final AppendOnlyLog usersLog;
+    private final SharedFileLock snapshotLock;
+    private final ReentrantLock usersLock = new ReentrantLock();
+
+    private final boolean printLoadStats = Boolean.getBoolean("cds.loadStats");
+    private final boolean offHeap = Boolean.getBoolean("cds.offHeap");
+    private final DonationMetrics metrics = new DonationMetrics();
+
+    /**
+     * The shards of the clothes together with the manifest that describes them.
+     */
+    static final class ShardSet {
+        final ShardManifest manifest;
+        final List<ClothesShard> shards;
+
+        ShardSet(ShardManifest manifest, List<ClothesShard> shards) {
+            this.manifest = manifest;
+            this.shards = shards;
+        }
+
+        ClothesShard shardOf(String donor) {
+            return shards.get(manifest.shardOf(donor));
+        }
+    }
+
+    /**
+     * Work done on one shard.
+     */
+    private interface ShardTask<T> {
+        T run(ClothesShard shard) throws IOException;
+    }
+
+    public DonationStore(String usersFile, String clothesFile, String donationCompaniesFile) {
+        this.usersFile = usersFile;
+        this.clothesFile = clothesFile;
+        this.organizations = new OrganizationRegistry(donationCompaniesFile);
+        this.usersLog = new AppendOnlyLog(usersFile);
+        this.snapshotLock = new SharedFileLock(snapshotPath().toString());
+        this.feed = new DonationFeed(this, clothesFile);
+    }
+
+    /**
+     * Returns the shards, reading the manifest on first use.
+     */
+    ShardSet shards() throws IOException {
+        ShardSet current = shardSet;
+        if (current == null) {
+            synchronized (this) {
+                if (shardSet == null) {
+                    shardSet = newShardSet(ShardManifest.read(clothesFile));
+                }
+                current = shardSet;
+            }
+        }
+        return current;
+    }
+
+    private ShardSet newShardSet(ShardManifest manifest) {
+        List<ClothesShard> shards = new ArrayList<>(manifest.size());
+        for (String file : manifest.getShardFiles()) {
+            shards.add(new ClothesShard(file, metrics, printLoadStats, offHeap));
+        }
+        return new ShardSet(manifest, Collections.unmodifiableList(shards));
+    }
+
+    /**
+     * Runs the task on every shard, in parallel if there are several, and returns the results in shard order.
+     */
+    private static <T> List<T> forEachShard(List<ClothesShard> shards, ShardTask<T> task) throws IOException {
+        if (shards.size() == 1) {
+            return Collections.singletonList(task.run(shards.get(0)));
+        }
+        List<Callable<T>> tasks = new ArrayList<>(shards.size());
+        for (ClothesShard shard : shards) {
+            tasks.add(() -> task.run(shard));
+        }
+        try {
+            List<T> results = new ArrayList<>(shards.size());
+            for (Future<T> future : SHARD_EXECUTOR.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Waiting for the shards was interrupted.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("A shard failed", e.getCause());
+        }
+    }
+
+    /**
+     * Loads the users, clothes and donation companies from their files,
+     * starting from the snapshot written by {@link #close()} if it still fits the files,
+     * and allocates the clothes to the needs of the organizations.
+     */
+    public void load() throws IOException {
+        restoreSnapshot();
+        loadUsersData();
+        forEachShard(shards().shards, shard -> {
+            shard.open();
+            shard.load();
+            return null;
+        });
+        loadDonationCompaniesData();
+        allocateNewDonations();
+    }
+
+    public void loadUsersData() throws IOException {
+        usersLock.lock();
+        try {
+            usersLog.lock();
+            try {
+                readUsers();
+            } finally {
+                usersLog.unlock();
+            }
+        } finally {
+            usersLock.unlock();
+        }
+    }
+
+    /**
+     * Registers the users added to the users file since it was last read.
+     * The caller holds the users lock and the lock of the users file.
+     */
+    private void readUsers() throws IOException {
+        long start = System.nanoTime();
+        OperationMetrics loadUsers = metrics.get(DonationMetrics.Operation.LOAD_USERS);
+        long readFrom = usersLog.getSyncedLength();
+        List<String> users = usersLog.readAppended();
+        if (users == null) {
+            // Never read, or rewritten since, so read all of it
+            users = usersLog.readLive(Function.identity());
+            readFrom = 0;
+            printLoadStats(usersFile, usersLog.getLastLoad());
+        }
+        for (String user : users) {
+            register(user);
+        }
+        loadUsers.addBytesRead(usersLog.getSyncedLength() - readFrom);
+        loadUsers.record(start, users.size());
+    }
+
+    /**
+     * Brings the clothes in memory up to date with the shard files.
+     * Shards whose file has not changed since it was last read, or that another thread is
+     * writing to at the moment, are skipped (that thread brings the shard up to date itself).
+     */
+    public void loadClothesData() throws IOException {
+        List<ClothesShard> shards = shards().shards;
+        if (shards.size() == 1) {
+            shards.get(0).load();
+            return;
+        }
+        forEachShard(shards, shard -> {
+            shard.load();
+            return null;
+        });
+    }
+
+    private Path snapshotPath() {
+        return Paths.get(clothesFile + ".snapshot");
+    }
+
+    /**
+     * Restores the users and clothes from the snapshot, if there is one and none of the files has been
+     * rewritten since it was taken. Afterwards only the lines appended to the files are read.
+     *
+     * @return false if there was no snapshot that could be restored
+     */
+    private boolean restoreSnapshot() throws IOException {
+        long start = System.nanoTime();
+        StoreSnapshot snapshot;
+        try {
+            snapshot = StoreSnapshot.read(snapshotPath());
+        } catch (IOException e) {
+            // A damaged or outdated snapshot only means the files are read in full
+            if (printLoadStats) {
+                System.out.println("Ignoring the snapshot: " + e.getMessage());
+            }
+            return false;
+        }
+        ShardSet current = shards();
+        List<ClothesShard> shards = current.shards;
+        if (snapshot == null || !snapshot.matches(usersFile, current.manifest.getShardFiles())) {
+            return false;
+        }
+
+        usersLock.lock();
+        try {
+            for (String user : snapshot.getUsers()) {
+                register(user);
+            }
+            usersLog.resumeFrom(snapshot.getUsersPosition().length, snapshot.getUsersPosition().deadLines);
+        } finally {
+            usersLock.unlock();
+        }
+        for (int i = 0; i < shards.size(); i++) {
+            shards.get(i).restore(snapshot.getShards().get(i));
+        }
+        OperationMetrics loadSnapshot = metrics.get(DonationMetrics.Operation.LOAD_SNAPSHOT);
+        loadSnapshot.addBytesRead(Files.size(snapshotPath()));
+        loadSnapshot.record(start, snapshot.getClothesCount());
+        return true;
+    }
+
+    /**
+     * Writes a snapshot of the users and of the clothes, index and statistics of every shard, together
+     * with the length of the users file and the shard files they were read from. All files are brought
+     * up to date first. New users and donations wait until the snapshot is written.
+     */
+    public void saveSnapshot() throws IOException {
+        long start = System.nanoTime();
+        List<ClothesShard> shards = shards().shards;
+        usersLock.lock();
+        int locked = 0;
+        try {
+            // The shards are always locked in the same order, so two snapshots can not wait for each other
+            for (ClothesShard shard : shards) {
+                shard.getLock().lock();
+                locked++;
+            }
+            loadUsersData();
+            List<StoreSnapshot.Shard> states = new ArrayList<>(shards.size());
+            for (ClothesShard shard : shards) {
+                states.add(shard.capture());
+            }
+            StoreSnapshot snapshot = new StoreSnapshot(usersList.snapshot(),
+                    StoreSnapshot.FilePosition.of(usersFile, usersLog.getSyncedLength(), usersLog.getDeadLines()),
+                    states);
+            long bytes;
+            // Other programs using the same files write the same snapshot
+            snapshotLock.lock();
+            try {
+                bytes = snapshot.write(snapshotPath());
+            } finally {
+                snapshotLock.unlock();
+            }
+            OperationMetrics saveSnapshot = metrics.get(DonationMetrics.Operation.SAVE_SNAPSHOT);
+            saveSnapshot.addBytesWritten(bytes);
+            saveSnapshot.record(start, snapshot.getClothesCount());
+        } finally {
+            for (int i = locked - 1; i >= 0; i--) {
+                shards.get(i).getLock().unlock();
+            }
+            usersLock.unlock();
+        }
+    }
+
+    /**
+     * Reads the organizations and their needs if the file has changed. If it has, the clothes are
+     * allocated to the needs again by the next allocation.
+     */
+    public void loadDonationCompaniesData() throws IOException {
+        if (organizations.load()) {
+            allocator.setNeeds(organizations.getNeeds());
+        }
+    }
+
+    private void printLoadStats(String fileName, ParallelLoader.Result<?> result) {
+        if (printLoadStats && result != null) {
+            System.out.println("Loaded " + fileName + ": " + result);
+        }
+    }
+
+    /**
+     * Opens a session for the given user. The user is not registered until {@link DonationSession#register()}.
+     */
+    public DonationSession openSession(String username) {
+        return new DonationSession(this, username);
+    }
+
+    /**
+     * Returns true if the user is registered. Whitespace and case in the username are ignored.
+     */
+    public boolean hasUser(String username) {
+        int id = UserDictionary.global().find(username);
+        return id >= 0 && registeredUsers.get(id);
+    }
+
+    /**
+     * Registers the user in memory unless it is registered in any spelling. The caller holds the users lock.
+     *
+     * @return the name of the user, or null if it was registered already
+     */
+    private String register(String username) {
+        UserDictionary dictionary = UserDictionary.global();
+        int id = dictionary.idOf(username);
+        int userId = dictionary.userOf(id);
+        if (registeredUsers.get(userId)) {
+            return null;
+        }
+        registeredUsers.set(userId);
+        usersList.add(dictionary.nameOf(id));
+        return dictionary.nameOf(id);
+    }
+
+    /**
+     * Returns true if the username can be stored: it is not blank, has no control characters such as
+     * line breaks, and does not start like the archive header line of a clothes file (see
+     * {@link DonationArchive}). Every line of the users and clothes files starts with a username,
+     * so any other name could add or remove lines.
+     */
+    public static boolean isValidUsername(String username) {
+        if (username == null || username.trim().isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < username.length(); i++) {
+            char c = username.charAt(i);
+            if (Character.isISOControl(c) || c == '\u2028' || c == '\u2029') {
+                return false;
+            }
+        }
+        String trimmed = username.trim();
+        return !trimmed.startsWith(DonationArchive.HEADER_PREFIX);
+    }
+
+    /**
+     * Checks that the username can be stored (see {@link #isValidUsername(String)}).
+     *
+     * @throws IllegalArgumentException if it can not
+     */
+    public static void checkUsername(String username) {
+        if (!isValidUsername(username)) {
+            throw new IllegalArgumentException("Invalid username: a username must not be blank, contain control"
+                    + " characters or start with \"" + DonationArchive.HEADER_PREFIX.trim() + "\".");
+        }
+    }
+
+    /**
+     * Adds a new user and appends it to the users file.
+     *
+     * @return false if the user already exists, also if it is spelled with other whitespace or case
+     */
+    public boolean addUser(String username) throws IOException {
+        return addUsers(Collections.singletonList(username)) == 1;
+    }
+
+    /**
+     * Adds the users that do not exist yet and appends them to the users file with a single write,
+     * which is forced to disk before this method returns.
+     *
+     * @return the number of users added
+     * @throws IllegalArgumentException if any of the usernames can not be stored (see {@link #isValidUsername(String)})
+     */
+    public int addUsers(Collection<String> usernames) throws IOException {
+        for (String username : usernames) {
+            checkUsername(username);
+        }
+        usersLock.lock();
+        try {
+            usersLog.lock();
+            try {
+                // Users that other programs have added since are not added again
+                if (!usersLog.isUpToDate()) {
+                    readUsers();
+                }
+                List<String> added = new ArrayList<>();
+                for (String username : usernames) {
+                    String name = register(username);
+                    if (name != null) {
+                        added.add(name);
+                    }
+                }
+                if (!added.isEmpty()) {
+                    usersLog.appendAll(added);
+                    usersLog.force();
+                }
+                return added.size();
+            } finally {
+                usersLog.unlock();
+            }
+        } finally {
+            usersLock.unlock();
+        }
+    }
+
+    public List<String> getUsers() {
+        return usersList.snapshot();
+    }
+
+    /**
+     * Returns the clothes donated by the given user, oldest first.
+     * Whitespace and case in the username are ignored.
+     */
+    public List<DonationRecord> previousDonations(String username) throws IOException {
+        if (username == null || username.trim().isEmpty()) {
+            throw new IllegalArgumentException("Invalid username provided.");
+        }
+        long start = System.nanoTime();
+        // All donations of a user are in one shard
+        ClothesShard shard = shards().shardOf(username.trim());
+        shard.load();
+        List<DonationRecord> donations = shard.previousDonations(username.trim());
+        metrics.get(DonationMetrics.Operation.PREVIOUS_DONATIONS).record(start, donations.size());
+        return donations;
+    }
+
+    /**
+     * Records a donation with a random price based on its quality and appends it to the clothes file.
+     * It returns once the donation is in the write-ahead log of its shard on disk (see {@link ClothesShard}).
+     *
+     * @return the stored donation
+     * @throws IllegalArgumentException if the username can not be stored (see {@link #isValidUsername(String)})
+     */
+    public DonationRecord donate(String username, DonationRecord.Category category, DonationRecord.Size size,
+                                 DonationRecord.Quality quality, DonationRecord.Gender gender) throws IOException {
+        checkUsername(username);
+        DonationRecord donation = new DonationRecord(username, category, size, quality, gender, generateRandomPrice(quality));
+        addDonations(Collections.singletonList(donation));
+        return donation;
+    }
+
+    /**
+     * Stores donations that already have a price and appends them to the files of their shards,
+     * with a single write per shard.
+     * <p>
+     *     Returns only once the donations are on disk in the write-ahead logs, so an acknowledged
+     *     donation survives a crash. A log is forced to disk after the lock of its shard is released,
+     *     so donations made by other threads in the meantime are forced together with these.
+     * </p>
+     *
+     * @throws IllegalArgumentException if the name of a donor can not be stored (see {@link #isValidUsername(String)})
+     */
+    public void addDonations(List<DonationRecord> donations) throws IOException {
+        for (DonationRecord donation : donations) {
+            checkUsername(donation.getDonor());
+        }
+        long start = System.nanoTime();
+        List<ClothesShard.Commit> commits = new ArrayList<>();
+        List<DonationRecord> remaining = donations;
+        while (!remaining.isEmpty()) {
+            ShardSet current = shards();
+            List<List<DonationRecord>> byShard = new ArrayList<>(current.shards.size());
+            for (int i = 0; i < current.shards.size(); i++) {
+                byShard.add(new ArrayList<>());
+            }
+            for (DonationRecord donation : remaining) {
+                byShard.get(current.manifest.shardOf(donation)).add(donation);
+            }
+
+            // Donations to a shard that a resharding has just replaced are added again to the new shards
+            List<DonationRecord> retry = new ArrayList<>();
+            for (int i = 0; i < byShard.size(); i++) {
+                if (byShard.get(i).isEmpty()) {
+                    continue;
+                }
+                ClothesShard.Commit commit = current.shards.get(i).add(byShard.get(i));
+                if (commit == null) {
+                    retry.addAll(byShard.get(i));
+                } else {
+                    commits.add(commit);
+                }
+            }
+            remaining = retry;
+        }
+
+        long syncStart = System.nanoTime();
+        for (ClothesShard.Commit commit : commits) {
+            commit.awaitDurable();
+        }
+        metrics.get(DonationMetrics.Operation.SYNC_WAIT).record(syncStart, 0);
+        feed.published();
+        allocateLater();
+        metrics.get(DonationMetrics.Operation.DONATE).record(start, donations.size());
+    }
+
+    /**
+     * Allocates the new donations on the allocator thread, if there are any needs. Donations made
+     * while an allocation is waiting are allocated by it as well, so a burst of donations costs one
+     * allocation. {@link #getAllocations()} catches up itself, so it never misses a donation.
+     */
+    private void allocateLater() {
+        if (organizations.getNeeds().isEmpty() || !allocationPending.compareAndSet(false, true)) {
+            return;
+        }
+        ALLOCATION_EXECUTOR.execute(() -> {
+            allocationPending.set(false);
+            try {
+                allocateNewDonations();
+            } catch (IOException | RuntimeException e) {
+                // The donations are allocated by the next allocation instead
+            }
+        });
+    }
+
+    /**
+     * Allocates the clothes added since the last allocation to the needs of the organizations,
+     * if there are any needs.
+     */
+    private void allocateNewDonations() throws IOException {
+        if (organizations.getNeeds().isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        long read = allocator.catchUp(shards().shards);
+        metrics.get(DonationMetrics.Operation.ALLOCATE).record(start, read);
+    }
+
+    /**
+     * Returns the change feed of the donations, which hands out the donations made since a cursor.
+     */
+    public DonationFeed getFeed() {
+        return feed;
+    }
+
+    /**
+     * Returns the latency histograms and counters of the operations of this store.
+     */
+    public DonationMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the number of times donations were forced to disk since the store was loaded.
+     */
+    public long getSyncCount() {
+        ShardSet current = shardSet;
+        long syncs = 0;
+        if (current != null) {
+            for (ClothesShard shard : current.shards) {
+                syncs += shard.getSyncCount();
+            }
+        }
+        return syncs;
+    }
+
+    /**
+     * Returns the manifest that describes the shards of the clothes.
+     */
+    public ShardManifest getManifest() throws IOException {
+        return shards().manifest;
+    }
+
+    /**
+     * Returns a price in cents between the base price of the quality and 10 cents more.
+     */
+    public int generateRandomPrice(DonationRecord.Quality quality) {
+        // Default to 0 if quality is not recognized
+        int basePrice = (quality == null) ? 0 : quality.getBasePriceCents();
+
+        // Add a random value of 0 to 10 cents to the base price
+        return basePrice + (int) Math.round(ThreadLocalRandom.current().nextDouble() * 10.0);
+    }
+
+    /**
+     * Returns the clothes matching all of the given values. A null value matches every item.
+     * The shards are searched in parallel.
+     */
+    public List<DonationRecord> search(DonationRecord.Gender gender, DonationRecord.Size size,
+                                       DonationRecord.Quality quality) throws IOException {
+        long start = System.nanoTime();
+        DonationQuery query = new DonationQuery().gender(gender).size(size).quality(quality);
+        LongAdder scanned = new LongAdder();
+        List<List<DonationRecord>> shardResults = forEachShard(shards().shards, shard -> {
+            shard.load();
+            ClothesShard.Matches matches = shard.matches(query);
+            List<DonationRecord> results = new ArrayList<>();
+            matches.forEachRemaining(results::add);
+            scanned.add(matches.scanned);
+            return results;
+        });
+        List<DonationRecord> results = concat(shardResults);
+        metrics.get(DonationMetrics.Operation.SEARCH).record(start, scanned.sum());
+        return results;
+    }
+
+    /**
+     * Returns the clothes matching the query, shard by shard and oldest first within a shard.
+     * <p>
+     *     The stream is lazy: matches are looked up in the index as the stream is consumed,
+     *     so e.g. {@code query(q).limit(20)} only visits the records up to the 20th match.
+     *     Clothes donated after the call are not part of the stream.
+     * </p>
+     */
+    public Stream<DonationRecord> query(DonationQuery query) throws IOException {
+        long start = System.nanoTime();
+        loadClothesData();
+        List<ClothesShard.Matches> shardMatches = matches(query);
+        // The stream is consumed after this returns, so only the planning of the query is timed
+        metrics.get(DonationMetrics.Operation.QUERY).record(start, 0);
+        return shardMatches.stream().flatMap(matches -> StreamSupport.stream(matches, false));
+    }
+
+    /**
+     * Returns one page of the clothes matching the query: at most pageSize matches,
+     * after skipping the first offset matches.
+     */
+    public List<DonationRecord> query(DonationQuery query, int offset, int pageSize) throws IOException {
+        if (offset < 0 || pageSize < 0) {
+            throw new IllegalArgumentException("Invalid page: offset " + offset + ", page size " + pageSize);
+        }
+        long start = System.nanoTime();
+        loadClothesData();
+        List<ClothesShard.Matches> shardMatches = matches(query);
+        List<DonationRecord> page = shardMatches.stream().flatMap(matches -> StreamSupport.stream(matches, false))
+                .skip(offset).limit(pageSize).collect(Collectors.toList());
+        long scanned = 0;
+        for (ClothesShard.Matches matches : shardMatches) {
+            scanned += matches.scanned;
+        }
+        metrics.get(DonationMetrics.Operation.QUERY).record(start, scanned);
+        return page;
+    }
+
+    /**
+     * Plans the query on every shard. The matches are found as they are consumed.
+     */
+    private List<ClothesShard.Matches> matches(DonationQuery query) throws IOException {
+        List<ClothesShard> shards = shards().shards;
+        List<ClothesShard.Matches> shardMatches = new ArrayList<>(shards.size());
+        for (ClothesShard shard : shards) {
+            shardMatches.add(shard.matches(query));
+        }
+        return shardMatches;
+    }
+
+    /**
+     * Returns a read-only view of the lists one after the other, without copying them.
+     */
+    private static <T> List<T> concat(List<List<T>> lists) {
+        if (lists.size() == 1) {
+            return lists.get(0);
+        }
+        // starts[i] is the position of the first element of lists[i]
+        int[] starts = new int[lists.size() + 1];
+        for (int i = 0; i < lists.size(); i++) {
+            starts[i + 1] = starts[i] + lists.get(i).size();
+        }
+        return new AbstractList<T>() {
+            @Override
+            public T get(int index) {
+                if (index < 0 || index >= starts[lists.size()]) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+                }
+                int list = Arrays.binarySearch(starts, index);
+                // An exact match may be the start of empty lists, so take the last list starting there
+                if (list >= 0) {
+                    while (starts[list + 1] == index) {
+                        list++;
+                    }
+                } else {
+                    list = -list - 2;
+                }
+                return lists.get(list).get(index - starts[list]);
+            }
+
+            @Override
+            public int size() {
+                return starts[lists.size()];
+            }
+        };
+    }
+
+    public List<DonationRecord> searchByGender(DonationRecord.Gender gender) throws IOException {
+        return search(gender, null, null);
+    }
+
+    public List<DonationRecord> searchBySize(DonationRecord.Size size) throws IOException {
+        return search(null, size, null);
+    }
+
+    public List<DonationRecord> searchByQuality(DonationRecord.Quality quality) throws IOException {
+        return search(null, null, quality);
+    }
+
+    /**
+     * Returns all donated clothes, shard by shard and oldest first within a shard.
+     * Clothes donated after the call are not part of the returned list.
+     */
+    public List<DonationRecord> getClothes() throws IOException {
+        return concat(forEachShard(shards().shards, shard -> {
+            shard.load();
+            return shard.getClothes();
+        }));
+    }
+
+    /**
+     * Returns the number and worth of the donated clothes, grouped by donor, category, size, quality and gender.
+     * The statistics are kept up to date with every donation, so reading them never scans the clothes.
+     */
+    public DonationStatistics getStatistics() throws IOException {
+        loadClothesData();
+        List<ClothesShard> shards = shards().shards;
+        List<DonationStatistics> statistics = new ArrayList<>(shards.size());
+        for (ClothesShard shard : shards) {
+            statistics.add(shard.getStatistics());
+        }
+        return DonationStatistics.sumOf(statistics);
+    }
+
+    /**
+     * Returns the names of the donation organizations in the order they were first declared.
+     */
+    public List<String> getDonationCompanies() {
+        return organizations.getNames();
+    }
+
+    public OrganizationRegistry getOrganizations() {
+        return organizations;
+    }
+
+    /**
+     * Declares new needs of organizations, appends them to the organizations file and allocates
+     * the unallocated clothes they accept to them.
+     */
+    public void registerNeeds(List<OrganizationNeed> needs) throws IOException {
+        organizations.register(needs);
+        allocator.addNeeds(needs);
+        allocateNewDonations();
+    }
+
+    /**
+     * Returns every need of the organizations with the clothes allocated to it, in the order the
+     * needs were declared. Clothes donated since the last allocation, or added to the files by other
+     * programs, are allocated first.
+     */
+    public List<DonationAllocator.Allocation> getAllocations() throws IOException {
+        loadClothesData();
+        allocateNewDonations();
+        return allocator.getAllocations();
+    }
+
+    /**
+     * Takes all allocations back and allocates all clothes to the needs again, oldest first.
+     *
+     * @return the number of clothes allocated to a need
+     */
+    public long reallocate() throws IOException {
+        long start = System.nanoTime();
+        loadClothesData();
+        long read = allocator.reallocate(shards().shards);
+        metrics.get(DonationMetrics.Operation.REALLOCATE).record(start, read);
+        return allocator.getAllocatedCount();
+    }
+
+    /**
+     * Rewrites the whole file of every shard from the clothes in memory.
+     */
+    public void saveClothesData() throws IOException {
+        long start = System.nanoTime();
+        List<ClothesShard> shards = shards().shards;
+        List<Integer> saved = forEachShard(shards, ClothesShard::save);
+        long records = 0;
+        long bytes = 0;
+        for (int i = 0; i < shards.size(); i++) {
+            records += saved.get(i);
+            bytes += new File(shards.get(i).getFileName()).length();
+        }
+        OperationMetrics saveClothes = metrics.get(DonationMetrics.Operation.SAVE_CLOTHES);
+        saveClothes.addBytesWritten(bytes);
+        saveClothes.record(start, records);
+    }
+
+    /**
+     * Merges the users that are spelled in more than one way, e.g. "user33" and "user 33": the users file
+     * is rewritten with every user once, and the shard files with the name of every donor spelled as
+     * the user was registered first, or as the donor was first seen if it is not a registered user
+     * (see {@link UserDictionary}). No other program may use the files at the same time.
+     *
+     * @return the number of lines of the users file that were duplicates of another user
+     */
+    public int mergeDuplicateUsers() throws IOException {
+        UserDictionary dictionary = UserDictionary.global();
+        // The ID of the registered spelling of every user, by the ID of the user
+        IdTable<Integer> registered = new IdTable<>();
+        int merged;
+        usersLock.lock();
+        try {
+            usersLog.lock();
+            try {
+                readUsers();
+                List<String> users = usersList.snapshot();
+                merged = usersLog.readLive(Function.identity()).size() - users.size();
+                usersLog.rewrite(users);
+                for (String user : users) {
+                    int id = dictionary.idOf(user);
+                    registered.computeIfAbsent(dictionary.userOf(id), userId -> id);
+                }
+            } finally {
+                usersLog.unlock();
+            }
+        } finally {
+            usersLock.unlock();
+        }
+        forEachShard(shards().shards, shard -> shard.respell(id -> {
+            Integer spelling = registered.get(dictionary.userOf(id));
+            return (spelling != null) ? spelling : dictionary.userOf(id);
+        }));
+        return merged;
+    }
+
+    /**
+     * Compacts the users file and the shard files if they contain blank lines or removed records.
+     */
+    public void compact() throws IOException {
+        long start = System.nanoTime();
+        usersLock.lock();
+        try {
+            usersLog.compact();
+        } finally {
+            usersLock.unlock();
+        }
+        forEachShard(shards().shards, shard -> {
+            shard.compact();
+            return null;
+        });
+        metrics.get(DonationMetrics.Operation.COMPACT).record(start, 0);
+    }
+
+    /**
+     * Moves the donations made before the given time, in seconds since 1970, from every shard to its
+     * archive file (see {@link DonationArchive}). They are no longer in the clothes, searches,
+     * statistics and allocations, and only {@link #queryArchive(DonationQuery, int)} finds them.
+     *
+     * @return the number of donations archived
+     */
+    public int archive(long beforeTime) throws IOException {
+        long start = System.nanoTime();
+        loadClothesData();
+        int archived = 0;
+        for (int count : forEachShard(shards().shards, shard -> shard.archive(beforeTime))) {
+            archived += count;
+        }
+        metrics.get(DonationMetrics.Operation.ARCHIVE).record(start, archived);
+        if (archived > 0) {
+            allocateNewDonations();
+        }
+        return archived;
+    }
+
+    /**
+     * Returns at most limit archived donations that match the query. The archive files have no index,
+     * so they are read from the start.
+     */
+    public List<DonationRecord> queryArchive(DonationQuery query, int limit) throws IOException {
+        long start = System.nanoTime();
+        List<DonationRecord> matches = DonationArchive.query(clothesFile, query, limit);
+        metrics.get(DonationMetrics.Operation.QUERY).record(start, matches.size());
+        return matches;
+    }
+
+    /**
+     * Splits the clothes into the given number of shards by the hash of the donor.
+     * <p>
+     *     The files of the new shards are written and forced to disk first, then the new
+     *     {@link ShardManifest} replaces the old one, and only then are the old files deleted, so an
+     *     interrupted resharding leaves either the old or the new shards complete. Donations wait
+     *     while the clothes are moved and then go to the new shards. No other program may use the
+     *     files at the same time.
+     * </p>
+     * <p>
+     *     The old shard files are deleted, except for the clothes file itself, which keeps the clothes
+     *     it had before the first resharding but is no longer read or written. Archived donations are
+     *     not moved; the manifest lists the archive files of the old shards (see {@link ShardManifest}).
+     * </p>
+     */
+    public void reshard(int shardCount) throws IOException {
+        long start = System.nanoTime();
+        ShardSet old = shards();
+        ShardManifest manifest = old.manifest.next(clothesFile, shardCount);
+        int locked = 0;
+        try {
+            for (ClothesShard shard : old.shards) {
+                shard.getLock().lock();
+                locked++;
+            }
+            // Shard file -> the clothes that move to it
+            Map<String, List<DonationRecord>> byShard = new HashMap<>();
+            for (String file : manifest.getShardFiles()) {
+                byShard.put(file, new ArrayList<>());
+            }
+            long moved = 0;
+            for (ClothesShard shard : old.shards) {
+                for (DonationRecord record : shard.capture().clothes) {
+                    byShard.get(manifest.getShardFiles().get(manifest.shardOf(record))).add(record);
+                    moved++;
+                }
+            }
+
+            ShardSet resharded = newShardSet(manifest);
+            forEachShard(resharded.shards, shard -> shard.replaceWith(byShard.get(shard.getFileName())));
+            manifest.write(clothesFile);
+            for (ClothesShard shard : resharded.shards) {
+                shard.open();
+            }
+            for (ClothesShard shard : old.shards) {
+                shard.retire();
+            }
+            shardSet = resharded;
+            feed.published();
+            metrics.get(DonationMetrics.Operation.RESHARD).record(start, moved);
+        } finally {
+            for (int i = locked - 1; i >= 0; i--) {
+                old.shards.get(i).getLock().unlock();
+            }
+        }
+
+        for (String file : old.manifest.getShardFiles()) {
+            // The clothes file itself and its write-ahead log are kept as they were before the first resharding
+            if (!file.equals(clothesFile)) {
+                Files.deleteIfExists(Paths.get(file));
+                Files.deleteIfExists(Paths.get(file + ".wal"));
+                SharedFileLock.delete(file);
+            }
+        }
+        // The snapshot describes the old shards, so it can never be restored again
+        Files.deleteIfExists(snapshotPath());
+    }
+
+    /**
+     * Writes a {@link StoreSnapshot} next to the clothes file (clothesList.txt.snapshot) if the clothes
+     * were loaded, then empties and closes the write-ahead logs.
+     * The store can still be used afterwards; the logs are opened again by the next donation.
+     */
+    public void close() throws IOException {
+        ShardSet current = shardSet;
+        if (current == null) {
+            return;
+        }
+        for (ClothesShard shard : current.shards) {
+            if (shard.isLoaded()) {
+                saveSnapshot();
+                break;
+            }
+        }
+        for (ClothesShard shard : current.shards) {
+            shard.close();
+        }
+    }
+}
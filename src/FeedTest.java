@@ -0,0 +1,142 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/**
+ * This class checks that the cursors of the {@link DonationFeed} hand out every live donation once,
+ * across archivals, restarts and a resharding.
+ * <p>
+ *     A consumer follows a store of 1,000 records donated over the last 100 days. Donations are made
+ *     between its reads, the donations older than 50 days are archived, the store is restarted and
+ *     the consumer resumes from its committed cursor, the clothes are split into 2 shards, and the
+ *     donations older than 25 days are archived from the new shards. Every read must return exactly
+ *     the donations made since the cursor; after the resharding the cursor of the old generation
+ *     starts over with every live donation, and archived donations are never returned.
+ * </p>
+ * <p>
+ *     Usage: java FeedTest
+ *     Prints the result of every check and exits with status 1 if one of them fails.
+ * </p>
+ */
+public class FeedTest {
+    private static final int RECORDS = 1_000;
+    private static final String CONSUMER = "test";
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("donation-test");
+        String usersFile = directory.resolve("usersList.txt").toString();
+        String clothesFile = directory.resolve("clothesList.txt").toString();
+        String companiesFile = directory.resolve("donationCompaniesList.txt").toString();
+        long now = DonationRecord.now();
+        long day = DonationRecord.SECONDS_PER_DAY;
+        DonationStore store = new DonationStore(usersFile, clothesFile, companiesFile);
+        boolean passed;
+        try {
+            DonationBenchmark.writeSyntheticData(usersFile, clothesFile, 0);
+            DonationBenchmark.appendSyntheticClothes(clothesFile, RECORDS, new Random(42), now - 100 * day, now);
+            store.load();
+            DonationFeed feed = store.getFeed();
+
+            DonationFeed.Cursor cursor = feed.end();
+            List<DonationRecord> donated = donate(store, 10);
+            DonationFeed.Batch batch = feed.read(cursor, Integer.MAX_VALUE);
+            passed = check("New donations", batch, donated, false);
+            cursor = batch.getNext();
+
+            int archived = store.archive(now - 50 * day);
+            batch = feed.read(cursor, Integer.MAX_VALUE);
+            passed &= check("Archived " + archived + " donations", batch, List.of(), false);
+            donated = donate(store, 1);
+            batch = feed.read(cursor, Integer.MAX_VALUE);
+            passed &= check("Donation after the archival", batch, donated, false);
+            cursor = batch.getNext();
+            DonationFeed.Batch fromStart = feed.read(feed.start(), Integer.MAX_VALUE);
+            passed &= check("From the start after the archival", fromStart, store.getClothes(), false);
+            passed &= check("The start skips the " + archived + " archived donations",
+                    fromStart.getNext().getCount() == RECORDS + 11);
+            feed.commit(CONSUMER, cursor);
+            store.close();
+
+            store = new DonationStore(usersFile, clothesFile, companiesFile);
+            store.load();
+            feed = store.getFeed();
+            cursor = feed.committed(CONSUMER);
+            donated = donate(store, 1);
+            batch = feed.read(cursor, Integer.MAX_VALUE);
+            passed &= check("Resumed after a restart from " + cursor, batch, donated, false);
+            cursor = batch.getNext();
+
+            store.reshard(2);
+            batch = feed.read(cursor, Integer.MAX_VALUE);
+            passed &= check("Started over after resharding", batch, store.getClothes(), true);
+            cursor = batch.getNext();
+            donated = donate(store, 10);
+            batch = feed.read(cursor, Integer.MAX_VALUE);
+            passed &= check("New donations to 2 shards", batch, donated, false);
+            cursor = batch.getNext();
+
+            int archivedFromShards = store.archive(now - 25 * day);
+            donated = donate(store, 1);
+            batch = feed.read(cursor, Integer.MAX_VALUE);
+            passed &= check("Archived " + archivedFromShards + " donations from 2 shards", batch, donated, false);
+            cursor = batch.getNext();
+            fromStart = feed.read(feed.start(), Integer.MAX_VALUE);
+            passed &= check("From the start after archiving from 2 shards", fromStart, store.getClothes(), false);
+            feed.commit(CONSUMER, cursor);
+            store.close();
+
+            store = new DonationStore(usersFile, clothesFile, companiesFile);
+            store.load();
+            feed = store.getFeed();
+            donated = donate(store, 1);
+            batch = feed.read(feed.committed(CONSUMER), Integer.MAX_VALUE);
+            passed &= check("Resumed 2 shards after a restart from " + cursor, batch, donated, false);
+            store.close();
+        } finally {
+            for (String shardFile : store.getManifest().getShardFiles()) {
+                DonationBenchmark.deleteQuietly(shardFile, shardFile + ".wal", shardFile + ".compact",
+                        shardFile + DonationArchive.SUFFIX);
+            }
+            DonationBenchmark.deleteQuietly(usersFile, clothesFile, companiesFile, clothesFile + ".wal",
+                    clothesFile + ".manifest", clothesFile + ".snapshot", clothesFile + ".snapshot.tmp",
+                    clothesFile + DonationFeed.SUFFIX, clothesFile + DonationArchive.SUFFIX);
+            Files.deleteIfExists(directory);
+        }
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Makes the given number of donations by different donors, so they go to different shards.
+     */
+    private static List<DonationRecord> donate(DonationStore store, int count) throws Exception {
+        List<DonationRecord> donations = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            donations.add(store.donate("follower " + i, DonationRecord.Category.SHIRT, DonationRecord.Size.M,
+                    DonationRecord.Quality.HIGH, DonationRecord.Gender.FEMALE));
+        }
+        return donations;
+    }
+
+    /**
+     * Checks that the batch holds exactly the expected donations, in any order as donations of
+     * different shards are read shard by shard, and whether it started over.
+     */
+    private static boolean check(String name, DonationFeed.Batch batch, List<DonationRecord> expected, boolean restarted) {
+        return check(name + ": " + batch.getDonations().size() + " donations",
+                sorted(batch.getDonations()).equals(sorted(expected)) && batch.isRestarted() == restarted);
+    }
+
+    private static List<String> sorted(List<DonationRecord> donations) {
+        return donations.stream().map(DonationRecord::toString).sorted().collect(Collectors.toList());
+    }
+
+    private static boolean check(String description, boolean passed) {
+        System.out.println(description + ": " + (passed ? "ok" : "FAILED"));
+        return passed;
+    }
+}
@@ -0,0 +1,70 @@
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * This class maps user IDs (see {@link UserDictionary}) to values with an array indexed by the ID,
+ * so a lookup by donor is a single array read.
+ * <p>
+ *     One thread at a time may add values while other threads read without locking: a value is
+ *     written before the array is published, and a larger array always contains every value of
+ *     the array it replaces.
+ * </p>
+ */
+final class IdTable<T> {
+    private volatile Object[] values = new Object[16];
+    private int count;
+
+    /**
+     * Returns the value of the ID, or null if it has none.
+     */
+    @SuppressWarnings("unchecked")
+    T get(int id) {
+        Object[] current = values;
+        return (id >= 0 && id < current.length) ? (T) current[id] : null;
+    }
+
+    /**
+     * Returns the value of the ID, creating it first if it has none. Only one thread may call this at a time.
+     */
+    T computeIfAbsent(int id, IntFunction<T> create) {
+        T value = get(id);
+        if (value == null) {
+            value = create.apply(id);
+            Object[] current = values;
+            if (id >= current.length) {
+                current = Arrays.copyOf(current, Math.max(id + 1, current.length * 2));
+            }
+            current[id] = value;
+            values = current;
+            count++;
+        }
+        return value;
+    }
+
+    /**
+     * Returns the number of IDs with a value. Only reliable while no values are added.
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Calls the action with every ID that has a value, in ascending order.
+     */
+    @SuppressWarnings("unchecked")
+    void forEach(Entry<T> action) {
+        Object[] current = values;
+        for (int id = 0; id < current.length; id++) {
+            if (current[id] != null) {
+                action.accept(id, (T) current[id]);
+            }
+        }
+    }
+
+    /**
+     * An action on an ID and its value.
+     */
+    interface Entry<T> {
+        void accept(int id, T value);
+    }
+}
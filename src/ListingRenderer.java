@@ -0,0 +1,305 @@
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Scanner;
+import java.util.function.BiConsumer;
+
+/**
+ * This class prints listings of donated clothes to the console.
+ * <p>
+ *     Printing every item with System.out.println takes the lock of the stream, encodes a small
+ *     string and flushes it to the terminal or pipe for every line, which makes a listing of a large
+ *     inventory slow. The renderer instead formats the lines into a reusable text buffer (see
+ *     {@link DonationRecord#appendTo(StringBuilder)}), encodes it into a reusable byte buffer and
+ *     writes it to the stream in chunks of {@link #CHUNK_BYTES} bytes, one write per chunk.
+ *     Other listings, e.g. of the organizations, pass the format of their lines.
+ * </p>
+ * <p>
+ *     There are two modes. {@link Mode#PAGED} shows a page of items at a time and asks for the next
+ *     page, the previous page, a page number to jump to, or to quit. {@link Mode#BULK} writes all
+ *     items without asking, for piping a listing to a file or another program.
+ *     The console uses the mode of the system property cds.output (paged or bulk); without it,
+ *     it pages if it runs in a terminal and writes in bulk otherwise.
+ * </p>
+ * <p>
+ *     Everything else written to the same stream must be written after {@link #flush()}.
+ * </p>
+ */
+public final class ListingRenderer implements Flushable {
+    static final int CHUNK_BYTES = 64 * 1024;
+    static final int DEFAULT_PAGE_SIZE = 20;
+
+    /**
+     * How a listing is shown.
+     */
+    public enum Mode {
+        PAGED, BULK;
+
+        /**
+         * Returns the mode of the system property cds.output, or the mode for the current console if it is not set.
+         */
+        static Mode fromSystemProperties() {
+            String mode = System.getProperty("cds.output");
+            if (mode == null || mode.isBlank()) {
+                return (System.console() != null) ? PAGED : BULK;
+            }
+            return valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final OutputStream out;
+    private final Mode mode;
+    private final int pageSize;
+    private final StringBuilder text = new StringBuilder(CHUNK_BYTES);
+    private char[] chars = new char[2 * CHUNK_BYTES];
+    private final ByteBuffer bytes = ByteBuffer.allocate(CHUNK_BYTES);
+    private final CharsetEncoder encoder;
+
+    public ListingRenderer(OutputStream out, Charset charset, Mode mode, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Invalid page size: " + pageSize);
+        }
+        this.out = out;
+        this.mode = mode;
+        this.pageSize = pageSize;
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Returns a renderer for System.out as it is set now, in the mode of {@link Mode#fromSystemProperties()}.
+     */
+    public static ListingRenderer forConsole() {
+        return forConsole(Mode.fromSystemProperties());
+    }
+
+    /**
+     * Returns a renderer for System.out as it is set now, in the given mode.
+     */
+    public static ListingRenderer forConsole(Mode mode) {
+        return new ListingRenderer(System.out, consoleCharset(), mode, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Returns the charset System.out encodes with, so the bytes of a listing match the rest of the output.
+     */
+    private static Charset consoleCharset() {
+        String name = System.getProperty("stdout.encoding", System.getProperty("sun.stdout.encoding"));
+        try {
+            return (name != null) ? Charset.forName(name) : Charset.defaultCharset();
+        } catch (IllegalArgumentException e) {
+            return Charset.defaultCharset();
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Adds a line to the buffer, writing the buffer out if it is full.
+     */
+    public ListingRenderer line(CharSequence line) {
+        text.append(line).append(System.lineSeparator());
+        writeIfFull();
+        return this;
+    }
+
+    /**
+     * Adds the line of a record to the buffer, writing the buffer out if it is full.
+     */
+    public ListingRenderer line(DonationRecord record) {
+        record.appendTo(text).append(System.lineSeparator());
+        writeIfFull();
+        return this;
+    }
+
+    private void writeIfFull() {
+        if (text.length() >= CHUNK_BYTES) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the buffered lines to the stream.
+     */
+    @Override
+    public void flush() {
+        try {
+            if (text.length() > 0) {
+                // The encoder is much faster on an array than on the builder itself
+                if (chars.length < text.length()) {
+                    chars = new char[2 * text.length()];
+                }
+                text.getChars(0, text.length(), chars, 0);
+                CharBuffer input = CharBuffer.wrap(chars, 0, text.length());
+                encoder.reset();
+                CoderResult result;
+                do {
+                    result = encoder.encode(input, bytes, true);
+                    if (result.isOverflow()) {
+                        writeBytes();
+                    }
+                } while (result.isOverflow());
+                while (encoder.flush(bytes).isOverflow()) {
+                    writeBytes();
+                }
+                writeBytes();
+                text.setLength(0);
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeBytes() throws IOException {
+        if (bytes.position() > 0) {
+            out.write(bytes.array(), 0, bytes.position());
+            bytes.clear();
+        }
+    }
+
+    /**
+     * Shows the items in the mode of this renderer. In paged mode the answers are read from the scanner;
+     * the items are only taken from the iterator as far as the pages shown need them.
+     *
+     * @return the number of items taken from the iterator, 0 if there were none
+     */
+    public int list(Iterator<? extends DonationRecord> items, Scanner scanner) {
+        return list(items, DonationRecord::appendTo, scanner);
+    }
+
+    /**
+     * Shows the items in the mode of this renderer.
+     *
+     * @return the number of items
+     */
+    public int list(List<? extends DonationRecord> items, Scanner scanner) {
+        return list(items, DonationRecord::appendTo, scanner);
+    }
+
+    /**
+     * Shows any kind of items, formatting every item into its line with the given format.
+     *
+     * @return the number of items taken from the iterator, 0 if there were none
+     */
+    public <T> int list(Iterator<? extends T> items, BiConsumer<? super T, StringBuilder> format, Scanner scanner) {
+        return (mode == Mode.PAGED) ? page(items, -1, format, scanner) : bulk(items, format);
+    }
+
+    /**
+     * Shows any kind of items, formatting every item into its line with the given format.
+     *
+     * @return the number of items
+     */
+    public <T> int list(List<? extends T> items, BiConsumer<? super T, StringBuilder> format, Scanner scanner) {
+        if (mode == Mode.PAGED) {
+            page(items.iterator(), items.size(), format, scanner);
+        } else {
+            bulk(items.iterator(), format);
+        }
+        return items.size();
+    }
+
+    private <T> void line(T item, BiConsumer<? super T, StringBuilder> format) {
+        format.accept(item, text);
+        text.append(System.lineSeparator());
+        writeIfFull();
+    }
+
+    private <T> int bulk(Iterator<? extends T> items, BiConsumer<? super T, StringBuilder> format) {
+        int count = 0;
+        while (items.hasNext()) {
+            line(items.next(), format);
+            count++;
+        }
+        flush();
+        return count;
+    }
+
+    /**
+     * Shows one page at a time. The items taken from the iterator are kept, so earlier pages can be shown again.
+     *
+     * @param total the number of items, or -1 if it is not known before all of them were taken
+     */
+    private <T> int page(Iterator<? extends T> items, int total, BiConsumer<? super T, StringBuilder> format,
+                         Scanner scanner) {
+        List<T> seen = new ArrayList<>();
+        int page = 0;
+        boolean show = true;
+        while (true) {
+            int from = page * pageSize;
+            while (seen.size() < from + pageSize && items.hasNext()) {
+                seen.add(items.next());
+            }
+            int to = Math.min(from + pageSize, seen.size());
+            boolean lastPage = !items.hasNext() && to == seen.size();
+            if (show) {
+                for (int i = from; i < to; i++) {
+                    line(seen.get(i), format);
+                }
+                if (lastPage && page == 0) {
+                    flush();
+                    return seen.size();
+                }
+            }
+            text.append("Page ").append(page + 1);
+            if (total >= 0 || !items.hasNext()) {
+                int count = (total >= 0) ? total : seen.size();
+                text.append(" of ").append((count + pageSize - 1) / pageSize);
+            }
+            text.append(" (n = next, p = previous, number = go to page, q = quit): ");
+            flush();
+
+            String answer = scanner.next().toLowerCase(Locale.ROOT);
+            show = true;
+            if (answer.equals("n")) {
+                if (lastPage) {
+                    return seen.size();
+                }
+                page++;
+            } else if (answer.equals("p")) {
+                page = Math.max(0, page - 1);
+            } else if (answer.equals("q")) {
+                return seen.size();
+            } else {
+                int target = parsePage(answer);
+                // Take items until the page exists or there are no more
+                while (target > 0 && seen.size() <= (target - 1) * pageSize && items.hasNext()) {
+                    seen.add(items.next());
+                }
+                if (target < 1 || (target - 1) * pageSize >= seen.size()) {
+                    line("Invalid choice. Please enter n, p, q or the number of a page.");
+                    show = false;
+                } else {
+                    page = target - 1;
+                }
+            }
+        }
+    }
+
+    private static int parsePage(String answer) {
+        try {
+            return Integer.parseInt(answer);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class puts load on a running {@link DonationHttpServer} and reports its latency and throughput.
+ * <p>
+ *     It keeps the given number of requests in flight at all times, using the asynchronous
+ *     {@link HttpClient} so that thousands of connections do not need thousands of threads.
+ *     The requests are a mix of searches on all three attributes (50%), user lookups with
+ *     previous donations (45%) and donations (5%), the same mix as the concurrency mode of
+ *     {@link DonationBenchmark}. The users are named "user 0" to "user 49999" like the synthetic
+ *     data of the benchmark, so the server can be started on a file written by it.
+ * </p>
+ * <p>
+ *     Usage: java LoadTestClient [url] [concurrency] [seconds]
+ *     (defaults: http://localhost:8080, 1000 requests in flight, 30 seconds)
+ * </p>
+ */
+public class LoadTestClient {
+    private static final int USERS = 50_000;
+    private static final String[] GENDERS = {"M", "F", "U"};
+    private static final String[] SIZES = {"XS", "S", "M", "L", "XL"};
+    private static final String[] QUALITIES = {"L", "M", "H"};
+    private static final String[] CATEGORIES = {"Shirt", "Hoodie", "Jacket", "Pant", "Trouser"};
+
+    // Latencies are counted in buckets of 10 microseconds up to 10 seconds
+    private static final int BUCKET_MICROS = 10;
+    private static final int BUCKETS = 1_000_000;
+
+    private final HttpClient client;
+    private final String baseUrl;
+    private final long[] latencies = new long[BUCKETS];
+    private final AtomicLong errors = new AtomicLong();
+    private long requests;
+
+    public LoadTestClient(String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    /**
+     * Sends requests with the given number in flight until the time is up, then waits for the last ones.
+     */
+    public void run(int concurrency, long seconds) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(concurrency);
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long start = System.nanoTime();
+        long sent = 0;
+        while (System.nanoTime() < end) {
+            inFlight.acquire();
+            long requestStart = System.nanoTime();
+            client.sendAsync(nextRequest(), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, failure) -> {
+                        if (failure != null || response.statusCode() != 200) {
+                            errors.incrementAndGet();
+                        }
+                        record(System.nanoTime() - requestStart);
+                        inFlight.release();
+                    });
+            sent++;
+        }
+        inFlight.acquire(concurrency);
+        long elapsed = System.nanoTime() - start;
+
+        printReport(sent, elapsed, concurrency);
+    }
+
+    private HttpRequest nextRequest() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String username = encode("user " + random.nextInt(USERS));
+        int kind = random.nextInt(100);
+        if (kind < 5) {
+            String form = "username=" + username
+                    + "&category=" + CATEGORIES[random.nextInt(CATEGORIES.length)]
+                    + "&size=" + SIZES[random.nextInt(SIZES.length)]
+                    + "&quality=" + QUALITIES[random.nextInt(QUALITIES.length)]
+                    + "&gender=" + GENDERS[random.nextInt(GENDERS.length)];
+            return HttpRequest.newBuilder(URI.create(baseUrl + "/donations"))
+                    .header("Content-Type", "application/x-www-form-urlencoded")
+                    .POST(HttpRequest.BodyPublishers.ofString(form))
+                    .build();
+        }
+        if (kind < 50) {
+            return HttpRequest.newBuilder(URI.create(baseUrl + "/users?username=" + username)).GET().build();
+        }
+        String query = "gender=" + GENDERS[random.nextInt(GENDERS.length)]
+                + "&size=" + SIZES[random.nextInt(SIZES.length)]
+                + "&quality=" + QUALITIES[random.nextInt(QUALITIES.length)];
+        return HttpRequest.newBuilder(URI.create(baseUrl + "/search?" + query)).GET().build();
+    }
+
+    private static String encode(String text) {
+        return URLEncoder.encode(text, StandardCharsets.UTF_8);
+    }
+
+    private synchronized void record(long nanos) {
+        int bucket = (int) Math.min(BUCKETS - 1, TimeUnit.NANOSECONDS.toMicros(nanos) / BUCKET_MICROS);
+        latencies[bucket]++;
+        requests++;
+    }
+
+    /**
+     * Returns the latency in milliseconds below which the given fraction of the requests completed.
+     */
+    private synchronized double percentile(double fraction) {
+        long target = (long) Math.ceil(requests * fraction);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += latencies[bucket];
+            if (seen >= target) {
+                return (bucket + 1) * BUCKET_MICROS / 1000.0;
+            }
+        }
+        return BUCKETS * BUCKET_MICROS / 1000.0;
+    }
+
+    private void printReport(long sent, long elapsedNanos, int concurrency) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("%d requests with %d in flight in %.1f s: %.0f requests/s, %d errors%n",
+                sent, concurrency, seconds, sent / seconds, errors.get());
+        System.out.printf("latency p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms%n",
+                percentile(0.50), percentile(0.99), percentile(0.999));
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String url = (args.length > 0) ? args[0] : "http://localhost:8080";
+        int concurrency = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+        long seconds = (args.length > 2) ? Long.parseLong(args[2]) : 30;
+
+        System.out.println("Load test of " + url + " with " + concurrency + " requests in flight for " + seconds + " s");
+        new LoadTestClient(url).run(concurrency, seconds);
+    }
+}
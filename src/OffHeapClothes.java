@@ -0,0 +1,175 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class keeps the donated clothes of a shard outside the Java heap, one column per field.
+ * <p>
+ *     A {@link DonationRecord} on the heap is an object of its own with references to its enums,
+ *     so tens of millions of them fill the heap with objects that every full garbage collection
+ *     has to trace. Here the clothes are stored in direct {@link ByteBuffer}s instead, which the
+ *     collector does not look into: {@link #ROW_BYTES} bytes per item and no object per item.
+ *     The items are stored in chunks of {@link #CHUNK_ROWS} rows, one direct buffer per chunk.
+ *     Within a chunk every field is a column of its own: the donor IDs, the prices in cents, the
+ *     times, and one byte each for the category, size, quality and gender.
+ * </p>
+ * <p>
+ *     {@link #matches(int, DonationQuery)} checks an item against a query by reading only the columns
+ *     the query has a condition on, so a search creates a {@link DonationRecord} only for the items
+ *     it returns ({@link #get(int)} creates a new one on every call).
+ * </p>
+ * <p>
+ *     Like {@link ConcurrentRecordList}, one writer thread adds items while any number of reader
+ *     threads read them without locking: an item is written before the size is increased, and the
+ *     size is volatile. The buffers are freed when the list is no longer used and the collector
+ *     clears it. Direct buffers are limited to -XX:MaxDirectMemorySize, which is the maximum heap
+ *     size by default, so a large inventory may need that option.
+ * </p>
+ * <p>
+ *     A {@link DonationStore} keeps its clothes here when the program is run with -Dcds.offHeap=true,
+ *     so the heap and the garbage collection time do not grow with tens of millions of items.
+ *     The index and statistics of the clothes stay on the heap.
+ * </p>
+ */
+public final class OffHeapClothes implements ClothesShard.Clothes {
+    static final int ROW_BYTES = 20;
+    private static final int CHUNK_SHIFT = 16;
+    static final int CHUNK_ROWS = 1 << CHUNK_SHIFT;
+    // The start of every column in a chunk
+    private static final int DONOR_COLUMN = 0;
+    private static final int PRICE_COLUMN = DONOR_COLUMN + Integer.BYTES * CHUNK_ROWS;
+    private static final int TIME_COLUMN = PRICE_COLUMN + Integer.BYTES * CHUNK_ROWS;
+    private static final int CATEGORY_COLUMN = TIME_COLUMN + Long.BYTES * CHUNK_ROWS;
+    private static final int SIZE_COLUMN = CATEGORY_COLUMN + CHUNK_ROWS;
+    private static final int QUALITY_COLUMN = SIZE_COLUMN + CHUNK_ROWS;
+    private static final int GENDER_COLUMN = QUALITY_COLUMN + CHUNK_ROWS;
+    private static final int CHUNK_BYTES = GENDER_COLUMN + CHUNK_ROWS;
+
+    private static final DonationRecord.Category[] CATEGORIES = DonationRecord.Category.values();
+    private static final DonationRecord.Size[] SIZES = DonationRecord.Size.values();
+    private static final DonationRecord.Quality[] QUALITIES = DonationRecord.Quality.values();
+    private static final DonationRecord.Gender[] GENDERS = DonationRecord.Gender.values();
+
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private volatile int size;
+
+    /**
+     * Adds an item to the end of the list. Only one thread may add at a time.
+     */
+    @Override
+    public void add(DonationRecord record) {
+        int row = size;
+        int chunk = row >>> CHUNK_SHIFT;
+        ByteBuffer[] current = chunks;
+        if (chunk == current.length) {
+            current = Arrays.copyOf(current, Math.max(4, current.length * 2));
+        }
+        if (current[chunk] == null) {
+            current[chunk] = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.nativeOrder());
+        }
+        ByteBuffer columns = current[chunk];
+        int i = row & (CHUNK_ROWS - 1);
+        columns.putInt(DONOR_COLUMN + Integer.BYTES * i, record.getDonorId());
+        columns.putInt(PRICE_COLUMN + Integer.BYTES * i, record.getPriceCents());
+        columns.putLong(TIME_COLUMN + Long.BYTES * i, record.getTime());
+        columns.put(CATEGORY_COLUMN + i, (byte) record.getCategory().ordinal());
+        columns.put(SIZE_COLUMN + i, (byte) record.getSize().ordinal());
+        columns.put(QUALITY_COLUMN + i, (byte) record.getQuality().ordinal());
+        columns.put(GENDER_COLUMN + i, (byte) record.getGender().ordinal());
+        chunks = current;
+        size = row + 1;
+    }
+
+    /**
+     * Returns a new record with the fields of the item in the given row.
+     */
+    @Override
+    public DonationRecord get(int row) {
+        ByteBuffer columns = chunkOf(row);
+        int i = row & (CHUNK_ROWS - 1);
+        return new DonationRecord(columns.getInt(DONOR_COLUMN + Integer.BYTES * i),
+                CATEGORIES[columns.get(CATEGORY_COLUMN + i)], SIZES[columns.get(SIZE_COLUMN + i)],
+                QUALITIES[columns.get(QUALITY_COLUMN + i)], GENDERS[columns.get(GENDER_COLUMN + i)],
+                columns.getInt(PRICE_COLUMN + Integer.BYTES * i), columns.getLong(TIME_COLUMN + Long.BYTES * i));
+    }
+
+    /**
+     * Returns true if the item in the given row matches the query. Only the columns the query has a condition on are read.
+     */
+    @Override
+    public boolean matches(int row, DonationQuery query) {
+        ByteBuffer columns = chunkOf(row);
+        int i = row & (CHUNK_ROWS - 1);
+        if ((query.getGender() != null && columns.get(GENDER_COLUMN + i) != query.getGender().ordinal())
+                || (query.getSize() != null && columns.get(SIZE_COLUMN + i) != query.getSize().ordinal())
+                || (query.getQuality() != null && columns.get(QUALITY_COLUMN + i) != query.getQuality().ordinal())
+                || (query.getCategory() != null && columns.get(CATEGORY_COLUMN + i) != query.getCategory().ordinal())) {
+            return false;
+        }
+        if (query.getMinPriceCents() > 0 || query.getMaxPriceCents() < Integer.MAX_VALUE) {
+            int price = columns.getInt(PRICE_COLUMN + Integer.BYTES * i);
+            if (price < query.getMinPriceCents() || price > query.getMaxPriceCents()) {
+                return false;
+            }
+        }
+        if (query.getDonor() != null
+                && UserDictionary.global().userOf(columns.getInt(DONOR_COLUMN + Integer.BYTES * i)) != query.getUserId()) {
+            return false;
+        }
+        if (query.hasTimeWindow()) {
+            long time = columns.getLong(TIME_COLUMN + Long.BYTES * i);
+            return time != DonationRecord.NO_TIME && time >= query.getFromTime() && time < query.getBeforeTime();
+        }
+        return true;
+    }
+
+    private ByteBuffer chunkOf(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Index: " + row + ", Size: " + size);
+        }
+        return chunks[row >>> CHUNK_SHIFT];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes allocated outside the heap.
+     */
+    public long getOffHeapBytes() {
+        long bytes = 0;
+        for (ByteBuffer chunk : chunks) {
+            if (chunk != null) {
+                bytes += chunk.capacity();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns a read-only view of the items added so far, which creates a record for every item it returns.
+     * Items added later are not part of the view.
+     */
+    @Override
+    public List<DonationRecord> snapshot() {
+        int snapshotSize = size;
+        return new AbstractList<DonationRecord>() {
+            @Override
+            public DonationRecord get(int index) {
+                if (index >= snapshotSize) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + snapshotSize);
+                }
+                return OffHeapClothes.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return snapshotSize;
+            }
+        };
+    }
+}
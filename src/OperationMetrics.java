@@ -0,0 +1,88 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class collects the metrics of one operation of the store: how often it ran, how long it took,
+ * how many bytes it read from and wrote to the files and how many records it went through.
+ * <p>
+ *     Comparing the bytes with the records scanned tells whether an operation that got slower
+ *     spends its time on I/O or on scanning records in memory.
+ *     All counters can be updated from many threads without locking.
+ * </p>
+ */
+public class OperationMetrics implements OperationMetricsMBean {
+    private final String name;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder recordsScanned = new LongAdder();
+
+    public OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records one call of the operation that started at the given {@link System#nanoTime()}.
+     */
+    public void record(long startNanos, long recordsScanned) {
+        latencies.record(System.nanoTime() - startNanos);
+        if (recordsScanned > 0) {
+            this.recordsScanned.add(recordsScanned);
+        }
+    }
+
+    public void addBytesRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    public void addBytesWritten(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    @Override
+    public long getCalls() {
+        return latencies.getCount();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return latencies.getMean() / 1e6;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return latencies.getPercentile(0.50) / 1e6;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return latencies.getPercentile(0.99) / 1e6;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return latencies.getMax() / 1e6;
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public long getRecordsScanned() {
+        return recordsScanned.sum();
+    }
+}
@@ -0,0 +1,21 @@
+/**
+ * This interface is the JMX view of the {@link OperationMetrics} of one operation of the store.
+ * Times are in milliseconds.
+ */
+public interface OperationMetricsMBean {
+    long getCalls();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP99Millis();
+
+    double getMaxMillis();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    long getRecordsScanned();
+}
@@ -0,0 +1,131 @@
+/**
+ * This class represents one need declared by a donation organization: a number of items of one
+ * category, optionally of one size and gender, and of at least a minimum quality.
+ * <p>
+ *     A need is one line of donationCompaniesList.txt, with the fields in the same order as the
+ *     clothes in clothesList.txt and the quantity in place of the price, for example
+ *     "Hope Shelter, Shirt, M, Medium, Female, 25". "Any" as the size or gender accepts every
+ *     size or gender, and the quality is the lowest quality accepted.
+ *     A line with only a name registers an organization without needs.
+ * </p>
+ */
+public final class OrganizationNeed {
+    private static final String SEPARATOR = ", ";
+    static final String ANY = "Any";
+
+    private final String organization;
+    private final DonationRecord.Category category;
+    private final DonationRecord.Size size;
+    private final DonationRecord.Quality minQuality;
+    private final DonationRecord.Gender gender;
+    private final int quantity;
+
+    /**
+     * @param size   the size, or null for any size
+     * @param gender the gender, or null for any gender
+     */
+    public OrganizationNeed(String organization, DonationRecord.Category category, DonationRecord.Size size,
+                            DonationRecord.Quality minQuality, DonationRecord.Gender gender, int quantity) {
+        if (organization == null || organization.trim().isEmpty() || category == null || minQuality == null
+                || quantity < 1) {
+            throw new IllegalArgumentException("Invalid need: " + organization + ", " + category + ", " + minQuality
+                    + ", " + quantity);
+        }
+        this.organization = organization.trim();
+        this.category = category;
+        this.size = size;
+        this.minQuality = minQuality;
+        this.gender = gender;
+        this.quantity = quantity;
+    }
+
+    /**
+     * Parses a line of donationCompaniesList.txt that declares a need.
+     * The fields are read from the end of the line, so a name may itself contain ", ".
+     *
+     * @return the parsed need, or null if the line is not a valid need (e.g. only the name of an organization)
+     */
+    public static OrganizationNeed parse(String line) {
+        if (line == null) {
+            return null;
+        }
+        String[] fields = new String[5];
+        int end = line.length();
+        for (int i = fields.length - 1; i >= 0; i--) {
+            int start = line.lastIndexOf(SEPARATOR, end - 1);
+            if (start < 0) {
+                return null;
+            }
+            fields[i] = line.substring(start + SEPARATOR.length(), end).trim();
+            end = start;
+        }
+        String organization = line.substring(0, end).trim();
+
+        DonationRecord.Category category = DonationRecord.Category.fromLabel(fields[0]);
+        DonationRecord.Size size = DonationRecord.Size.fromLabel(fields[1]);
+        DonationRecord.Quality minQuality = DonationRecord.Quality.fromLabel(fields[2]);
+        DonationRecord.Gender gender = DonationRecord.Gender.fromLabel(fields[3]);
+        int quantity = parseQuantity(fields[4]);
+        if (organization.isEmpty() || category == null || minQuality == null || quantity < 1
+                || (size == null && !ANY.equalsIgnoreCase(fields[1]))
+                || (gender == null && !ANY.equalsIgnoreCase(fields[3]))) {
+            return null;
+        }
+        return new OrganizationNeed(organization, category, size, minQuality, gender, quantity);
+    }
+
+    private static int parseQuantity(String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns true if the item can be allocated to this need.
+     */
+    public boolean accepts(DonationRecord item) {
+        return item.getCategory() == category
+                && (size == null || item.getSize() == size)
+                && (gender == null || item.getGender() == gender)
+                && item.getQuality().compareTo(minQuality) >= 0;
+    }
+
+    public String getOrganization() {
+        return organization;
+    }
+
+    public DonationRecord.Category getCategory() {
+        return category;
+    }
+
+    /**
+     * Returns the size, or null if any size is accepted.
+     */
+    public DonationRecord.Size getSize() {
+        return size;
+    }
+
+    public DonationRecord.Quality getMinQuality() {
+        return minQuality;
+    }
+
+    /**
+     * Returns the gender, or null if any gender is accepted.
+     */
+    public DonationRecord.Gender getGender() {
+        return gender;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    @Override
+    public String toString() {
+        return organization + SEPARATOR + category.getLabel() + SEPARATOR + (size == null ? ANY : size.getLabel())
+                + SEPARATOR + minQuality.getLabel() + SEPARATOR + (gender == null ? ANY : gender.getLabel())
+                + SEPARATOR + quantity;
+    }
+}
@@ -0,0 +1,173 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * This class holds the donation organizations and the needs they declared (see {@link OrganizationNeed}).
+ * <p>
+ *     The organizations are read from donationCompaniesList.txt, one need per line; the lines of an
+ *     organization do not have to be next to each other. New needs are appended to the end of the
+ *     file (see {@link AppendOnlyLog}) and forced to disk before they are acknowledged.
+ *     The file is only read again when it has changed.
+ * </p>
+ * <p>
+ *     Writers take the lock of the registry; readers never lock, because the organizations and
+ *     needs are kept in append-only lists (see {@link ConcurrentRecordList}) and the needs of an
+ *     organization are replaced by a copy when one is added. When the file is read
+ *     again, new lists are built and swapped in with a single write.
+ * </p>
+ */
+public class OrganizationRegistry {
+    private final AppendOnlyLog log;
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile Contents contents = new Contents();
+
+    /**
+     * A donation organization and its needs, in the order they were declared.
+     */
+    public static final class Organization {
+        private final String name;
+        // Replaced by a copy with every new need; an organization only has a few
+        private volatile List<OrganizationNeed> needs = Collections.emptyList();
+
+        private Organization(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<OrganizationNeed> getNeeds() {
+            return needs;
+        }
+
+        private void add(OrganizationNeed need) {
+            List<OrganizationNeed> added = new ArrayList<>(needs.size() + 1);
+            added.addAll(needs);
+            added.add(need);
+            needs = Collections.unmodifiableList(added);
+        }
+    }
+
+    /**
+     * The organizations and all of their needs. Only grows while it is in use.
+     */
+    private static final class Contents {
+        final ConcurrentRecordList<Organization> organizations = new ConcurrentRecordList<>();
+        final Map<String, Organization> byName = new ConcurrentHashMap<>();
+        final ConcurrentRecordList<OrganizationNeed> needs = new ConcurrentRecordList<>();
+
+        Organization organization(String name) {
+            Organization organization = byName.get(name);
+            if (organization == null) {
+                organization = new Organization(name);
+                byName.put(name, organization);
+                organizations.add(organization);
+            }
+            return organization;
+        }
+
+        void add(OrganizationNeed need) {
+            organization(need.getOrganization()).add(need);
+            needs.add(need);
+        }
+    }
+
+    public OrganizationRegistry(String fileName) {
+        this.log = new AppendOnlyLog(fileName);
+    }
+
+    public String getFileName() {
+        return log.getFileName();
+    }
+
+    /**
+     * Reads the file if it has changed since it was last read.
+     *
+     * @return true if the organizations were read again, so the needs may have changed in any way
+     */
+    public boolean load() throws IOException {
+        if (log.isUpToDate()) {
+            return false;
+        }
+        lock.lock();
+        try {
+            Contents loaded = new Contents();
+            for (String line : log.readLive(Function.identity())) {
+                OrganizationNeed need = OrganizationNeed.parse(line);
+                if (need != null) {
+                    loaded.add(need);
+                } else if (!line.trim().isEmpty()) {
+                    loaded.organization(line.trim());
+                }
+            }
+            contents = loaded;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds the needs and appends them to the file with a single write.
+     */
+    public void register(List<OrganizationNeed> needs) throws IOException {
+        if (needs.isEmpty()) {
+            return;
+        }
+        lock.lock();
+        try {
+            List<String> lines = new ArrayList<>(needs.size());
+            for (OrganizationNeed need : needs) {
+                lines.add(need.toString());
+            }
+            log.appendAll(lines);
+            log.force();
+            Contents current = contents;
+            for (OrganizationNeed need : needs) {
+                current.add(need);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the organizations in the order they were first declared.
+     */
+    public List<Organization> getOrganizations() {
+        return contents.organizations.snapshot();
+    }
+
+    /**
+     * Returns the organization with the given name, or null if there is none.
+     */
+    public Organization getOrganization(String name) {
+        return contents.byName.get(name.trim());
+    }
+
+    /**
+     * Returns the needs of all organizations in the order they were declared.
+     */
+    public List<OrganizationNeed> getNeeds() {
+        return contents.needs.snapshot();
+    }
+
+    /**
+     * Returns the names of the organizations in the order they were first declared.
+     */
+    public List<String> getNames() {
+        List<Organization> organizations = getOrganizations();
+        List<String> names = new ArrayList<>(organizations.size());
+        for (Organization organization : organizations) {
+            names.add(organization.getName());
+        }
+        return names;
+    }
+}
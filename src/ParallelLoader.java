@@ -0,0 +1,211 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * This class loads a line based data file in parallel.
+ * <p>
+ *     The file is memory-mapped with {@link FileChannel#map} and split into chunks that
+ *     always end on a line boundary. Every chunk is decoded and parsed on the common
+ *     fork-join pool, and the results are joined back together in file order.
+ *     Blank lines are skipped, and lines the parser cannot read (it returns null) are dropped.
+ *     The {@link Result} reports how many bytes and records were loaded and how fast.
+ * </p>
+ */
+public class ParallelLoader {
+    // Chunks are never smaller than this, so small files are parsed by a single task
+    private static final long MIN_CHUNK_SIZE = 1 << 20;
+    // A single mapping can not be larger than Integer.MAX_VALUE bytes
+    private static final long MAX_CHUNK_SIZE = 1 << 30;
+
+    /**
+     * The records loaded from a file, with the statistics of the load.
+     */
+    public static class Result<T> {
+        private final List<T> records;
+        private final int recordCount;
+        private final long bytes;
+        private final long nanos;
+        private final int blankLines;
+
+        Result(List<T> records, long bytes, long nanos, int blankLines) {
+            this(records, records.size(), bytes, nanos, blankLines);
+        }
+
+        private Result(List<T> records, int recordCount, long bytes, long nanos, int blankLines) {
+            this.records = records;
+            this.recordCount = recordCount;
+            this.bytes = bytes;
+            this.nanos = nanos;
+            this.blankLines = blankLines;
+        }
+
+        public List<T> getRecords() {
+            return records;
+        }
+
+        /**
+         * Returns the statistics of this load without its records, to keep after the records were used.
+         */
+        public Result<T> withoutRecords() {
+            return new Result<>(Collections.emptyList(), recordCount, bytes, nanos, blankLines);
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public int getBlankLines() {
+            return blankLines;
+        }
+
+        public double getMegabytesPerSecond() {
+            return (bytes / (1024.0 * 1024.0)) / Math.max(nanos / 1e9, 1e-9);
+        }
+
+        public double getRecordsPerSecond() {
+            return recordCount / Math.max(nanos / 1e9, 1e-9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d records, %.1f MB in %d ms (%.1f MB/s, %.0f records/s)",
+                    recordCount, bytes / (1024.0 * 1024.0), nanos / 1_000_000,
+                    getMegabytesPerSecond(), getRecordsPerSecond());
+        }
+    }
+
+    private ParallelLoader() {
+    }
+
+    /**
+     * Loads every line of the file and parses it with the given parser.
+     */
+    public static <T> Result<T> load(Path path, Function<String, T> parser) throws IOException {
+        long start = System.nanoTime();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            List<Long> boundaries = findChunkBoundaries(channel, size);
+
+            List<Callable<Result<T>>> tasks = new ArrayList<>();
+            for (int i = 0; i + 1 < boundaries.size(); i++) {
+                long chunkStart = boundaries.get(i);
+                long chunkEnd = boundaries.get(i + 1);
+                tasks.add(() -> parseChunk(channel, chunkStart, chunkEnd, parser));
+            }
+
+            List<T> records = new ArrayList<>();
+            int blankLines = 0;
+            for (Future<Result<T>> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+                Result<T> chunk = future.get();
+                records.addAll(chunk.records);
+                blankLines += chunk.blankLines;
+            }
+
+            return new Result<>(records, size, System.nanoTime() - start, blankLines);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Loading " + path + " was interrupted.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Could not load " + path, e.getCause());
+        }
+    }
+
+    /**
+     * Splits the file into chunks of about equal size, moving every split point forward
+     * to just after the next line ending.
+     */
+    private static List<Long> findChunkBoundaries(FileChannel channel, long size) throws IOException {
+        int parallelism = ForkJoinPool.commonPool().getParallelism();
+        long chunkSize = Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, size / (parallelism * 4L) + 1));
+
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long position = 0;
+        while (size - position > chunkSize) {
+            long next = position + chunkSize;
+            long lineEnd = -1;
+            while (lineEnd < 0 && next < size) {
+                buffer.clear();
+                int read = channel.read(buffer, next);
+                if (read <= 0) {
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (buffer.get(i) == '\n') {
+                        lineEnd = next + i + 1;
+                        break;
+                    }
+                }
+                next += read;
+            }
+            if (lineEnd < 0 || lineEnd >= size) {
+                break;
+            }
+            boundaries.add(lineEnd);
+            position = lineEnd;
+        }
+        boundaries.add(size);
+        return boundaries;
+    }
+
+    private static <T> Result<T> parseChunk(FileChannel channel, long start, long end,
+                                            Function<String, T> parser) throws IOException {
+        List<T> records = new ArrayList<>();
+        int blankLines = 0;
+        if (end <= start) {
+            return new Result<>(records, 0, 0, 0);
+        }
+
+        MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        Charset charset = Charset.defaultCharset();
+        byte[] line = new byte[256];
+        int length = 0;
+        int limit = chunk.limit();
+
+        for (int i = 0; i <= limit; i++) {
+            byte b = (i < limit) ? chunk.get(i) : (byte) '\n';
+            if (b == '\n') {
+                if (i == limit && length == 0) {
+                    break;
+                }
+                int textLength = (length > 0 && line[length - 1] == '\r') ? length - 1 : length;
+                String text = new String(line, 0, textLength, charset);
+                length = 0;
+
+                if (text.trim().isEmpty()) {
+                    blankLines++;
+                } else {
+                    T record = parser.apply(text);
+                    if (record != null) {
+                        records.add(record);
+                    }
+                }
+            } else {
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, length * 2);
+                }
+                line[length++] = b;
+            }
+        }
+        return new Result<>(records, end - start, 0, blankLines);
+    }
+}
@@ -0,0 +1,194 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * This class checks that kiosk programs sharing the same files neither lose nor duplicate donations or users.
+ * <p>
+ *     Starts 4 kiosk programs by default that donate to the same files for 3 seconds by default.
+ *     Every kiosk donates as its own donor and registers a new user every 100 donations; the first
+ *     one also rewrites the clothes file every second, and all of them compact and close the store
+ *     when they stop, as the console does on exit. Afterwards a new store on the files must hold
+ *     every donation and user exactly once.
+ * </p>
+ * <p>
+ *     Usage: java ProcessTest [processes] [seconds]
+ *     Prints the result of every check and exits with status 1 if one of them fails.
+ *     A kiosk is this class run as: java ProcessTest kiosk directory number seconds
+ * </p>
+ */
+public class ProcessTest {
+    private static final int RECORDS = 10_000;
+
+    /**
+     * The donations of every kiosk program, and the new users and full saves of all of them.
+     */
+    static final class Kiosks {
+        final long[] donated;
+        final long users;
+        final long saves;
+
+        Kiosks(long[] donated, long users, long saves) {
+            this.donated = donated;
+            this.users = users;
+            this.saves = saves;
+        }
+
+        long totalDonated() {
+            long total = 0;
+            for (long count : donated) {
+                total += count;
+            }
+            return total;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("kiosk")) {
+            runKiosk(Paths.get(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+            return;
+        }
+        int processes = (args.length > 0) ? Integer.parseInt(args[0]) : 4;
+        int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 3;
+
+        Path directory = Files.createTempDirectory("donation-test");
+        String usersFile = directory.resolve("usersList.txt").toString();
+        String clothesFile = directory.resolve("clothesList.txt").toString();
+        String companiesFile = directory.resolve("donationCompaniesList.txt").toString();
+        boolean passed;
+        try {
+            DonationBenchmark.writeSyntheticData(usersFile, clothesFile, RECORDS);
+            Kiosks kiosks = runKiosks(directory, processes, seconds);
+            System.out.println(processes + " kiosks made " + kiosks.totalDonated() + " donations, "
+                    + kiosks.users + " new users and " + kiosks.saves + " saves");
+            passed = checkKiosks(usersFile, clothesFile, companiesFile, kiosks);
+        } finally {
+            DonationBenchmark.deleteQuietly(usersFile, clothesFile, companiesFile, usersFile + ".compact",
+                    clothesFile + ".compact", clothesFile + ".wal", clothesFile + ".snapshot",
+                    clothesFile + ".snapshot.tmp");
+            Files.deleteIfExists(directory);
+        }
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs kiosk programs on the files in the directory for the given time. All of them start
+     * donating at the same time, once all of them have loaded the store.
+     */
+    static Kiosks runKiosks(Path directory, int processes, int seconds) throws IOException, InterruptedException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<Process> kiosks = new ArrayList<>();
+        List<BufferedReader> outputs = new ArrayList<>();
+        for (int kiosk = 0; kiosk < processes; kiosk++) {
+            Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    ProcessTest.class.getName(), "kiosk", directory.toString(),
+                    String.valueOf(kiosk), String.valueOf(seconds))
+                    .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            kiosks.add(process);
+            outputs.add(new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8)));
+        }
+        for (int kiosk = 0; kiosk < processes; kiosk++) {
+            if (!"ready".equals(outputs.get(kiosk).readLine())) {
+                throw new IllegalStateException("Kiosk " + kiosk + " failed to start");
+            }
+        }
+        for (Process process : kiosks) {
+            process.getOutputStream().write('\n');
+            process.getOutputStream().flush();
+        }
+        // Every kiosk prints how many donations, users and saves it made
+        long[] donated = new long[processes];
+        long users = 0;
+        long saves = 0;
+        for (int kiosk = 0; kiosk < processes; kiosk++) {
+            Process process = kiosks.get(kiosk);
+            String line = outputs.get(kiosk).readLine();
+            String[] counts = (line == null) ? new String[0] : line.trim().split(" ");
+            if (process.waitFor() != 0 || counts.length != 3) {
+                throw new IllegalStateException("Kiosk " + kiosk + " failed");
+            }
+            donated[kiosk] = Long.parseLong(counts[0]);
+            users += Long.parseLong(counts[1]);
+            saves += Long.parseLong(counts[2]);
+        }
+        return new Kiosks(donated, users, saves);
+    }
+
+    /**
+     * Donates as one kiosk program, then prints the number of donations, new users and full saves it made.
+     * Prints "ready" once the store is loaded and starts donating when it reads a line.
+     */
+    private static void runKiosk(Path directory, int kiosk, int seconds) throws Exception {
+        DonationStore store = new DonationStore(directory.resolve("usersList.txt").toString(),
+                directory.resolve("clothesList.txt").toString(), directory.resolve("donationCompaniesList.txt").toString());
+        store.load();
+        String donor = "kiosk " + kiosk;
+        store.addUser(donor);
+        System.out.println("ready");
+        new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)).readLine();
+        long donated = 0;
+        long users = 0;
+        long saves = 0;
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        long nextSave = System.nanoTime() + 1_000_000_000L;
+        while (System.nanoTime() < end) {
+            store.donate(donor, DonationRecord.Category.JACKET, DonationRecord.Size.L,
+                    DonationRecord.Quality.MEDIUM, DonationRecord.Gender.UNISEX);
+            donated++;
+            if (donated % 100 == 0 && store.addUser(donor + " user " + users)) {
+                users++;
+            }
+            if (kiosk == 0 && System.nanoTime() >= nextSave) {
+                store.saveClothesData();
+                saves++;
+                nextSave += 1_000_000_000L;
+            }
+        }
+        store.compact();
+        store.close();
+        System.out.println(donated + " " + users + " " + saves);
+    }
+
+    /**
+     * Checks that a new store on the files of the kiosks holds every donation and user exactly once.
+     *
+     * @return true if it does
+     */
+    private static boolean checkKiosks(String usersFile, String clothesFile, String companiesFile, Kiosks kiosks)
+            throws IOException {
+        DonationStore store = new DonationStore(usersFile, clothesFile, companiesFile);
+        store.load();
+        boolean passed = true;
+        for (int kiosk = 0; kiosk < kiosks.donated.length; kiosk++) {
+            long found = store.previousDonations("kiosk " + kiosk).size();
+            boolean complete = found == kiosks.donated[kiosk];
+            System.out.println("Kiosk " + kiosk + " donated " + kiosks.donated[kiosk] + " items, " + found
+                    + " are in the files: " + (complete ? "ok" : "FAILED"));
+            passed &= complete;
+        }
+        passed &= ConcurrencyTest.checkConsistency("Kiosk files", store, RECORDS + kiosks.totalDonated());
+
+        List<String> lines;
+        try (Stream<String> users = Files.lines(Path.of(usersFile))) {
+            lines = users.filter(line -> !line.trim().isEmpty()).collect(Collectors.toList());
+        }
+        long expectedUsers = DonationBenchmark.USERS + kiosks.donated.length + kiosks.users;
+        int distinct = new HashSet<>(lines).size();
+        boolean once = lines.size() == expectedUsers && distinct == lines.size();
+        System.out.println("Expected " + expectedUsers + " users once each, the users file has " + lines.size()
+                + " lines of " + distinct + " users: " + (once ? "ok" : "FAILED"));
+        store.close();
+        return passed && once;
+    }
+}
@@ -0,0 +1,198 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * This class checks that a store started after a crash holds every donation that was made durable, once.
+ * <p>
+ *     The crashes are staged by writing the files as the system leaves them when it stops at the
+ *     wrong moment, then a new store is loaded on them:
+ *     a write-ahead log (see {@link WriteAheadLog}) whose last entry was cut off, with the clothes file
+ *     ending in a partly written line; a log with a damaged entry followed by a good one; a log whose
+ *     donations all made it into the clothes file before the log was emptied; and an archival (see
+ *     {@link DonationArchive}) that forced the archive file but stopped before it rewrote the shard file,
+ *     once for the first archival of the file and once for a later one.
+ * </p>
+ * <p>
+ *     Usage: java RecoveryTest
+ *     Prints the result of every check and exits with status 1 if one of them fails.
+ * </p>
+ */
+public class RecoveryTest {
+    private static final int RECORDS = 1_000;
+    private static final int PENDING = 5;
+
+    public static void main(String[] args) throws Exception {
+        boolean passed = checkWal("Cut-off log entry", 2, true);
+        passed &= checkWal("Damaged log entry", 0, false);
+        passed &= checkWal("Log entries already in the file", PENDING, false);
+        passed &= checkArchive("Stopped during the first archival", false);
+        passed &= checkArchive("Stopped during a later archival", true);
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Stages a crash while {@link #PENDING} donations were in the write-ahead log, of which the given
+     * number made it into the clothes file, followed by the start of the next line. The log ends with
+     * an entry that was cut off, or with a damaged entry and a good one after it.
+     *
+     * @return true if a new store holds the donations of the log once and none of the entries after it
+     */
+    private static boolean checkWal(String name, int inFile, boolean cutOff) throws IOException {
+        Path directory = Files.createTempDirectory("donation-test");
+        String usersFile = directory.resolve("usersList.txt").toString();
+        String clothesFile = directory.resolve("clothesList.txt").toString();
+        String companiesFile = directory.resolve("donationCompaniesList.txt").toString();
+        try {
+            DonationBenchmark.writeSyntheticData(usersFile, clothesFile, RECORDS);
+            long length = Files.size(Paths.get(clothesFile));
+            List<String> pending = donations("recovered", PENDING);
+
+            try (WriteAheadLog wal = WriteAheadLog.open(Paths.get(clothesFile + ".wal"))) {
+                wal.reset(length);
+                wal.append(pending);
+                wal.append(donations("damaged", 1));
+                if (!cutOff) {
+                    wal.append(donations("after damaged", 1));
+                }
+            }
+            try (RandomAccessFile log = new RandomAccessFile(clothesFile + ".wal", "rw")) {
+                if (cutOff) {
+                    log.setLength(log.length() - 3);
+                } else {
+                    // A byte of the text of the damaged entry, before the good entry after it
+                    long position = log.length() - donations("after damaged", 1).get(0).length() - 8 - 3;
+                    log.seek(position);
+                    int value = log.read();
+                    log.seek(position);
+                    log.write(value ^ 1);
+                }
+            }
+            StringBuilder written = new StringBuilder();
+            for (String line : pending.subList(0, inFile)) {
+                written.append(line).append(System.lineSeparator());
+            }
+            if (inFile < PENDING) {
+                written.append(pending.get(inFile), 0, pending.get(inFile).length() / 2);
+            }
+            Files.write(Paths.get(clothesFile), written.toString().getBytes(Charset.defaultCharset()),
+                    StandardOpenOption.APPEND);
+
+            DonationStore store = new DonationStore(usersFile, clothesFile, companiesFile);
+            store.load();
+            boolean recovered = store.previousDonations("recovered").size() == PENDING
+                    && store.previousDonations("damaged").isEmpty()
+                    && store.previousDonations("after damaged").isEmpty()
+                    // Emptied down to its header once the donations are in the clothes file
+                    && Files.size(Paths.get(clothesFile + ".wal")) == 16;
+            boolean passed = check(name + ": the " + PENDING + " logged donations are recovered once", recovered);
+            passed &= ConcurrencyTest.checkConsistency(name, store, RECORDS + PENDING);
+            store.close();
+
+            DonationStore restarted = new DonationStore(usersFile, clothesFile, companiesFile);
+            restarted.load();
+            passed &= ConcurrencyTest.checkConsistency(name + ", restarted", restarted, RECORDS + PENDING);
+            restarted.close();
+            return passed;
+        } finally {
+            DonationBenchmark.deleteQuietly(usersFile, clothesFile, companiesFile, clothesFile + ".wal",
+                    clothesFile + ".snapshot", clothesFile + ".snapshot.tmp");
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    /**
+     * Stages a crash of an archival after the old donations were appended to the archive file and
+     * forced to disk, but before the shard file was rewritten without them. With an earlier archival,
+     * the shard file already has a header and the archive file the donations it archived.
+     *
+     * @return true if the archival done after the restart leaves every donation live or archived once
+     */
+    private static boolean checkArchive(String name, boolean archivedBefore) throws IOException {
+        Path directory = Files.createTempDirectory("donation-test");
+        String usersFile = directory.resolve("usersList.txt").toString();
+        String clothesFile = directory.resolve("clothesList.txt").toString();
+        String companiesFile = directory.resolve("donationCompaniesList.txt").toString();
+        long now = DonationRecord.now();
+        long day = DonationRecord.SECONDS_PER_DAY;
+        try {
+            DonationBenchmark.writeSyntheticData(usersFile, clothesFile, 0);
+            DonationBenchmark.appendSyntheticClothes(clothesFile, RECORDS, new Random(42), now - 100 * day, now);
+            List<String> all = lines(clothesFile);
+
+            DonationStore store = new DonationStore(usersFile, clothesFile, companiesFile);
+            store.load();
+            if (archivedBefore) {
+                store.archive(now - 80 * day);
+            }
+            store.close();
+            // The crash: the next archival wrote and forced the archive file, and stopped
+            DonationArchive.Header header = DonationArchive.readHeader(clothesFile);
+            List<DonationRecord> old = new ArrayList<>();
+            for (String line : lines(clothesFile)) {
+                DonationRecord record = DonationRecord.parse(line);
+                if (record != null && record.getTime() < now - 50 * day) {
+                    old.add(record);
+                }
+            }
+            DonationArchive.append(clothesFile, header, old);
+
+            DonationStore restarted = new DonationStore(usersFile, clothesFile, companiesFile);
+            restarted.load();
+            int archived = restarted.archive(now - 50 * day);
+            List<String> archive = lines(clothesFile + DonationArchive.SUFFIX);
+            List<String> live = lines(clothesFile).stream()
+                    .filter(line -> !line.startsWith(DonationArchive.HEADER_PREFIX)).collect(Collectors.toList());
+            List<String> both = new ArrayList<>(archive);
+            both.addAll(live);
+            boolean once = archived == old.size() && both.equals(all)
+                    && restarted.queryArchive(new DonationQuery(), Integer.MAX_VALUE).size() == archive.size();
+            boolean passed = check(name + ": " + archive.size() + " archived and " + live.size()
+                    + " live donations, each once", once);
+            passed &= ConcurrencyTest.checkConsistency(name, restarted, live.size());
+            restarted.close();
+            return passed;
+        } finally {
+            DonationBenchmark.deleteQuietly(usersFile, clothesFile, companiesFile, clothesFile + ".wal",
+                    clothesFile + ".snapshot", clothesFile + ".snapshot.tmp", clothesFile + DonationArchive.SUFFIX);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    /**
+     * Returns the lines of donations by the given donor, as they are written to the files.
+     */
+    private static List<String> donations(String donor, int count) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            lines.add(new DonationRecord(donor, DonationRecord.Category.SHIRT, DonationRecord.Size.M,
+                    DonationRecord.Quality.HIGH, DonationRecord.Gender.FEMALE, 4005 + i).toString());
+        }
+        return lines;
+    }
+
+    /**
+     * Returns the lines of the file that are not blank.
+     */
+    private static List<String> lines(String fileName) throws IOException {
+        try (Stream<String> lines = Files.lines(Paths.get(fileName), Charset.defaultCharset())) {
+            return lines.filter(line -> !line.trim().isEmpty()).collect(Collectors.toList());
+        }
+    }
+
+    private static boolean check(String description, boolean passed) {
+        System.out.println(description + ": " + (passed ? "ok" : "FAILED"));
+        return passed;
+    }
+}
@@ -0,0 +1,229 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class describes how the donated clothes are split into shards (see {@link ClothesShard}).
+ * <p>
+ *     The manifest is a text file next to the clothes file (clothesList.txt.manifest) with a
+ *     generation number, the way donations are assigned to shards, the file of every shard, and the
+ *     archive files of the shards of earlier generations (see {@link DonationArchive}):
+ * </p>
+ * <pre>
+ * generation 1
+ * partition donor-hash
+ * shard clothesList.txt.g1-s0
+ * shard clothesList.txt.g1-s1
+ * archive clothesList.txt.archive
+ * </pre>
+ * <p>
+ *     A donation belongs to the shard picked by the hash of its normalized donor name, so all
+ *     donations of a user are in one shard and appending a donation only touches that shard.
+ *     Without a manifest there is a single shard, the clothes file itself, as before shards existed.
+ * </p>
+ * <p>
+ *     Every resharding writes the files of a new generation first and then replaces the manifest,
+ *     so a resharding that is interrupted leaves the previous shards in use. The files of the previous
+ *     shards are then deleted, except for the clothes file itself: the first resharding leaves it as
+ *     it was, and from then on it is no longer read or written.
+ *     Usage: java ShardManifest [shards]
+ *     prints the shards of clothesList.txt, or splits the clothes into the given number of shards.
+ *     No other program may use the files while they are resharded.
+ * </p>
+ */
+public final class ShardManifest {
+    static final String PARTITION = "donor-hash";
+
+    private final int generation;
+    private final List<String> shardFiles;
+    private final List<String> archiveFiles;
+
+    private ShardManifest(int generation, List<String> shardFiles, List<String> archiveFiles) {
+        this.generation = generation;
+        this.shardFiles = Collections.unmodifiableList(shardFiles);
+        this.archiveFiles = Collections.unmodifiableList(archiveFiles);
+    }
+
+    private static Path manifestPath(String clothesFile) {
+        return Paths.get(clothesFile + ".manifest");
+    }
+
+    /**
+     * Returns the manifest with the clothes file as its only shard, used when there is no manifest file.
+     */
+    static ShardManifest single(String clothesFile) {
+        return new ShardManifest(0, Collections.singletonList(clothesFile), Collections.emptyList());
+    }
+
+    /**
+     * Returns a manifest of the next generation with the given number of shards, whose files are
+     * named after the clothes file. The archive files of the shards of this generation are added to
+     * the archive files of the earlier ones. The manifest is not written.
+     */
+    ShardManifest next(String clothesFile, int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("Invalid number of shards: " + shards);
+        }
+        int nextGeneration = generation + 1;
+        List<String> files = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            files.add(clothesFile + ".g" + nextGeneration + "-s" + i);
+        }
+        List<String> archives = new ArrayList<>(archiveFiles);
+        for (String file : shardFiles) {
+            if (Files.exists(Paths.get(file + DonationArchive.SUFFIX))) {
+                archives.add(file + DonationArchive.SUFFIX);
+            }
+        }
+        return new ShardManifest(nextGeneration, files, archives);
+    }
+
+    /**
+     * Reads the manifest of the given clothes file.
+     *
+     * @return the manifest, or {@link #single(String)} if the clothes file has no manifest
+     */
+    public static ShardManifest read(String clothesFile) throws IOException {
+        Path path = manifestPath(clothesFile);
+        if (!Files.exists(path)) {
+            return single(clothesFile);
+        }
+
+        int generation = -1;
+        List<String> files = new ArrayList<>();
+        List<String> archives = new ArrayList<>();
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            String[] parts = line.trim().split(" ", 2);
+            if (parts[0].isEmpty() || parts[0].startsWith("#")) {
+                continue;
+            }
+            if (parts.length < 2) {
+                throw new IOException("Invalid line in " + path + ": " + line);
+            }
+            switch (parts[0]) {
+                case "generation":
+                    generation = Integer.parseInt(parts[1]);
+                    break;
+                case "partition":
+                    if (!parts[1].equals(PARTITION)) {
+                        throw new IOException("Unknown partition in " + path + ": " + parts[1]);
+                    }
+                    break;
+                case "shard":
+                    // Shard files are stored next to the manifest
+                    files.add(path.resolveSibling(parts[1]).toString());
+                    break;
+                case "archive":
+                    archives.add(path.resolveSibling(parts[1]).toString());
+                    break;
+                default:
+                    throw new IOException("Invalid line in " + path + ": " + line);
+            }
+        }
+        if (generation < 0 || files.isEmpty()) {
+            throw new IOException(path + " has no generation or no shards");
+        }
+        return new ShardManifest(generation, files, archives);
+    }
+
+    /**
+     * Writes the manifest of the given clothes file. It is written to a temporary file first,
+     * which is forced to disk and then moved over the old manifest.
+     */
+    void write(String clothesFile) throws IOException {
+        Path path = manifestPath(clothesFile);
+        Path temp = Paths.get(path + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp.toFile());
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            writer.write("# Shards of " + Paths.get(clothesFile).getFileName() + ", written by the Clothes Donation System");
+            writer.newLine();
+            writer.write("generation " + generation);
+            writer.newLine();
+            writer.write("partition " + PARTITION);
+            writer.newLine();
+            for (String file : shardFiles) {
+                writer.write("shard " + Paths.get(file).getFileName());
+                writer.newLine();
+            }
+            for (String file : archiveFiles) {
+                writer.write("archive " + Paths.get(file).getFileName());
+                writer.newLine();
+            }
+            writer.flush();
+            out.getFD().sync();
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    public List<String> getShardFiles() {
+        return shardFiles;
+    }
+
+    /**
+     * Returns the archive files of the shards of earlier generations, oldest first.
+     */
+    public List<String> getArchiveFiles() {
+        return archiveFiles;
+    }
+
+    public int size() {
+        return shardFiles.size();
+    }
+
+    /**
+     * Returns the number of the shard the donations of the given user belong to.
+     * Whitespace and case in the username are ignored.
+     */
+    public int shardOf(String donor) {
+        return Math.floorMod(UserDictionary.normalize(donor).hashCode(), shardFiles.size());
+    }
+
+    /**
+     * Returns the number of the shard the donation belongs to, the same as {@link #shardOf(String)}
+     * of its donor but without normalizing the name again.
+     */
+    public int shardOf(DonationRecord donation) {
+        return Math.floorMod(UserDictionary.global().normalizedHashOf(donation.getDonorId()), shardFiles.size());
+    }
+
+    @Override
+    public String toString() {
+        return "generation " + generation + ", " + shardFiles.size() + " shards";
+    }
+
+    public static void main(String[] args) {
+        DonationStore store = new DonationStore("usersList.txt", "clothesList.txt", "donationCompaniesList.txt");
+        try {
+            store.load();
+            if (args.length > 0) {
+                long start = System.nanoTime();
+                store.reshard(Integer.parseInt(args[0]));
+                System.out.printf("Resharded in %d ms%n", (System.nanoTime() - start) / 1_000_000);
+            }
+            ShardManifest manifest = store.getManifest();
+            System.out.println("clothesList.txt: " + manifest);
+            for (String file : manifest.getShardFiles()) {
+                System.out.printf("  %s: %,d bytes%n", file, new File(file).length());
+            }
+            store.close();
+        } catch (NumberFormatException e) {
+            System.out.println("Usage: java ShardManifest [shards]");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
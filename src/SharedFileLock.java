@@ -0,0 +1,236 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class coordinates the programs that share a data file, e.g. several kiosks that use the
+ * same usersList.txt and clothesList.txt.
+ * <p>
+ *     Writers hold the lock of the file while they write to it: a {@link FileLock} on a small
+ *     version file next to the data file (e.g. clothesList.txt.version), which the operating system
+ *     releases when a program dies. A file lock is held by a whole program, so the threads of one
+ *     program, and all stores it opened on the same file, first take a lock of the program for the file.
+ *     The lock is reentrant.
+ * </p>
+ * <p>
+ *     The version file also holds the {@link Version} of the data file: its generation, which grows
+ *     whenever the file is rewritten as a whole, and the number of writes to it. A program compares
+ *     them with the version it saw last to tell whether another program has written to the file
+ *     since, and if so whether it only appended, so just the new lines have to be read, or rewrote it.
+ *     The version file is not forced to disk; after a crash every program reads the data files again anyway.
+ * </p>
+ */
+public final class SharedFileLock {
+    static final String SUFFIX = ".version";
+    private static final int MAGIC = 0x43445356; // "CDSV"
+    private static final int VERSION_BYTES = 28;
+    // The lock of this program for every version file, shared by all instances
+    private static final Map<Path, Held> PROGRAM_LOCKS = new ConcurrentHashMap<>();
+
+    private final Path path;
+    private final Held held;
+
+    /**
+     * The lock of this program for one version file, and the file lock while it is held.
+     */
+    private static final class Held {
+        final ReentrantLock programLock = new ReentrantLock();
+        // Open while the lock is held, guarded by programLock
+        FileChannel channel;
+        FileLock fileLock;
+        Version version;
+    }
+
+    /**
+     * The version of a data file. The version of a file that was never written under a lock is {@link #NONE}.
+     */
+    public static final class Version {
+        static final Version NONE = new Version(0, 0, 0);
+
+        private final long generation;
+        private final long writes;
+        private final long length;
+
+        private Version(long generation, long writes, long length) {
+            this.generation = generation;
+            this.writes = writes;
+            this.length = length;
+        }
+
+        /**
+         * Returns the number of times the file was rewritten as a whole.
+         */
+        public long getGeneration() {
+            return generation;
+        }
+
+        /**
+         * Returns the number of writes to the file, appends and rewrites.
+         */
+        public long getWrites() {
+            return writes;
+        }
+
+        /**
+         * Returns the length of the file after the last write.
+         */
+        public long getLength() {
+            return length;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Version)) {
+                return false;
+            }
+            Version version = (Version) other;
+            return generation == version.generation && writes == version.writes && length == version.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(generation) * 31 + Long.hashCode(writes);
+        }
+
+        @Override
+        public String toString() {
+            return "generation " + generation + ", " + writes + " writes, " + length + " bytes";
+        }
+    }
+
+    public SharedFileLock(String dataFile) {
+        this.path = Paths.get(dataFile + SUFFIX).toAbsolutePath().normalize();
+        this.held = PROGRAM_LOCKS.computeIfAbsent(path, k -> new Held());
+    }
+
+    /**
+     * Waits until no other thread or program holds the lock, takes it and returns the version of the file.
+     */
+    public Version lock() throws IOException {
+        held.programLock.lock();
+        if (held.programLock.getHoldCount() > 1) {
+            return held.version;
+        }
+        try {
+            held.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            held.fileLock = held.channel.lock();
+            held.version = read(held.channel);
+            return held.version;
+        } catch (IOException | RuntimeException e) {
+            release();
+            throw e;
+        }
+    }
+
+    /**
+     * Releases the lock. The file lock is released once every lock() of this thread has been undone.
+     */
+    public void unlock() throws IOException {
+        if (!held.programLock.isHeldByCurrentThread()) {
+            throw new IllegalMonitorStateException("The lock of " + path + " is not held by this thread");
+        }
+        if (held.programLock.getHoldCount() > 1) {
+            held.programLock.unlock();
+            return;
+        }
+        release();
+    }
+
+    private void release() throws IOException {
+        try {
+            if (held.channel != null) {
+                // Closing the channel releases the file lock
+                held.channel.close();
+            }
+        } finally {
+            held.channel = null;
+            held.fileLock = null;
+            held.version = null;
+            held.programLock.unlock();
+        }
+    }
+
+    public boolean isHeldByCurrentThread() {
+        return held.programLock.isHeldByCurrentThread() && held.fileLock != null;
+    }
+
+    /**
+     * Returns the version of the file: the one read when the lock was taken if this thread holds it,
+     * otherwise the one in the version file now, which may change at any time.
+     */
+    public Version current() throws IOException {
+        if (isHeldByCurrentThread()) {
+            return held.version;
+        }
+        // Closing any channel of the file may release the file lock of the whole program,
+        // so no other thread of this program may hold it meanwhile
+        held.programLock.lock();
+        try (FileChannel reader = FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(reader);
+        } catch (NoSuchFileException e) {
+            return Version.NONE;
+        } finally {
+            held.programLock.unlock();
+        }
+    }
+
+    /**
+     * Records a write to the data file. The caller must hold the lock.
+     *
+     * @param length    the length of the data file after the write
+     * @param rewritten true if the file was rewritten as a whole, false if it was appended to
+     * @return the new version
+     */
+    public Version written(long length, boolean rewritten) throws IOException {
+        if (!isHeldByCurrentThread()) {
+            throw new IllegalMonitorStateException("The lock of " + path + " is not held by this thread");
+        }
+        Version next = new Version(held.version.generation + (rewritten ? 1 : 0), held.version.writes + 1, length);
+        ByteBuffer buffer = ByteBuffer.allocate(VERSION_BYTES)
+                .putInt(MAGIC).putLong(next.generation).putLong(next.writes).putLong(next.length);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            held.channel.write(buffer, buffer.position());
+        }
+        held.version = next;
+        return next;
+    }
+
+    private Version read(FileChannel source) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(VERSION_BYTES);
+        while (buffer.hasRemaining() && source.read(buffer, buffer.position()) >= 0) {
+            // Read until the buffer is full
+        }
+        buffer.flip();
+        if (buffer.remaining() < VERSION_BYTES) {
+            // New, or the program that created it died before writing it
+            return Version.NONE;
+        }
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException(path + " is not a version file");
+        }
+        return new Version(buffer.getLong(), buffer.getLong(), buffer.getLong());
+    }
+
+    /**
+     * Deletes the version file of a data file that is no longer used.
+     */
+    static void delete(String dataFile) throws IOException {
+        Files.deleteIfExists(Paths.get(dataFile + SUFFIX));
+    }
+
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+}
@@ -0,0 +1,139 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * This class checks that a store started from a {@link StoreSnapshot} holds the same users and clothes
+ * as its files, also when another program changed or rewrote the files after the snapshot was taken.
+ * <p>
+ *     A store of 1,000 records writes a snapshot when it is closed, and then the files are changed
+ *     behind its back before a new store is loaded: records and a user are appended, another store
+ *     donates and rewrites the clothes file with a full save, the clothes file is cut to its second
+ *     half, the price of the last record is changed in place without changing the length of the file,
+ *     a user is removed from the users file, and the snapshot itself is damaged. The snapshot must be
+ *     restored only where the files it covers are unchanged, and every new store must hold exactly the
+ *     users and clothes of the files, with an index and statistics that agree with them.
+ * </p>
+ * <p>
+ *     Usage: java SnapshotTest
+ *     Prints the result of every check and exits with status 1 if one of them fails.
+ * </p>
+ */
+public class SnapshotTest {
+    private static final int RECORDS = 1_000;
+
+    /**
+     * A change made to the files by another program while no store was running.
+     */
+    private interface Change {
+        void apply(String usersFile, String clothesFile, String companiesFile) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean passed = check("Records and a user appended", true, (usersFile, clothesFile, companiesFile) -> {
+            DonationBenchmark.appendSyntheticClothes(clothesFile, 100, new Random(1));
+            Files.write(Paths.get(usersFile), List.of("appended user"), Charset.defaultCharset(),
+                    StandardOpenOption.APPEND);
+        });
+        passed &= check("Donated and saved by another store", true, (usersFile, clothesFile, companiesFile) -> {
+            DonationStore other = new DonationStore(usersFile, clothesFile, companiesFile);
+            other.loadUsersData();
+            other.loadClothesData();
+            other.donate("other program", DonationRecord.Category.JACKET, DonationRecord.Size.L,
+                    DonationRecord.Quality.LOW, DonationRecord.Gender.MALE);
+            other.saveClothesData();
+        });
+        passed &= check("Clothes file cut to its second half", false, (usersFile, clothesFile, companiesFile) -> {
+            List<String> lines = lines(clothesFile);
+            Files.write(Paths.get(clothesFile), lines.subList(lines.size() / 2, lines.size()), Charset.defaultCharset());
+        });
+        passed &= check("Last price changed in place", false, (usersFile, clothesFile, companiesFile) -> {
+            List<String> lines = lines(clothesFile);
+            String last = lines.get(lines.size() - 1);
+            // The cents of the price, e.g. "$40.05" becomes "$40.15", so the file keeps its length
+            int cents = last.indexOf('.', last.indexOf('$')) + 1;
+            lines.set(lines.size() - 1, last.substring(0, cents) + (last.charAt(cents) == '1' ? '2' : '1')
+                    + last.substring(cents + 1));
+            Files.write(Paths.get(clothesFile), lines, Charset.defaultCharset());
+        });
+        passed &= check("User removed from the users file", false, (usersFile, clothesFile, companiesFile) -> {
+            List<String> users = lines(usersFile);
+            Files.write(Paths.get(usersFile), users.subList(1, users.size()), Charset.defaultCharset());
+        });
+        passed &= check("Snapshot damaged", false, (usersFile, clothesFile, companiesFile) -> {
+            try (RandomAccessFile snapshot = new RandomAccessFile(clothesFile + ".snapshot", "rw")) {
+                snapshot.seek(snapshot.length() / 2);
+                int value = snapshot.read();
+                snapshot.seek(snapshot.length() / 2);
+                snapshot.write(value ^ 1);
+            }
+        });
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Writes a snapshot of a new store, changes the files and loads another new store on them.
+     *
+     * @return true if the snapshot was restored exactly when expected, and the store matches the files
+     */
+    private static boolean check(String name, boolean restored, Change change) throws IOException {
+        Path directory = Files.createTempDirectory("donation-test");
+        String usersFile = directory.resolve("usersList.txt").toString();
+        String clothesFile = directory.resolve("clothesList.txt").toString();
+        String companiesFile = directory.resolve("donationCompaniesList.txt").toString();
+        try {
+            DonationBenchmark.writeSyntheticData(usersFile, clothesFile, RECORDS);
+            DonationStore store = new DonationStore(usersFile, clothesFile, companiesFile);
+            store.load();
+            store.close();
+            change.apply(usersFile, clothesFile, companiesFile);
+
+            DonationStore started = new DonationStore(usersFile, clothesFile, companiesFile);
+            started.load();
+            long restores = started.getMetrics().get(DonationMetrics.Operation.LOAD_SNAPSHOT).getCalls();
+            List<String> clothes = started.getClothes().stream().map(DonationRecord::toString).collect(Collectors.toList());
+            long indexed = 0;
+            for (DonationRecord.Quality quality : DonationRecord.Quality.values()) {
+                indexed += started.searchByQuality(quality).size();
+            }
+            String donor = DonationRecord.parse(lines(clothesFile).get(0)).getDonor();
+            long donated = lines(clothesFile).stream().filter(line -> line.startsWith(donor + ",")).count();
+            boolean same = clothes.equals(lines(clothesFile))
+                    && started.getUsers().equals(lines(usersFile))
+                    && indexed == clothes.size()
+                    && started.getStatistics().count(null, null, null, null) == clothes.size()
+                    && started.previousDonations(donor).size() == donated
+                    && started.getStatistics().donorCount(donor) == donated;
+            boolean passed = (restores > 0) == restored && same;
+            System.out.println(name + ": snapshot " + (restores > 0 ? "restored" : "not restored") + ", "
+                    + clothes.size() + " clothes and " + started.getUsers().size() + " users: "
+                    + (passed ? "ok" : "FAILED"));
+            started.close();
+            return passed;
+        } finally {
+            DonationBenchmark.deleteQuietly(usersFile, clothesFile, companiesFile, clothesFile + ".compact",
+                    clothesFile + ".wal", clothesFile + ".snapshot", clothesFile + ".snapshot.tmp");
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    /**
+     * Returns the lines of the file that are not blank.
+     */
+    private static List<String> lines(String fileName) throws IOException {
+        try (Stream<String> lines = Files.lines(Paths.get(fileName), Charset.defaultCharset())) {
+            return lines.filter(line -> !line.trim().isEmpty()).collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+}
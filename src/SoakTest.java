@@ -0,0 +1,153 @@
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Scanner;
+
+/**
+ * This class checks that a long console session of {@link ClothesDonationSystem} runs in constant stack depth.
+ * <p>
+ *     The console menus are driven through 1,000,000 scripted answers by default (searches, invalid
+ *     answers and donations), with the menu output discarded. For every 100,000 answers the time taken,
+ *     the heap in use and the deepest stack seen so far are printed. Afterwards the session must have
+ *     exited from the main menu, the deepest stack must be no deeper than during the first 100 rounds
+ *     of the script, and the store must hold one donation for every round.
+ * </p>
+ * <p>
+ *     Usage: java SoakTest [interactions]
+ *     Prints the result of every check and exits with status 1 if one of them fails.
+ * </p>
+ */
+public class SoakTest {
+    private static final String DONOR = "soak";
+
+    public static void main(String[] args) throws Exception {
+        int interactions = (args.length > 0) ? Integer.parseInt(args[0].replace("_", "")) : 1_000_000;
+
+        Path directory = Files.createTempDirectory("donation-test");
+        String usersFile = directory.resolve("usersList.txt").toString();
+        String clothesFile = directory.resolve("clothesList.txt").toString();
+        String companiesFile = directory.resolve("donationCompaniesList.txt").toString();
+        PrintStream console = System.out;
+        boolean passed;
+        try {
+            DonationBenchmark.writeSyntheticData(usersFile, clothesFile, 100);
+            ScriptedInput input = new ScriptedInput(interactions, console);
+            DonationStore store = new DonationStore(usersFile, clothesFile, companiesFile);
+
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            ClothesDonationSystem system = new ClothesDonationSystem(store, new Scanner(input),
+                    ListingRenderer.forConsole(ListingRenderer.Mode.BULK));
+            system.checkUser();
+            system.displayMainMenu();
+            System.setOut(console);
+
+            passed = check("Exited from the main menu after " + input.answered + " answers", input.exited);
+            passed &= check("Deepest stack " + input.maxStackDepth + ", " + input.firstRoundsStackDepth
+                    + " in the first " + ScriptedInput.FIRST_ROUNDS + " rounds",
+                    input.maxStackDepth <= input.firstRoundsStackDepth);
+            int donations = store.previousDonations(DONOR).size();
+            passed &= check(donations + " donations in " + input.rounds() + " rounds", donations == input.rounds());
+            store.close();
+        } finally {
+            System.setOut(console);
+            DonationBenchmark.deleteQuietly(usersFile, clothesFile, companiesFile, clothesFile + ".compact",
+                    clothesFile + ".wal", clothesFile + ".snapshot");
+            Files.deleteIfExists(directory);
+        }
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean check(String description, boolean passed) {
+        System.out.println(description + ": " + (passed ? "ok" : "FAILED"));
+        return passed;
+    }
+
+    /**
+     * Feeds scripted answers to the menus and reports how the session behaves over time.
+     * The donations are all of a kind the searches do not look for, so every search
+     * returns the same items however many donations have been made.
+     */
+    private static class ScriptedInput extends InputStream {
+        private static final String[] SCRIPT = {
+                "4", "1", "U", "yes", "2", "XS", "yes", "3", "L", "no", // three searches
+                "7", "x", "4", "5",                                     // invalid answers, back to main
+                "1", "1", "1", "M", "H", "F", "maybe", "no"             // one donation
+        };
+        private static final int REPORT_EVERY = 100_000;
+        // Every path through the menus is taken in these rounds, so the stack is as deep as it gets
+        private static final int FIRST_ROUNDS = 100;
+
+        private final int interactions;
+        private final PrintStream console;
+        private byte[] pending = (DONOR + "\n").getBytes(StandardCharsets.UTF_8);
+        private int position;
+        private int answered;
+        private int maxStackDepth;
+        private int firstRoundsStackDepth;
+        private boolean exited;
+        private long windowStart = System.nanoTime();
+
+        ScriptedInput(int interactions, PrintStream console) {
+            this.interactions = interactions;
+            this.console = console;
+            console.printf("%-14s %12s %12s %12s%n", "Interactions", "ms", "Heap MB", "Max stack");
+        }
+
+        /**
+         * Returns the number of times the whole script was answered.
+         */
+        int rounds() {
+            return answered / SCRIPT.length;
+        }
+
+        @Override
+        public int read() {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0];
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (position == pending.length) {
+                if (!nextAnswer()) {
+                    return -1;
+                }
+            }
+            int count = Math.min(length, pending.length - position);
+            System.arraycopy(pending, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+
+        private boolean nextAnswer() {
+            if (exited) {
+                return false;
+            }
+            maxStackDepth = Math.max(maxStackDepth, Thread.currentThread().getStackTrace().length);
+            if (answered <= FIRST_ROUNDS * SCRIPT.length) {
+                firstRoundsStackDepth = maxStackDepth;
+            }
+            // Exit from the main menu, which is where every round of the script ends
+            exited = answered >= interactions && answered % SCRIPT.length == 0;
+            String answer = exited ? "5" : SCRIPT[answered % SCRIPT.length];
+            answered++;
+            pending = (answer + "\n").getBytes(StandardCharsets.UTF_8);
+            position = 0;
+
+            if (answered % REPORT_EVERY == 0) {
+                long now = System.nanoTime();
+                System.gc();
+                Runtime runtime = Runtime.getRuntime();
+                double heapMegabytes = (runtime.totalMemory() - runtime.freeMemory()) / (1024.0 * 1024.0);
+                console.printf("%-14d %12d %12.1f %12d%n", answered, (now - windowStart) / 1_000_000, heapMegabytes, maxStackDepth);
+                windowStart = System.nanoTime();
+            }
+            return true;
+        }
+    }
+}
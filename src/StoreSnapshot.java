@@ -0,0 +1,340 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * This class saves the in-memory state of a {@link DonationStore} to a file and reads it back,
+ * so that the store can start without parsing the users and clothes files from the beginning.
+ * <p>
+ *     A snapshot holds the users and, for every {@link ClothesShard}, its clothes, its
+ *     {@link DonationIndex} (attribute bitmaps and the donations of every user) and its
+ *     {@link DonationStatistics}, together with the length of the users file and of every shard file
+ *     they were read from. On start the store restores the snapshot and then reads only the lines
+ *     appended to the files after those lengths, so the start-up time depends on the changes since
+ *     the snapshot rather than on the size of the files.
+ * </p>
+ * <p>
+ *     A snapshot only fits the files it was taken from if they have not been rewritten since.
+ *     To check this cheaply, the snapshot keeps the CRC-32 of the last {@link #TAIL_BYTES} bytes it
+ *     covers of each file; a file that is now shorter, or whose bytes at that place differ, was
+ *     rewritten (e.g. compacted), and the store loads it from scratch instead. A file that only had
+ *     records appended still matches. A snapshot of other shard files than those in the
+ *     {@link ShardManifest}, e.g. from before a resharding, does not match. The whole snapshot is
+ *     covered by a CRC-32 as well, so a damaged snapshot is ignored rather than restored.
+ * </p>
+ * <p>
+ *     Layout: magic "CDSS", version, the length, dead lines and tail checksum of the users file,
+ *     the users, the number of shards, and for every shard its file name, the length, dead lines and
+ *     tail checksum of its file, the number of its clothes that were archived, its donor table, its
+ *     clothes as fixed-width records (as in {@link BinaryClothesFile}), its index and its statistics;
+ *     then the checksum of all of it.
+ *     Numbers are big-endian and strings are their UTF-8 length followed by their bytes.
+ * </p>
+ */
+public final class StoreSnapshot {
+    static final int MAGIC = 0x43445353; // "CDSS"
+    static final int VERSION = 5;
+    static final int TAIL_BYTES = 4096;
+
+    private static final DonationRecord.Category[] CATEGORIES = DonationRecord.Category.values();
+    private static final DonationRecord.Size[] SIZES = DonationRecord.Size.values();
+    private static final DonationRecord.Quality[] QUALITIES = DonationRecord.Quality.values();
+    private static final DonationRecord.Gender[] GENDERS = DonationRecord.Gender.values();
+
+    private final List<String> users;
+    private final FilePosition usersPosition;
+    private final List<Shard> shards;
+
+    /**
+     * How far a snapshot has read a file: its length, the dead lines in it and the checksum of its tail.
+     */
+    static final class FilePosition {
+        final long length;
+        final int deadLines;
+        final long tailChecksum;
+
+        FilePosition(long length, int deadLines, long tailChecksum) {
+            this.length = length;
+            this.deadLines = deadLines;
+            this.tailChecksum = tailChecksum;
+        }
+
+        /**
+         * Returns the position after the given number of bytes of the file, computing the checksum of their tail.
+         */
+        static FilePosition of(String fileName, long length, int deadLines) throws IOException {
+            return new FilePosition(length, deadLines, tailChecksum(fileName, length));
+        }
+
+        /**
+         * Returns true if the file still starts with the bytes this position was taken from.
+         */
+        boolean matches(String fileName) throws IOException {
+            return new File(fileName).length() >= length && tailChecksum(fileName, length) == tailChecksum;
+        }
+    }
+
+    /**
+     * The state of one {@link ClothesShard}: its clothes, index and statistics, and how far they cover its file.
+     */
+    static final class Shard {
+        final String fileName;
+        final FilePosition position;
+        // The number of clothes archived before the first of clothes (see DonationArchive)
+        final int archived;
+        final List<DonationRecord> clothes;
+        final DonationIndex index;
+        final DonationStatistics statistics;
+
+        Shard(String fileName, FilePosition position, int archived, List<DonationRecord> clothes, DonationIndex index,
+              DonationStatistics statistics) {
+            this.fileName = fileName;
+            this.position = position;
+            this.archived = archived;
+            this.clothes = clothes;
+            this.index = index;
+            this.statistics = statistics;
+        }
+    }
+
+    StoreSnapshot(List<String> users, FilePosition usersPosition, List<Shard> shards) {
+        this.users = users;
+        this.usersPosition = usersPosition;
+        this.shards = shards;
+    }
+
+    public List<String> getUsers() {
+        return users;
+    }
+
+    FilePosition getUsersPosition() {
+        return usersPosition;
+    }
+
+    List<Shard> getShards() {
+        return shards;
+    }
+
+    /**
+     * Returns the number of clothes in all shards.
+     */
+    public int getClothesCount() {
+        int count = 0;
+        for (Shard shard : shards) {
+            count += shard.clothes.size();
+        }
+        return count;
+    }
+
+    /**
+     * Returns true if the snapshot can be restored for the given users file and shard files,
+     * i.e. it was taken of the same shards and none of the files has been rewritten since.
+     */
+    public boolean matches(String usersFile, List<String> shardFiles) throws IOException {
+        if (!usersPosition.matches(usersFile) || shards.size() != shardFiles.size()) {
+            return false;
+        }
+        for (int i = 0; i < shards.size(); i++) {
+            Shard shard = shards.get(i);
+            if (!shard.fileName.equals(shardFiles.get(i)) || !shard.position.matches(shard.fileName)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the CRC-32 of the last (up to) {@link #TAIL_BYTES} bytes before the given length of the file.
+     */
+    static long tailChecksum(String fileName, long length) throws IOException {
+        File file = new File(fileName);
+        if (length == 0 || !file.exists()) {
+            return 0;
+        }
+        byte[] tail = new byte[(int) Math.min(TAIL_BYTES, length)];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(length - tail.length);
+            raf.readFully(tail);
+        }
+        CRC32 checksum = new CRC32();
+        checksum.update(tail);
+        return checksum.getValue();
+    }
+
+    /**
+     * Writes the snapshot. It is written to a temporary file first, which is forced to disk
+     * and then moved over the target, so a crash never leaves a half-written snapshot behind.
+     * The index and statistics must not change while they are written.
+     *
+     * @return the number of bytes written
+     */
+    public long write(Path file) throws IOException {
+        Path temp = Paths.get(file + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp.toFile())) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(stream, 1 << 16), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writePosition(out, usersPosition);
+            out.writeInt(users.size());
+            for (String user : users) {
+                writeString(out, user);
+            }
+            out.writeInt(shards.size());
+            for (Shard shard : shards) {
+                writeShard(out, shard);
+            }
+            out.flush();
+            // The checksum itself is not part of what it covers
+            new DataOutputStream(stream).writeLong(checked.getChecksum().getValue());
+            stream.getFD().sync();
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return Files.size(file);
+    }
+
+    private static void writeShard(DataOutputStream out, Shard shard) throws IOException {
+        writeString(out, shard.fileName);
+        writePosition(out, shard.position);
+        out.writeInt(shard.archived);
+
+        // The user IDs of this program are numbered again from 0 for the donors of the shard
+        IdTable<Integer> donorIds = new IdTable<>();
+        List<String> donors = new ArrayList<>();
+        for (DonationRecord record : shard.clothes) {
+            if (donorIds.get(record.getDonorId()) == null) {
+                donorIds.computeIfAbsent(record.getDonorId(), id -> donors.size());
+                donors.add(record.getDonor());
+            }
+        }
+        out.writeInt(donors.size());
+        for (String donor : donors) {
+            writeString(out, donor);
+        }
+        out.writeInt(shard.clothes.size());
+        for (DonationRecord record : shard.clothes) {
+            out.writeInt(donorIds.get(record.getDonorId()));
+            out.writeInt(record.getPriceCents());
+            out.writeByte(record.getCategory().ordinal());
+            out.writeByte(record.getSize().ordinal());
+            out.writeByte(record.getQuality().ordinal());
+            out.writeByte(record.getGender().ordinal());
+            out.writeLong(record.getTime());
+        }
+
+        shard.index.writeTo(out);
+        shard.statistics.writeTo(out);
+    }
+
+    private static void writePosition(DataOutputStream out, FilePosition position) throws IOException {
+        out.writeLong(position.length);
+        out.writeInt(position.deadLines);
+        out.writeLong(position.tailChecksum);
+    }
+
+    /**
+     * Reads a snapshot written by {@link #write(Path)}.
+     *
+     * @return the snapshot, or null if the file does not exist
+     * @throws IOException if the file is damaged or was written by another version
+     */
+    public static StoreSnapshot read(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 2 * Integer.BYTES + Long.BYTES || size > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot " + file + " has an invalid size of " + size + " bytes");
+            }
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int contentBytes = (int) size - Long.BYTES;
+            CRC32 checksum = new CRC32();
+            checksum.update(in.duplicate().limit(contentBytes));
+            if (checksum.getValue() != in.getLong(contentBytes) || in.getInt() != MAGIC) {
+                throw new IOException("Snapshot " + file + " is damaged");
+            }
+            if (in.getInt() != VERSION) {
+                throw new IOException("Snapshot " + file + " was written by another version");
+            }
+            try {
+                return readContent(in);
+            } catch (RuntimeException e) {
+                throw new IOException("Snapshot " + file + " is damaged", e);
+            }
+        }
+    }
+
+    private static StoreSnapshot readContent(ByteBuffer in) {
+        FilePosition usersPosition = readPosition(in);
+        int userCount = in.getInt();
+        List<String> users = new ArrayList<>(userCount);
+        for (int i = 0; i < userCount; i++) {
+            users.add(readString(in));
+        }
+        int shardCount = in.getInt();
+        List<Shard> shards = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(readShard(in));
+        }
+        return new StoreSnapshot(users, usersPosition, shards);
+    }
+
+    private static Shard readShard(ByteBuffer in) {
+        String fileName = readString(in);
+        FilePosition position = readPosition(in);
+        int archived = in.getInt();
+
+        UserDictionary dictionary = UserDictionary.global();
+        int[] donors = new int[in.getInt()];
+        for (int i = 0; i < donors.length; i++) {
+            donors[i] = dictionary.idOf(readString(in));
+        }
+        int clothesCount = in.getInt();
+        List<DonationRecord> clothes = new ArrayList<>(clothesCount);
+        for (int i = 0; i < clothesCount; i++) {
+            int donor = donors[in.getInt()];
+            int priceCents = in.getInt();
+            clothes.add(new DonationRecord(donor, CATEGORIES[in.get()], SIZES[in.get()], QUALITIES[in.get()],
+                    GENDERS[in.get()], priceCents, in.getLong()));
+        }
+
+        DonationIndex index = DonationIndex.readFrom(in, clothes);
+        DonationStatistics statistics = DonationStatistics.readFrom(in, clothes);
+        return new Shard(fileName, position, archived, clothes, index, statistics);
+    }
+
+    private static FilePosition readPosition(ByteBuffer in) {
+        return new FilePosition(in.getLong(), in.getInt(), in.getLong());
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,204 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class assigns a dense integer ID to every spelling of a username, so the donations refer to
+ * their donor by number instead of each carrying a copy of the donor's name (see {@link DonationRecord#getDonorId()}).
+ * <p>
+ *     Every spelling keeps its own ID, so a name is written back to the files exactly as it was
+ *     read or entered. Names are also normalized once, when a spelling is first seen: whitespace is
+ *     removed and case is ignored, the same rule the previous donations lookup has always used, so
+ *     "user 33" and "User33" are the same user. The ID of the first spelling seen of a user is the
+ *     ID of the user ({@link #userOf(int)}), and per-donor data such as the donations in the
+ *     {@link DonationIndex} is kept in arrays indexed by it. Lookups by a spelling seen before are
+ *     a single hash lookup without normalizing again.
+ * </p>
+ * <p>
+ *     There is one dictionary per program, like the pool of interned strings, shared by all stores;
+ *     IDs are only valid in the program that assigned them, so files and snapshots store names.
+ *     Stores on different files only share which spellings are the same user, which follows from the
+ *     names alone, and never the spelling of a name. Only {@link DonationStore#mergeDuplicateUsers()}
+ *     rewrites the files with a single spelling of every user. Lookups never lock; new spellings
+ *     are added under the lock of the dictionary.
+ * </p>
+ * <p>
+ *     Usage: java UserDictionary [merge]
+ *     lists the users of usersList.txt and clothesList.txt that are spelled in more than one way,
+ *     or rewrites both files with a single spelling of every user.
+ * </p>
+ */
+public final class UserDictionary {
+    private static final UserDictionary GLOBAL = new UserDictionary();
+
+    // Any spelling seen, as given -> ID, so a known spelling is not normalized again
+    private final Map<String, Integer> bySpelling = new ConcurrentHashMap<>();
+    // Spelling without the surrounding whitespace -> ID, and normalized name -> ID of the user
+    private final Map<String, Integer> byName = new ConcurrentHashMap<>();
+    private final Map<String, Integer> byNormalized = new ConcurrentHashMap<>();
+    private final ConcurrentRecordList<Entry> entries = new ConcurrentRecordList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    // The number of distinct users, changed under the lock
+    private int userCount;
+
+    /**
+     * A spelling of a username, the ID of its user and the hash of its normalized form.
+     */
+    private static final class Entry {
+        final String name;
+        final int userId;
+        final int normalizedHash;
+
+        Entry(String name, int userId, int normalizedHash) {
+            this.name = name;
+            this.userId = userId;
+            this.normalizedHash = normalizedHash;
+        }
+    }
+
+    private UserDictionary() {
+    }
+
+    /**
+     * Returns the dictionary of this program.
+     */
+    public static UserDictionary global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Removes all whitespace from a username and folds it to lower case.
+     * Two names are the same user if their normalized forms are equal.
+     */
+    public static String normalize(String username) {
+        StringBuilder normalized = new StringBuilder(username.length());
+        for (int i = 0; i < username.length(); i++) {
+            char c = username.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                normalized.append(Character.toLowerCase(Character.toUpperCase(c)));
+            }
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Returns the ID of the spelling of the username, adding it if it was never seen. Spellings
+     * that only differ in the whitespace around the name have the same ID.
+     */
+    public int idOf(String username) {
+        Integer id = bySpelling.get(username);
+        return (id != null) ? id : add(username);
+    }
+
+    private int add(String username) {
+        String name = username.trim();
+        lock.lock();
+        try {
+            Integer id = byName.get(name);
+            if (id == null) {
+                String normalized = normalize(name);
+                id = entries.size();
+                Integer userId = byNormalized.get(normalized);
+                if (userId == null) {
+                    userId = id;
+                    userCount++;
+                }
+                // Published before the ID can be found, so nameOf never sees an ID without a name
+                entries.add(new Entry(name, userId, normalized.hashCode()));
+                byName.put(name, id);
+                byNormalized.putIfAbsent(normalized, userId);
+            }
+            bySpelling.put(username, id);
+            return id;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the ID of the user with the given name in any spelling, without adding it.
+     *
+     * @return the ID of the user, or -1 if the user was never seen in any spelling
+     */
+    public int find(String username) {
+        Integer id = bySpelling.get(username);
+        if (id != null) {
+            return entries.get(id).userId;
+        }
+        id = byNormalized.get(normalize(username));
+        return (id != null) ? id : -1;
+    }
+
+    /**
+     * Returns the spelling with the given ID.
+     */
+    public String nameOf(int id) {
+        return entries.get(id).name;
+    }
+
+    /**
+     * Returns the ID of the user of the spelling with the given ID: the ID of the first spelling
+     * seen of that user.
+     */
+    public int userOf(int id) {
+        return entries.get(id).userId;
+    }
+
+    /**
+     * Returns the hash code of the normalized name of the spelling with the given ID.
+     */
+    public int normalizedHashOf(int id) {
+        return entries.get(id).normalizedHash;
+    }
+
+    /**
+     * Returns the number of users, counting all spellings of a user once.
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return userCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns every spelling seen of every user that was seen in more than one spelling, by the ID of the user.
+     */
+    public Map<Integer, List<String>> getSpellings() {
+        Map<Integer, List<String>> spellings = new TreeMap<>();
+        for (int id = 0; id < entries.size(); id++) {
+            Entry entry = entries.get(id);
+            spellings.computeIfAbsent(entry.userId, k -> new ArrayList<>()).add(entry.name);
+        }
+        spellings.values().removeIf(list -> list.size() < 2);
+        return spellings;
+    }
+
+    public static void main(String[] args) {
+        DonationStore store = new DonationStore("usersList.txt", "clothesList.txt", "donationCompaniesList.txt");
+        try {
+            store.load();
+            if (args.length > 0 && args[0].equals("merge")) {
+                int merged = store.mergeDuplicateUsers();
+                System.out.println("Merged " + merged + " duplicate users and rewrote the users and clothes files.");
+            } else if (args.length > 0) {
+                System.out.println("Usage: java UserDictionary [merge]");
+            } else {
+                UserDictionary dictionary = global();
+                for (Map.Entry<Integer, List<String>> user : dictionary.getSpellings().entrySet()) {
+                    System.out.println(dictionary.nameOf(user.getKey()) + ": " + user.getValue());
+                }
+                System.out.println(dictionary.size() + " users");
+            }
+            store.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * This class checks that the {@link UserDictionary} treats the spellings of a user as one user
+ * without changing how any of them is spelled in the files.
+ * <p>
+ *     Two stores on different files in the same program register and donate as "User33", and as
+ *     "user 33" and "USER33". Every store must find its own donations by any spelling, and a full
+ *     save, a compaction, a reload and a restart from the snapshot must write back every name
+ *     exactly as it was entered. Only merging the duplicate users respells the donations of one
+ *     store, as the user was registered in that store, and leaves the files of the other store alone.
+ * </p>
+ * <p>
+ *     Usage: java UserDictionaryTest
+ *     Prints the result of every check and exits with status 1 if one of them fails.
+ * </p>
+ */
+public class UserDictionaryTest {
+    public static void main(String[] args) throws Exception {
+        Path first = Files.createTempDirectory("donation-test");
+        Path second = Files.createTempDirectory("donation-test");
+        boolean passed;
+        try {
+            DonationStore one = open(first);
+            one.addUser("User33");
+            donate(one, "User33");
+
+            DonationStore other = open(second);
+            other.addUser("user 33");
+            donate(other, "user 33");
+            donate(other, "USER33");
+
+            passed = check("Each store finds its own donations by any spelling",
+                    one.previousDonations("user 33").size() == 1 && other.previousDonations("User33").size() == 2);
+            passed &= check("Each store registers the user as it was entered",
+                    users(first).equals(List.of("User33")) && users(second).equals(List.of("user 33"))
+                            && other.hasUser("USER 33"));
+
+            other.saveClothesData();
+            other.compact();
+            passed &= check("A full save and a compaction keep every spelling",
+                    donors(second).equals(List.of("user 33", "USER33")));
+            other.close();
+
+            DonationStore reloaded = open(second);
+            passed &= check("A restart from the snapshot keeps every spelling",
+                    spellings(reloaded).equals(List.of("user 33", "USER33")));
+            reloaded.saveClothesData();
+            passed &= check("A full save after the restart keeps every spelling",
+                    donors(second).equals(List.of("user 33", "USER33")));
+
+            reloaded.mergeDuplicateUsers();
+            passed &= check("Merging respells the donations as the registered user",
+                    donors(second).equals(List.of("user 33", "user 33"))
+                            && spellings(reloaded).equals(List.of("user 33", "user 33"))
+                            && reloaded.previousDonations("USER33").size() == 2);
+            reloaded.close();
+
+            one.saveClothesData();
+            passed &= check("The other store keeps its own spelling",
+                    donors(first).equals(List.of("User33")) && users(first).equals(List.of("User33")));
+            one.close();
+        } finally {
+            delete(first);
+            delete(second);
+        }
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static DonationStore open(Path directory) throws IOException {
+        DonationStore store = new DonationStore(directory.resolve("usersList.txt").toString(),
+                directory.resolve("clothesList.txt").toString(), directory.resolve("donationCompaniesList.txt").toString());
+        store.load();
+        return store;
+    }
+
+    private static void donate(DonationStore store, String donor) throws IOException {
+        store.donate(donor, DonationRecord.Category.JACKET, DonationRecord.Size.L,
+                DonationRecord.Quality.MEDIUM, DonationRecord.Gender.UNISEX);
+    }
+
+    /**
+     * Returns the lines of the users file.
+     */
+    private static List<String> users(Path directory) throws IOException {
+        return Files.readAllLines(directory.resolve("usersList.txt")).stream()
+                .filter(line -> !line.trim().isEmpty()).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the donor of every line of the clothes file.
+     */
+    private static List<String> donors(Path directory) throws IOException {
+        return Files.readAllLines(directory.resolve("clothesList.txt")).stream()
+                .filter(line -> !line.trim().isEmpty())
+                .map(line -> DonationRecord.parse(line).getDonor()).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the donor of every donation in memory.
+     */
+    private static List<String> spellings(DonationStore store) throws IOException {
+        return store.getClothes().stream().map(DonationRecord::getDonor).collect(Collectors.toList());
+    }
+
+    private static boolean check(String description, boolean passed) {
+        System.out.println(description + ": " + (passed ? "ok" : "FAILED"));
+        return passed;
+    }
+
+    private static void delete(Path directory) throws IOException {
+        String clothesFile = directory.resolve("clothesList.txt").toString();
+        DonationBenchmark.deleteQuietly(directory.resolve("usersList.txt").toString(), clothesFile,
+                directory.resolve("donationCompaniesList.txt").toString(), clothesFile + ".compact",
+                clothesFile + ".wal", clothesFile + ".snapshot", clothesFile + ".snapshot.tmp");
+        Files.deleteIfExists(directory);
+    }
+}
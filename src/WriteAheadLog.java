@@ -0,0 +1,268 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * This class implements a write-ahead log that makes appended records durable before they are acknowledged.
+ * <p>
+ *     Every entry is the length of a record, its CRC-32 and its UTF-8 bytes, so a record that was
+ *     only partly written when the system crashed is recognized and dropped by {@link #recover()}.
+ *     The header holds the length the data file had when the log was last reset: every entry in the
+ *     log belongs after that point of the data file.
+ * </p>
+ * <p>
+ *     Writers append their entries one at a time (e.g. while holding the lock of the data file),
+ *     which is cheap because nothing is forced to disk yet, and then call {@link #awaitDurable(long)}
+ *     without holding any lock. One of the waiting threads forces the log to disk for all entries
+ *     written so far; the others wait for it and return without a force of their own if it covered them.
+ *     While one force is running, new entries pile up and are forced together by the next one,
+ *     so under load the cost of a force is shared by a whole group of records (group commit).
+ * </p>
+ * <p>
+ *     Once the data file itself has been forced to disk, {@link #reset(long)} empties the log.
+ * </p>
+ * <p>
+ *     Programs that share the data file also share its log. They append and reset it only while
+ *     they hold the lock of the data file (see {@link SharedFileLock}), and every append starts at
+ *     the end of the log as it is on disk, after the entries of the other programs. Forcing the log
+ *     forces the entries of all of them.
+ * </p>
+ */
+public class WriteAheadLog implements Closeable {
+    private static final int MAGIC = 0x43445357; // "CDSW"
+    private static final int HEADER_BYTES = 16;
+    private static final int ENTRY_HEADER_BYTES = 8;
+
+    private final Path path;
+    private final FileChannel channel;
+    private long baseLength;
+    private long end;
+    // Where the last append started and how many bytes it wrote, for removeLast()
+    private long lastStart = -1;
+    private int lastBytes;
+
+    // Bytes appended and bytes forced since the log was opened, across resets
+    private volatile long written;
+    private volatile long durable;
+    private volatile long forceCount;
+    private final Object forceLock = new Object();
+
+    private WriteAheadLog(Path path, FileChannel channel, long baseLength) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.baseLength = baseLength;
+        this.end = channel.size();
+    }
+
+    /**
+     * Opens the log, creating an empty one if the file does not exist.
+     */
+    public static WriteAheadLog open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < HEADER_BYTES) {
+                // New, or the header itself was never completely written
+                writeHeader(channel, 0);
+                return new WriteAheadLog(path, channel, 0);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                // Read until the header is full
+            }
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException(path + " is not a write-ahead log");
+            }
+            header.getInt();
+            return new WriteAheadLog(path, channel, header.getLong());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static void writeHeader(FileChannel channel, long baseLength) throws IOException {
+        channel.truncate(HEADER_BYTES);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(0).putLong(baseLength);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        channel.force(false);
+    }
+
+    /**
+     * Returns the length of the data file when the log was last reset.
+     */
+    public long getBaseLength() {
+        return baseLength;
+    }
+
+    /**
+     * Returns the size of the log file in bytes.
+     */
+    public long size() {
+        return end;
+    }
+
+    /**
+     * Returns the number of times the log was forced to disk since it was opened.
+     */
+    public long getForceCount() {
+        return forceCount;
+    }
+
+    /**
+     * Reads the complete entries of the log, in the order they were written.
+     * An entry that was cut off or is damaged ends the log: it and everything after it is removed.
+     */
+    public List<String> recover() throws IOException {
+        List<String> records = new ArrayList<>();
+        long valid = HEADER_BYTES;
+        CRC32 checksum = new CRC32();
+        channel.position(HEADER_BYTES);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+        try {
+            while (valid < end) {
+                int length = in.readInt();
+                int expected = in.readInt();
+                if (length < 0 || length > end - valid - ENTRY_HEADER_BYTES) {
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                checksum.reset();
+                checksum.update(bytes);
+                if ((int) checksum.getValue() != expected) {
+                    break;
+                }
+                records.add(new String(bytes, StandardCharsets.UTF_8));
+                valid += ENTRY_HEADER_BYTES + length;
+            }
+        } catch (EOFException e) {
+            // The last entry was cut off
+        }
+        if (valid < end) {
+            channel.truncate(valid);
+            channel.force(false);
+            end = valid;
+        }
+        return records;
+    }
+
+    /**
+     * Appends the records to the log without forcing them to disk.
+     * Only one thread of one program may append at a time.
+     *
+     * @return the position to pass to {@link #awaitDurable(long)}
+     */
+    public long append(List<String> records) throws IOException {
+        List<byte[]> encoded = new ArrayList<>(records.size());
+        int bytes = 0;
+        for (String record : records) {
+            byte[] data = record.getBytes(StandardCharsets.UTF_8);
+            encoded.add(data);
+            bytes += ENTRY_HEADER_BYTES + data.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(bytes);
+        CRC32 checksum = new CRC32();
+        for (byte[] data : encoded) {
+            checksum.reset();
+            checksum.update(data);
+            buffer.putInt(data.length).putInt((int) checksum.getValue()).put(data);
+        }
+        buffer.flip();
+        // Other programs may have appended or reset the log since
+        long start = channel.size();
+        end = start;
+        try {
+            while (buffer.hasRemaining()) {
+                end += channel.write(buffer, end);
+            }
+        } catch (IOException e) {
+            // A partly written entry would be dropped by recover() anyway, but not the entries before it
+            channel.truncate(start);
+            end = start;
+            throw e;
+        }
+        lastStart = start;
+        lastBytes = bytes;
+        written += bytes;
+        return written;
+    }
+
+    /**
+     * Removes the entries of the last {@link #append(List)}, e.g. because they could not be written to the
+     * data file. The caller must still hold the lock it appended under, so nothing was appended since.
+     */
+    public void removeLast() throws IOException {
+        if (lastStart < 0) {
+            return;
+        }
+        synchronized (forceLock) {
+            channel.truncate(lastStart);
+            end = lastStart;
+            written -= lastBytes;
+            durable = Math.min(durable, written);
+            lastStart = -1;
+        }
+    }
+
+    /**
+     * Returns once every entry up to the given position is on disk, forcing the log if no other
+     * thread has done so yet.
+     */
+    public void awaitDurable(long position) throws IOException {
+        if (durable >= position) {
+            return;
+        }
+        synchronized (forceLock) {
+            if (durable >= position) {
+                // Another thread's force covered this entry while we waited
+                return;
+            }
+            long target = written;
+            channel.force(false);
+            durable = target;
+            forceCount++;
+        }
+    }
+
+    /**
+     * Empties the log. The caller must have forced the data file to disk, so that every entry
+     * of the log is safe in it, and must hold the lock of the writers.
+     *
+     * @param baseLength the length of the data file now
+     */
+    public void reset(long baseLength) throws IOException {
+        synchronized (forceLock) {
+            writeHeader(channel, baseLength);
+            this.baseLength = baseLength;
+            end = HEADER_BYTES;
+            lastStart = -1;
+            durable = written;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+}